@@ -0,0 +1,793 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * The content of a stored bundle file.
+ */
+abstract class BundleArchive {
+
+	/**
+	 * open a bundle file.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param mapped
+	 *            if <code>true</code>, the file is memory-mapped. Files that
+	 *            cannot be mapped, e.g., zip64 archives, are opened as jar
+	 *            files.
+	 * @return the archive.
+	 * @throws IOException
+	 *             if the file is not a valid archive.
+	 */
+	static BundleArchive open(final File file, final boolean mapped)
+			throws IOException {
+		if (mapped) {
+			try {
+				return new MappedArchive(file);
+			} catch (final IOException ioe) {
+				// fall back to the jar file
+			}
+		}
+		return new JarFileArchive(file);
+	}
+
+	/**
+	 * get the name of the file.
+	 *
+	 * @return the path of the file.
+	 */
+	abstract String getName();
+
+	/**
+	 * get the manifest of the archive.
+	 *
+	 * @return the manifest or <code>null</code> if there is none.
+	 * @throws IOException
+	 *             if the manifest cannot be read.
+	 */
+	abstract Manifest getManifest() throws IOException;
+
+	/**
+	 * get an entry. A directory entry is also found by its name without
+	 * trailing slash.
+	 *
+	 * @param name
+	 *            the name of the entry.
+	 * @return the entry or <code>null</code> if there is none.
+	 */
+	abstract ZipEntry getEntry(final String name);
+
+	/**
+	 * get all entries.
+	 *
+	 * @return the entries, in the order of the archive.
+	 */
+	abstract Enumeration<? extends ZipEntry> entries();
+
+	/**
+	 * get the content of an entry.
+	 *
+	 * @param entry
+	 *            an entry of this archive.
+	 * @return the input stream.
+	 * @throws IOException
+	 *             if the entry cannot be read.
+	 */
+	abstract InputStream getInputStream(final ZipEntry entry)
+			throws IOException;
+
+	/**
+	 * close the archive.
+	 *
+	 * @throws IOException
+	 *             if the underlying file cannot be closed.
+	 */
+	abstract void close() throws IOException;
+
+	/**
+	 * An archive that is read through a <code>JarFile</code>.
+	 */
+	static final class JarFileArchive extends BundleArchive {
+
+		private final JarFile jarFile;
+
+		JarFileArchive(final File file) throws IOException {
+			// TODO: check when verification is really required...
+			jarFile = new JarFile(file, false);
+		}
+
+		String getName() {
+			return jarFile.getName();
+		}
+
+		Manifest getManifest() throws IOException {
+			return jarFile.getManifest();
+		}
+
+		ZipEntry getEntry(final String name) {
+			return jarFile.getEntry(name);
+		}
+
+		Enumeration<? extends ZipEntry> entries() {
+			return jarFile.entries();
+		}
+
+		InputStream getInputStream(final ZipEntry entry) throws IOException {
+			return jarFile.getInputStream(entry);
+		}
+
+		void close() throws IOException {
+			jarFile.close();
+		}
+
+	}
+
+	/**
+	 * A pool that bounds the number of open archives. Archives that have not
+	 * been used for the longest time are closed when the pool is full, and
+	 * opened again when they are used. Archives with open input streams are
+	 * not closed, so the pool can grow beyond its size while they are read.
+	 * The pool is only locked when an archive is opened or closed; using an
+	 * open archive just updates its access stamp.
+	 */
+	static final class Pool {
+
+		private final int maxOpen;
+
+		private final HashSet<PooledArchive> open = new HashSet<PooledArchive>();
+
+		/**
+		 * <code>true</code> if the pool has more open archives than allowed
+		 * because some of them were in use when they should be closed.
+		 */
+		volatile boolean overfull;
+
+		private final AtomicLong opens = new AtomicLong();
+
+		private final AtomicLong evictions = new AtomicLong();
+
+		Pool(final int maxOpen) {
+			this.maxOpen = maxOpen;
+		}
+
+		/**
+		 * open a bundle file through the pool.
+		 *
+		 * @param file
+		 *            the file.
+		 * @return the archive.
+		 * @throws IOException
+		 *             if the file is not a valid archive.
+		 */
+		BundleArchive open(final File file) throws IOException {
+			final PooledArchive archive = new PooledArchive(file, this);
+			// open it once to fail early for invalid files
+			archive.acquire();
+			archive.release();
+			return archive;
+		}
+
+		/**
+		 * track an archive that has been (re)opened.
+		 */
+		void opened(final PooledArchive archive) {
+			synchronized (open) {
+				open.add(archive);
+			}
+			trim(archive);
+		}
+
+		/**
+		 * close the archives that have not been used for the longest time if
+		 * there are too many open archives.
+		 * 
+		 * @param current
+		 *            the archive that is being used and stays open.
+		 */
+		void trim(final PooledArchive current) {
+			final List<PooledArchive> victims = new ArrayList<PooledArchive>(
+					1);
+			synchronized (open) {
+				while (open.size() > maxOpen) {
+					PooledArchive victim = null;
+					for (final PooledArchive candidate : open) {
+						if (candidate != current && (victim == null
+								|| candidate.lastUsed < victim.lastUsed)) {
+							victim = candidate;
+						}
+					}
+					if (victim == null) {
+						break;
+					}
+					open.remove(victim);
+					victims.add(victim);
+				}
+			}
+
+			for (final PooledArchive victim : victims) {
+				if (!victim.evict()) {
+					// still in use, try again later
+					synchronized (open) {
+						open.add(victim);
+					}
+				}
+			}
+
+			synchronized (open) {
+				overfull = open.size() > maxOpen;
+			}
+		}
+
+		void remove(final PooledArchive archive) {
+			synchronized (open) {
+				open.remove(archive);
+			}
+		}
+
+		/**
+		 * get the number of open archives.
+		 *
+		 * @return the number of archives that are tracked as open.
+		 */
+		int getOpenCount() {
+			synchronized (open) {
+				return open.size();
+			}
+		}
+
+		/**
+		 * get the number of times an archive was opened.
+		 *
+		 * @return the number of opens, including reopens after eviction.
+		 */
+		long getOpens() {
+			return opens.get();
+		}
+
+		/**
+		 * get the number of times an idle archive was closed because the
+		 * pool was full.
+		 *
+		 * @return the number of evictions.
+		 */
+		long getEvictions() {
+			return evictions.get();
+		}
+
+		public String toString() {
+			return "BundleArchive.Pool{open=" + getOpenCount() + ", max="
+					+ maxOpen + ", opens=" + opens + ", evictions="
+					+ evictions + "}";
+		}
+
+	}
+
+	/**
+	 * An archive that is opened as jar file when it is accessed and can be
+	 * closed by its pool while it is idle.
+	 */
+	static final class PooledArchive extends BundleArchive {
+
+		private final File file;
+
+		private final Pool pool;
+
+		/**
+		 * the jar file while the archive is open, guarded by this.
+		 */
+		private JarFileArchive delegate;
+
+		/**
+		 * the number of pending operations and open streams, guarded by this.
+		 */
+		private int users;
+
+		private boolean closed;
+
+		/**
+		 * the time of the last access, read by the pool to choose the
+		 * archives to close.
+		 */
+		volatile long lastUsed;
+
+		/**
+		 * the entries, listed on first use. They do not change while the
+		 * file is reopened.
+		 */
+		private volatile List<ZipEntry> entryList;
+
+		PooledArchive(final File file, final Pool pool) {
+			this.file = file;
+			this.pool = pool;
+		}
+
+		JarFileArchive acquire() throws IOException {
+			final JarFileArchive archive;
+			boolean opened = false;
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("Archive " + file + " is closed");
+				}
+				if (delegate == null) {
+					delegate = new JarFileArchive(file);
+					pool.opens.incrementAndGet();
+					opened = true;
+				}
+				users++;
+				archive = delegate;
+			}
+			lastUsed = System.nanoTime();
+			if (opened) {
+				pool.opened(this);
+			} else if (pool.overfull) {
+				pool.trim(this);
+			}
+			return archive;
+		}
+
+		synchronized void release() {
+			users--;
+			if (closed && users == 0) {
+				closeDelegate();
+			}
+		}
+
+		/**
+		 * close the jar file if it is not in use.
+		 *
+		 * @return <code>false</code> if the jar file is in use and stays
+		 *         open.
+		 */
+		synchronized boolean evict() {
+			if (users > 0) {
+				return false;
+			}
+			if (delegate != null) {
+				closeDelegate();
+				pool.evictions.incrementAndGet();
+			}
+			return true;
+		}
+
+		private void closeDelegate() {
+			try {
+				delegate.close();
+			} catch (final IOException ioe) {
+				// nothing left to do
+			}
+			delegate = null;
+		}
+
+		String getName() {
+			return file.getPath();
+		}
+
+		Manifest getManifest() throws IOException {
+			final JarFileArchive archive = acquire();
+			try {
+				return archive.getManifest();
+			} finally {
+				release();
+			}
+		}
+
+		/**
+		 * get an entry. If the file cannot be opened again, e.g., because it
+		 * has been removed, there are no entries.
+		 */
+		ZipEntry getEntry(final String name) {
+			final JarFileArchive archive;
+			try {
+				archive = acquire();
+			} catch (final IOException ioe) {
+				return null;
+			}
+			try {
+				return archive.getEntry(name);
+			} finally {
+				release();
+			}
+		}
+
+		Enumeration<? extends ZipEntry> entries() {
+			List<ZipEntry> list = entryList;
+			if (list == null) {
+				final JarFileArchive archive;
+				try {
+					archive = acquire();
+				} catch (final IOException ioe) {
+					return Collections
+							.enumeration(Collections.<ZipEntry> emptyList());
+				}
+				try {
+					// the archive can be closed before the enumeration is used
+					list = Collections.unmodifiableList(
+							new ArrayList<ZipEntry>(
+									Collections.list(archive.entries())));
+				} finally {
+					release();
+				}
+				entryList = list;
+			}
+			return Collections.enumeration(list);
+		}
+
+		InputStream getInputStream(final ZipEntry entry) throws IOException {
+			final JarFileArchive archive = acquire();
+			final InputStream in;
+			try {
+				in = archive.getInputStream(entry);
+			} catch (final IOException ioe) {
+				release();
+				throw ioe;
+			} catch (final RuntimeException re) {
+				release();
+				throw re;
+			}
+			if (in == null) {
+				release();
+				return null;
+			}
+			// the archive stays open until the stream is closed
+			return new FilterInputStream(in) {
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException {
+					final boolean release;
+					synchronized (this) {
+						release = !closed;
+						closed = true;
+					}
+					try {
+						super.close();
+					} finally {
+						if (release) {
+							PooledArchive.this.release();
+						}
+					}
+				}
+			};
+		}
+
+		void close() {
+			pool.remove(this);
+			synchronized (this) {
+				closed = true;
+				if (users == 0 && delegate != null) {
+					closeDelegate();
+				}
+			}
+		}
+
+		public String toString() {
+			return file.getPath();
+		}
+
+	}
+
+	/**
+	 * An archive that is mapped into memory. The central directory is parsed
+	 * once, stored entries are read straight from the mapped file and
+	 * compressed entries are inflated when they are read. The mapping is
+	 * released when the archive is garbage collected.
+	 */
+	static final class MappedArchive extends BundleArchive {
+
+		private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+		private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+		private static final int END_SIGNATURE = 0x06054b50;
+
+		private static final int LOCAL_HEADER_SIZE = 30;
+
+		private static final int CENTRAL_HEADER_SIZE = 46;
+
+		private static final int END_SIZE = 22;
+
+		private final String name;
+
+		private final ByteBuffer buffer;
+
+		private final Map<String, MappedEntry> entries;
+
+		MappedArchive(final File file) throws IOException {
+			name = file.getPath();
+
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				final FileChannel channel = raf.getChannel();
+				final long size = channel.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new ZipException("Archive too large to be mapped");
+				}
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			} finally {
+				// the mapping stays valid
+				raf.close();
+			}
+
+			entries = readCentralDirectory();
+		}
+
+		private Map<String, MappedEntry> readCentralDirectory()
+				throws IOException {
+			final int end = findEnd();
+			final int count = buffer.getShort(end + 10) & 0xFFFF;
+			final long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+			if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+				throw new ZipException("Zip64 archives are not supported");
+			}
+
+			final Map<String, MappedEntry> result = new LinkedHashMap<String, MappedEntry>(
+					count * 4 / 3 + 1);
+			int pos = (int) offset;
+			for (int i = 0; i < count; i++) {
+				if (pos + CENTRAL_HEADER_SIZE > buffer.limit() || buffer
+						.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+					throw new ZipException("Invalid central directory");
+				}
+				final int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+				final int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+				final int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+
+				final byte[] nameBytes = new byte[nameLength];
+				final ByteBuffer nameBuffer = buffer.duplicate();
+				nameBuffer.position(pos + CENTRAL_HEADER_SIZE);
+				nameBuffer.get(nameBytes);
+
+				final MappedEntry entry = new MappedEntry(
+						new String(nameBytes, "UTF-8"),
+						buffer.getInt(pos + 42) & 0xFFFFFFFFL);
+				final int method = buffer.getShort(pos + 10) & 0xFFFF;
+				if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+					throw new ZipException(
+							"Unsupported compression method " + method);
+				}
+				entry.setMethod(method);
+				entry.setCrc(buffer.getInt(pos + 16) & 0xFFFFFFFFL);
+				entry.setCompressedSize(buffer.getInt(pos + 20) & 0xFFFFFFFFL);
+				entry.setSize(buffer.getInt(pos + 24) & 0xFFFFFFFFL);
+				if (!result.containsKey(entry.getName())) {
+					result.put(entry.getName(), entry);
+				}
+
+				pos += CENTRAL_HEADER_SIZE + nameLength + extraLength
+						+ commentLength;
+			}
+			return result;
+		}
+
+		/**
+		 * find the end of central directory record, which is followed by a
+		 * comment of at most 64k.
+		 */
+		private int findEnd() throws IOException {
+			final int last = buffer.limit() - END_SIZE;
+			final int first = Math.max(0, last - 0xFFFF);
+			for (int pos = last; pos >= first; pos--) {
+				if (buffer.getInt(pos) == END_SIGNATURE) {
+					return pos;
+				}
+			}
+			throw new ZipException("Not a zip archive");
+		}
+
+		String getName() {
+			return name;
+		}
+
+		Manifest getManifest() throws IOException {
+			ZipEntry entry = getEntry(JarFile.MANIFEST_NAME);
+			if (entry == null) {
+				for (final MappedEntry e : entries.values()) {
+					if (e.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+						entry = e;
+						break;
+					}
+				}
+				if (entry == null) {
+					return null;
+				}
+			}
+			final InputStream in = getInputStream(entry);
+			try {
+				return new Manifest(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		ZipEntry getEntry(final String name) {
+			final MappedEntry entry = entries.get(name);
+			return entry == null && !name.endsWith("/")
+					? entries.get(name + "/") : entry;
+		}
+
+		Enumeration<? extends ZipEntry> entries() {
+			return Collections.enumeration(entries.values());
+		}
+
+		InputStream getInputStream(final ZipEntry zipEntry)
+				throws IOException {
+			final MappedEntry entry = (MappedEntry) zipEntry;
+			final int start = entry.getDataOffset();
+			final ByteBuffer data = buffer.duplicate();
+			data.limit(start + (int) entry.getCompressedSize());
+			data.position(start);
+
+			if (entry.getMethod() == ZipEntry.STORED) {
+				return new ByteBufferInputStream(data);
+			}
+			return new EntryInflaterInputStream(new ByteBufferInputStream(data),
+					(int) Math.min(entry.getCompressedSize() + 1,
+							Concierge.CLASSLOADER_BUFFER_SIZE));
+		}
+
+		void close() {
+			// the mapping cannot be released explicitly
+		}
+
+		public String toString() {
+			return name;
+		}
+
+		private final class MappedEntry extends ZipEntry {
+
+			private final long headerOffset;
+
+			private volatile int dataOffset = -1;
+
+			MappedEntry(final String name, final long headerOffset) {
+				super(name);
+				this.headerOffset = headerOffset;
+			}
+
+			/**
+			 * get the offset of the data, which follows the local header.
+			 * The length of the local extra field can differ from the
+			 * central directory, so the local header has to be read.
+			 */
+			int getDataOffset() throws IOException {
+				if (dataOffset < 0) {
+					final int pos = (int) headerOffset;
+					if (headerOffset + LOCAL_HEADER_SIZE > buffer.limit()
+							|| buffer.getInt(pos) != LOCAL_HEADER_SIGNATURE) {
+						throw new ZipException(
+								"Invalid local header of " + getName());
+					}
+					final int start = pos + LOCAL_HEADER_SIZE
+							+ (buffer.getShort(pos + 26) & 0xFFFF)
+							+ (buffer.getShort(pos + 28) & 0xFFFF);
+					if (start + getCompressedSize() > buffer.limit()) {
+						throw new ZipException(
+								"Truncated entry " + getName());
+					}
+					dataOffset = start;
+				}
+				return dataOffset;
+			}
+
+		}
+
+	}
+
+	/**
+	 * An input stream that reads from a buffer.
+	 */
+	static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) {
+			final int skipped = (int) Math.max(0,
+					Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+	}
+
+	/**
+	 * An input stream that inflates a raw deflated entry and releases the
+	 * native memory of its inflater when it is closed.
+	 */
+	static final class EntryInflaterInputStream extends InflaterInputStream {
+
+		private boolean eof;
+
+		EntryInflaterInputStream(final InputStream in, final int size) {
+			super(in, new Inflater(true), size);
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (eof) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				// the inflater needs an extra dummy byte at the end of raw
+				// deflated data
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			inf.end();
+		}
+
+	}
+
+}
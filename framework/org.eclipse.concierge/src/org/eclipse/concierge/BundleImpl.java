@@ -15,10 +15,9 @@
  *******************************************************************************/
 package org.eclipse.concierge;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,10 +25,13 @@ import java.io.FileOutputStream;
 import java.io.FilePermission;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.security.Permissions;
@@ -37,6 +39,7 @@ import java.security.ProtectionDomain;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
@@ -53,16 +56,20 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicStampedReference;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
+import org.eclipse.concierge.ConciergeCollections.LRUCache;
 import org.eclipse.concierge.ConciergeCollections.MultiMap;
 import org.eclipse.concierge.ConciergeCollections.ParseResult;
 import org.eclipse.concierge.ConciergeCollections.Tuple;
@@ -150,6 +157,46 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 	 */
 	private static final String CONTENT_DIRECTORY_NAME = "content";
 
+	/**
+	 * the default name of the directory to which the embedded jars of a
+	 * bundle class path are extracted.
+	 */
+	private static final String EMBEDDED_DIRECTORY_NAME = "embedded";
+
+	/**
+	 * the default name of the persistent class caches of the revisions.
+	 */
+	private static final String CLASS_CACHE_FILE_NAME = "classes";
+
+	/**
+	 * marker for classes that are not visible to a revision.
+	 */
+	private static final Object NOT_VISIBLE = new Object();
+
+	/**
+	 * the maximum number of names in the negative lookup cache of a revision.
+	 * Once it is full, the least recently used names are evicted.
+	 */
+	private static final int MAX_MISSING_NAMES = 4096;
+
+	/**
+	 * the number of independently locked segments of the negative lookup
+	 * cache of a revision.
+	 */
+	private static final int MISSING_NAMES_SEGMENTS = 4;
+
+	/**
+	 * the class path sources of a package that is not in the package index.
+	 * Never modified.
+	 */
+	private static final BitSet NO_SOURCES = new BitSet(0);
+
+	/**
+	 * set once the bundle class loader has been registered as parallel
+	 * capable, or the attempt failed because the VM predates Java 7.
+	 */
+	private static volatile boolean parallelCapableChecked;
+
 	private static final short FRAGMENT_ATTACHMENT_NEVER = -1;
 
 	private static final short FRAGMENT_ATTACHMENT_RESOLVETIME = 1;
@@ -264,7 +311,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				+ CONTENT_DIRECTORY_NAME + currentRevisionNumber);
 
 		if (file.exists() && file.isFile()) {
-			final JarFile jarFile = new JarFile(file);
+			final BundleArchive jarFile = openArchive(file);
 			final Manifest manifest = jarFile.getManifest();
 			final String[] classpathStrings = readProperties(
 					manifest.getMainAttributes(), Constants.BUNDLE_CLASSPATH,
@@ -354,9 +401,8 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 			storeFile(file, inStream);
 
-			// and open a JarFile
-			// TODO: check when verification is really required...
-			final JarFile jar = new JarFile(file, false);
+			// and open the archive
+			final BundleArchive jar = openArchive(file);
 
 			// process the manifest
 			final Manifest manifest = jar.getManifest();
@@ -375,9 +421,9 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				}
 
 				// decompress the bundle
-				for (final Enumeration<JarEntry> entries = jar
+				for (final Enumeration<? extends ZipEntry> entries = jar
 						.entries(); entries.hasMoreElements();) {
-					final JarEntry entry = entries.nextElement();
+					final ZipEntry entry = entries.nextElement();
 					if (entry.isDirectory()) {
 						continue;
 					}
@@ -1027,11 +1073,8 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				.toArray(new ServiceReference[registeredServices.size()]);
 
 		for (int i = 0; i < srefs.length; i++) {
-			synchronized (((ServiceReferenceImpl<?>) srefs[i]).useCounters) {
-				if (((ServiceReferenceImpl<?>) srefs[i]).useCounters
-						.get(this) != null) {
-					result.add(srefs[i]);
-				}
+			if (((ServiceReferenceImpl<?>) srefs[i]).isUsedBy(this)) {
+				result.add(srefs[i]);
 			}
 		}
 
@@ -1144,6 +1187,50 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		return currentRevision.classloader.findClass(name);
 	}
 
+	/**
+	 * get the class that is visible to this bundle under the given name, for
+	 * checking the class space compatibility of services. Once the bundle is
+	 * resolved, the outcome is memorized per revision so that repeated checks
+	 * do not have to go through the class loader.
+	 * 
+	 * @param name
+	 *            the class name.
+	 * @return the class or <code>null</code> if the bundle cannot load the
+	 *         class.
+	 */
+	Class<?> getVisibleClass(final String name) {
+		final Revision revision = currentRevision;
+		if (state == Bundle.INSTALLED || state == Bundle.UNINSTALLED
+				|| revision == null || revision.isFragment()
+				|| revision.wiring == null) {
+			try {
+				return loadClass(name);
+			} catch (final ClassNotFoundException e) {
+				return null;
+			}
+		}
+
+		// a refresh or rewiring replaces the memo, so outcomes of loads that
+		// were still running at that time cannot leak into the new one
+		final Map<String, Object> memo = revision.visibleClasses;
+		final Object cached = memo.get(name);
+		if (cached != null) {
+			return cached == NOT_VISIBLE ? null : (Class<?>) cached;
+		}
+
+		try {
+			final Class<?> clazz = revision.classloader.findClass(name);
+			memo.put(name, clazz);
+			return clazz;
+		} catch (final ClassNotFoundException e) {
+			// a dynamic import might still make the class visible later
+			if (revision.dynamicImports.isEmpty()) {
+				memo.put(name, NOT_VISIBLE);
+			}
+			return null;
+		}
+	}
+
 	/**
 	 * @see org.osgi.framework.Bundle#getResources(String)
 	 * @category Bundle
@@ -1476,6 +1563,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		protected static final int GET_URL = 0;
 		protected static final int RETRIEVE_INPUT_STREAM = 1;
 		protected static final int GET_CONTENT_LENGTH = 2;
+		protected static final int RETRIEVE_BYTES = 3;
 
 		protected final int revId;
 		protected final MultiMap<String, BundleCapability> capabilities;
@@ -1497,16 +1585,64 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		private final short fragmentAttachmentPolicy;
 
 		protected ConciergeBundleWiring wiring;
-		protected HashMap<String, BundleWire> packageImportWires;
+		protected ConcurrentHashMap<String, BundleWire> packageImportWires;
 		protected List<BundleWire> requireBundleWires;
 		protected final HashSet<String> exportIndex;
 
+		/**
+		 * memo of the classes visible to this revision, used for the class
+		 * space compatibility checks of services. Replaced whenever the
+		 * revision is refreshed or its wiring changes.
+		 */
+		volatile Map<String, Object> visibleClasses = new ConcurrentHashMap<String, Object>();
+
+		/**
+		 * negative lookup cache, the names of classes (<code>TRUE</code>) and
+		 * resources (<code>FALSE</code>) that could not be found in the
+		 * bundle scope of this revision. Replaced together with
+		 * <code>visibleClasses</code>.
+		 */
+		volatile LRUCache<String, Boolean> missingNames = newMissingNames();
+
+		/**
+		 * the number of single class and resource lookups in the bundle scope,
+		 * only counted if the framework maintains statistics.
+		 */
+		final AtomicLong lookups = new AtomicLong();
+
+		/**
+		 * the number of lookups answered by the negative lookup cache, only
+		 * counted if the framework maintains statistics.
+		 */
+		final AtomicLong missingNameHits = new AtomicLong();
+
+		/**
+		 * index of the bundle class path, maps the path of a package (e.g.
+		 * <code>org/example/</code>) to the class path sources that have
+		 * entries in it. Bit <code>i</code> stands for class path entry
+		 * <code>i</code> of the revision itself, bit
+		 * <code>(j + 1) * classpath.length + i</code> for the same entry of
+		 * fragment <code>j</code>. Built on first use and dropped when the
+		 * class path or the attached fragments change. The stamp is the
+		 * generation of the class path and is incremented whenever the index
+		 * is dropped, so an index built from an outdated class path is never
+		 * stored.
+		 */
+		private final AtomicStampedReference<Map<String, BitSet>> packageIndex = new AtomicStampedReference<Map<String, BitSet>>(
+				null, 0);
+
+		/**
+		 * the persistent cache of the classes defined by this revision,
+		 * <code>null</code> if the class cache is disabled.
+		 */
+		protected ClassCache classCache;
+
 		protected Revision(final int revId, final Manifest manifest,
 				final String[] classpathStrings) throws BundleException {
 			this.revId = revId;
 			this.classpathStrings = classpathStrings;
 
-			this.classloader = new BundleClassLoader();
+			this.classloader = createClassLoader();
 
 			final Attributes attrs = manifest.getMainAttributes();
 
@@ -1717,7 +1853,31 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				fragments = null;
 			}
 
-			classloader = new BundleClassLoader();
+			classloader = createClassLoader();
+			resetLookupCaches();
+		}
+
+		/**
+		 * create a new class loader for the revision. The very first call in
+		 * the VM registers the class loader class as parallel capable, this
+		 * has to happen before the first instance that is actually used is
+		 * created. Later calls do not lock.
+		 * 
+		 * @return the class loader.
+		 */
+		private BundleClassLoader createClassLoader() {
+			if (!parallelCapableChecked) {
+				synchronized (BundleImpl.class) {
+					if (!parallelCapableChecked) {
+						// an inner class cannot have a static initializer
+						// and the registration is caller sensitive, so it
+						// has to run in the code of an instance
+						new BundleClassLoader().registerParallelCapable();
+						parallelCapableChecked = true;
+					}
+				}
+			}
+			return new BundleClassLoader();
 		}
 
 		private MultiMap<String, BundleRequirement> parseRequirements(
@@ -2123,6 +2283,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				packageImportWires = null;
 				requireBundleWires = null;
 				fragments = null;
+				resetLookupCaches();
 			}
 
 			if (!uninstall) {
@@ -2140,6 +2301,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			this.wiring = wiring;
 			packageImportWires = wiring.getPackageImportWires();
 			requireBundleWires = wiring.getRequireBundleWires();
+			resetLookupCaches();
 		}
 
 		ConciergeBundleWiring addAdditionalWires(final List<Wire> wires) {
@@ -2149,9 +2311,104 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 			packageImportWires = wiring.getPackageImportWires();
 			requireBundleWires = wiring.getRequireBundleWires();
+			resetWiringCaches();
 			return wiring;
 		}
 
+		/**
+		 * drop the memorized lookups after the class path or the attached
+		 * fragments of the revision have changed.
+		 */
+		void resetLookupCaches() {
+			resetWiringCaches();
+			final int[] generation = new int[1];
+			Map<String, BitSet> index = packageIndex.get(generation);
+			while (!packageIndex.compareAndSet(index, null, generation[0],
+					generation[0] + 1)) {
+				index = packageIndex.get(generation);
+			}
+		}
+
+		/**
+		 * drop the memorized lookups after new wires have been added. The
+		 * package index only depends on the class path and stays valid.
+		 */
+		void resetWiringCaches() {
+			visibleClasses = new ConcurrentHashMap<String, Object>();
+			missingNames = newMissingNames();
+		}
+
+		private LRUCache<String, Boolean> newMissingNames() {
+			return new LRUCache<String, Boolean>(MAX_MISSING_NAMES,
+					MISSING_NAMES_SEGMENTS);
+		}
+
+		/**
+		 * get the class path sources that have entries in the package of a
+		 * file.
+		 * 
+		 * @param filename
+		 *            the name of the file, relative to the class path
+		 *            entries.
+		 * @return the sources as described for <code>packageIndex</code>, or
+		 *         <code>null</code> if the class path has not been resolved
+		 *         yet and all sources have to be searched.
+		 */
+		BitSet getPackageSources(final String filename) {
+			final int[] generation = new int[1];
+			Map<String, BitSet> index = packageIndex.get(generation);
+			final String[] cp = classpath;
+			if (cp == null) {
+				return null;
+			}
+
+			if (index == null) {
+				index = new HashMap<String, BitSet>();
+				for (int i = 0; i < cp.length; i++) {
+					indexEntries(index, listEntries(cp[i]), i);
+				}
+				if (fragments != null) {
+					int offset = cp.length;
+					for (final Revision fragment : fragments) {
+						for (int i = 0; i < cp.length; i++) {
+							indexEntries(index, fragment.listEntries(cp[i]),
+									offset + i);
+						}
+						offset += cp.length;
+					}
+				}
+				packageIndex.compareAndSet(null, index, generation[0],
+						generation[0]);
+			}
+
+			final BitSet sources = index
+					.get(packagePath(stripLeadingSlash(filename)));
+			return sources == null ? NO_SOURCES : sources;
+		}
+
+		/**
+		 * add the entries of a class path source to the package index. The
+		 * directories of an entry are entries of their parent directories.
+		 */
+		private void indexEntries(final Map<String, BitSet> index,
+				final List<String> entries, final int source) {
+			for (final String entry : entries) {
+				String path = entry;
+				do {
+					path = packagePath(path);
+					BitSet sources = index.get(path);
+					if (sources == null) {
+						sources = new BitSet();
+						index.put(path, sources);
+					} else if (sources.get(source)) {
+						// the parent directories are already indexed
+						break;
+					}
+					sources.set(source);
+				} while (path.length() > 0);
+			}
+		}
+
 		String getFragmentHost() {
 			final List<BundleRequirement> hostReqs = requirements
 					.get(HostNamespace.HOST_NAMESPACE);
@@ -2322,6 +2579,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				classpath = newClasspaths
 						.toArray(new String[newClasspaths.size()]);
 			}
+			resetLookupCaches();
 
 			// add native code
 			nativeCodeStrings = newNativeStrings;
@@ -2453,8 +2711,56 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		protected abstract long retrieveFileLength(final String classpath,
 				final String filename) throws IOException;
 
+		/**
+		 * read the content of a file.
+		 * 
+		 * @param classpath
+		 *            the class path entry.
+		 * @param filename
+		 *            the name of the file.
+		 * @return the content or <code>null</code> if the file does not
+		 *         exist.
+		 * @throws IOException
+		 *             if the file cannot be read.
+		 */
+		protected abstract byte[] retrieveBytes(final String classpath,
+				final String filename) throws IOException;
+
+		/**
+		 * list the files and directories in a class path entry.
+		 * 
+		 * @param classpath
+		 *            the class path entry.
+		 * @return the names of the files and directories, relative to the
+		 *         class path entry.
+		 */
+		protected abstract List<String> listEntries(final String classpath);
+
 		protected abstract void close() throws IOException;
 
+		/**
+		 * open the persistent class cache of the revision if it is enabled.
+		 * 
+		 * @param source
+		 *            the bundle file or content directory of the revision.
+		 */
+		protected void openClassCache(final File source) {
+			if (framework.CLASS_CACHE) {
+				classCache = new ClassCache(
+						new File(storageLocation, CLASS_CACHE_FILE_NAME + revId),
+						source);
+			}
+		}
+
+		/**
+		 * close the persistent class cache of the revision.
+		 */
+		protected void closeClassCache() {
+			if (classCache != null) {
+				classCache.close();
+			}
+		}
+
 		URL createURL(final String name1, final String fragment)
 				throws MalformedURLException {
 			final String name = name1.replace('\\', '/');
@@ -2466,12 +2772,82 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 		class BundleClassLoader extends ClassLoader implements BundleReference {
 
+			/**
+			 * the per class name locks held while a class is defined. The
+			 * locks are only weakly referenced, so that a lock disappears once
+			 * no thread is loading the class anymore.
+			 */
+			private final ConcurrentHashMap<String, ClassLoadingLock> classLoadingLocks = new ConcurrentHashMap<String, ClassLoadingLock>();
+
+			/**
+			 * the queue of locks that have been garbage collected.
+			 */
+			private final ReferenceQueue<Object> staleLocks = new ReferenceQueue<Object>();
+
 			public BundleClassLoader() {
 				// set Concierge Classloader as parent of BundleClassLoader
 				// super(Concierge.class.getClassLoader());
 				super(framework.parentClassLoader);
 			}
 
+			/**
+			 * register the class loader class as parallel capable so that the
+			 * VM does not lock the class loader instance when it loads
+			 * classes through it. The method is caller sensitive and only
+			 * exists since Java 7, so it has to be invoked reflectively from
+			 * within this class.
+			 */
+			void registerParallelCapable() {
+				try {
+					final Method register = ClassLoader.class
+							.getDeclaredMethod("registerAsParallelCapable");
+					register.invoke(null);
+				} catch (final NoSuchMethodException nsme) {
+					// before Java 7, the VM serializes class loading
+				} catch (final Exception e) {
+					if (framework.DEBUG_CLASSLOADING) {
+						framework.logger.log(LogService.LOG_DEBUG,
+								"Could not register the bundle class loader as parallel capable",
+								e);
+					}
+				}
+			}
+
+			/**
+			 * get the lock for loading a class.
+			 * 
+			 * @param classname
+			 *            the name of the class.
+			 * @return the lock object, the same for all threads loading the
+			 *         class.
+			 */
+			private Object getClassLoadingLock0(final String classname) {
+				// drop the entries of collected locks
+				ClassLoadingLock stale;
+				while ((stale = (ClassLoadingLock) staleLocks.poll()) != null) {
+					classLoadingLocks.remove(stale.classname, stale);
+				}
+
+				final Object lock = new Object();
+				final ClassLoadingLock ref = new ClassLoadingLock(classname,
+						lock, staleLocks);
+				while (true) {
+					final ClassLoadingLock existing = classLoadingLocks
+							.putIfAbsent(classname, ref);
+					if (existing == null) {
+						return lock;
+					}
+					final Object existingLock = existing.get();
+					if (existingLock != null) {
+						return existingLock;
+					}
+					// the existing lock has been collected in the meantime
+					if (classLoadingLocks.replace(classname, existing, ref)) {
+						return lock;
+					}
+				}
+			}
+
 			/**
 			 * 
 			 * @see java.lang.ClassLoader#loadClass(java.lang.String)
@@ -2593,7 +2969,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			 * @throws ClassNotFoundException
 			 */
 			@SuppressWarnings("null")
-			private synchronized Object findResource0(final String pkg,
+			private Object findResource0(final String pkg,
 					final String name, final boolean isClass,
 					final boolean multiple) throws ClassNotFoundException {
 				final Vector<URL> resources = multiple ? new Vector<URL>()
@@ -2697,7 +3073,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			 * @return
 			 * @throws ClassNotFoundException
 			 */
-			private synchronized Object findResource1(final String pkg,
+			private Object findResource1(final String pkg,
 					final String name, final boolean isClass,
 					final boolean multiple, final Vector<URL> resources)
 							throws ClassNotFoundException {
@@ -2716,6 +3092,25 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 					}
 				}
 
+				// names that could not be found before are not searched again.
+				// A refresh or rewiring replaces the cache, so outcomes of
+				// lookups that were still running at that time cannot leak
+				// into the new one
+				final LRUCache<String, Boolean> missing = missingNames;
+				final Boolean kind = Boolean.valueOf(isClass);
+				if (!multiple) {
+					final boolean statistics = framework.STATISTICS;
+					if (statistics) {
+						lookups.incrementAndGet();
+					}
+					if (kind.equals(missing.get(name))) {
+						if (statistics) {
+							missingNameHits.incrementAndGet();
+						}
+						return null;
+					}
+				}
+
 				// Step 4: check required bundles, depth first
 				if (requireBundleWires != null) {
 					final HashSet<Bundle> visited = new HashSet<Bundle>();
@@ -2755,11 +3150,80 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 				// Step 7: if the package is exported, fail
 				if (exportIndex.contains(pkg)) {
+					if (!multiple) {
+						missing.put(name, kind);
+					}
 					return null;
 				}
 
 				// Step 8: check dynamic imports in case of classes
 				if (isClass && !dynamicImports.isEmpty()) {
+					final BundleCapability bundleCap = wireDynamicImport(pkg);
+					if (bundleCap != null) {
+						final BundleRevision rev = bundleCap.getRevision();
+						if (!(rev instanceof Revision)) {
+							return framework.systemBundleClassLoader
+									.loadClass(name);
+						} else {
+							return ((Revision) rev).classloader.findResource1(
+									pkg, name, isClass, multiple, resources);
+						}
+					}
+				}
+
+				// convenience for resources: delegate to boot class path as
+				// final fallback
+				if ("".equals(pkg) && !isClass && !multiple) {
+					final URL url = getParent().getResource(name);
+					if (url == null) {
+						missing.put(name, kind);
+					}
+					return url;
+				}
+
+				// a dynamic import can still be wired once a matching
+				// package is exported
+				if (!multiple && !(isClass && hasDynamicImport(pkg))) {
+					missing.put(name, kind);
+				}
+
+				return resources;
+			}
+
+			/**
+			 * check if one of the dynamic imports of the revision matches a
+			 * package.
+			 * 
+			 * @param pkg
+			 *            the package.
+			 * @return <code>true</code> if a dynamic import matches.
+			 */
+			private boolean hasDynamicImport(final String pkg) {
+				synchronized (dynamicImports) {
+					for (final BundleRequirement dynImport : dynamicImports) {
+						if (RFC1960Filter.stringCompare(
+								dynImport.getDirectives()
+										.get(Concierge.DIR_INTERNAL)
+										.toCharArray(),
+								0, pkg.toCharArray(), 0) == 0) {
+							return true;
+						}
+					}
+				}
+				return false;
+			}
+
+			/**
+			 * find a dynamic import that matches a package and wire it. The
+			 * dynamic imports of a revision are wired one at a time.
+			 * 
+			 * @param pkg
+			 *            the package.
+			 * @return the capability to which the package has been wired,
+			 *         or <code>null</code> if no dynamic import matches.
+			 */
+			private BundleCapability wireDynamicImport(final String pkg) {
+				synchronized (dynamicImports) {
 					for (final Iterator<BundleRequirement> iter = dynamicImports
 							.iterator(); iter.hasNext();) {
 						final BundleRequirement dynImport = iter.next();
@@ -2806,46 +3270,12 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 								iter.remove();
 							}
 
-							final BundleRevision rev = bundleCap.getRevision();
-							if (!(rev instanceof Revision)) {
-								if (isClass) {
-									return framework.systemBundleClassLoader
-											.loadClass(name);
-								} else {
-									if (multiple) {
-										try {
-											final Enumeration<URL> e = framework.systemBundleClassLoader
-													.getResources(name);
-											while (e.hasMoreElements()) {
-												resources.add(e.nextElement());
-											}
-										} catch (final IOException ioe) {
-											// nothing we can do about it
-											// FIXME: to log
-										}
-									} else {
-										return framework.systemBundleClassLoader
-												.getResource(name);
-									}
-								}
-							} else {
-								return ((Revision) bundleCap
-										.getRevision()).classloader
-												.findResource1(pkg, name,
-														isClass, multiple,
-														resources);
-							}
+							resetWiringCaches();
+							return bundleCap;
 						}
 					}
 				}
-
-				// convenience for resources: delegate to boot class path as
-				// final fallback
-				if ("".equals(pkg) && !isClass && !multiple) {
-					return getParent().getResource(name);
-				}
-
-				return resources;
+				return null;
 			}
 
 			Set<String> listResources(final String path,
@@ -2990,14 +3420,21 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			}
 
 			/**
-			 * Find a class in the bundle scope.
+			 * Find a class in the bundle scope. Only the threads loading the
+			 * same class are serialized.
 			 * 
 			 * @param classname
 			 *            the name of the class.
 			 * @return the <code>Class</code> object if the class could be
 			 *         found. <code>null</code> otherwise.
 			 */
-			private synchronized Class<?> findOwnClass(final String classname) {
+			private Class<?> findOwnClass(final String classname) {
+				synchronized (getClassLoadingLock0(classname)) {
+					return findOwnClass0(classname);
+				}
+			}
+
+			private Class<?> findOwnClass0(final String classname) {
 				final Class<?> clazz;
 				if (dexClassLoader != null) {
 					clazz = findDexClass(classname);
@@ -3009,39 +3446,53 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 					return clazz;
 				}
 				try {
+					// the cached bytes are only valid for the same hooks
+					final String hooks = classCache == null ? null
+							: framework.getWeavingHooksKey();
+					final boolean weave = hooks == null
+							? framework.hasWeavingHooks()
+							: hooks.length() != 0;
+					if (classCache != null) {
+						final ByteBuffer cached = classCache.get(classname,
+								hooks);
+						if (cached != null) {
+							// final bytes of an earlier run, already woven; no
+							// WovenClass is created, so no hooks or listeners see it
+							definePackage(packageOf(classname));
+							return defineClass(classname, cached, domain);
+						}
+					}
+
 					final String filename = classToFile(classname);
+					final BitSet sources = getPackageSources(filename);
 					for (int i = 0; i < classpath.length; i++) {
-						final InputStream input = retrieveFile(classpath[i],
-								filename);
-						if (input == null) {
+						if (sources != null && !sources.get(i)) {
+							continue;
+						}
+						byte[] bytes = retrieveBytes(classpath[i], filename);
+						if (bytes == null) {
 							continue;
 						}
 						try {
-							int len;
-							final ByteArrayOutputStream out = new ByteArrayOutputStream();
-							final BufferedInputStream bis = new BufferedInputStream(
-									input);
-							final byte[] chunk = new byte[Concierge.CLASSLOADER_BUFFER_SIZE];
-							while ((len = bis.read(chunk, 0,
-									Concierge.CLASSLOADER_BUFFER_SIZE)) > 0) {
-								out.write(chunk, 0, len);
-							}
-
-							byte[] bytes = out.toByteArray();
-
 							// call weaving hooks here
-							if (framework.hasWeavingHooks()) {
+							if (weave) {
 								final WovenClassImpl wovenClass = new WovenClassImpl(
 										classname, bytes, Revision.this,
 										domain);
 								framework.callWeavingHooks(wovenClass);
 								bytes = wovenClass.getBytes();
 
-								requirements.insertAll(
-										PackageNamespace.PACKAGE_NAMESPACE,
-										wovenClass.dynamicImportRequirements);
-								dynamicImports.addAll(
-										wovenClass.dynamicImportRequirements);
+								synchronized (dynamicImports) {
+									requirements.insertAll(
+											PackageNamespace.PACKAGE_NAMESPACE,
+											wovenClass.dynamicImportRequirements);
+									dynamicImports.addAll(
+											wovenClass.dynamicImportRequirements);
+								}
+								if (!wovenClass.dynamicImportRequirements
+										.isEmpty()) {
+									resetWiringCaches();
+								}
 
 								// define package
 								definePackage(packageOf(classname));
@@ -3052,16 +3503,25 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 								wovenClass.setProtectionDomain(
 										ownClazz.getProtectionDomain());
 
+								// classes with added dynamic imports are
+								// woven again to restore the imports
+								if (classCache != null
+										&& wovenClass.dynamicImportRequirements
+												.isEmpty()) {
+									classCache.put(classname, hooks, bytes);
+								}
+
 								return ownClazz;
 							}
 
 							// define package
 							definePackage(packageOf(classname));
-							return defineClass(classname, bytes, 0,
-									bytes.length, domain);
-						} catch (final IOException ioe) {
-							ioe.printStackTrace();
-							return null;
+							final Class<?> ownClazz = defineClass(classname,
+									bytes, 0, bytes.length, domain);
+							if (classCache != null) {
+								classCache.put(classname, hooks, bytes);
+							}
+							return ownClazz;
 						} catch (final LinkageError le) {
 							if (framework.DEBUG_CLASSLOADING) {
 								framework.logger
@@ -3078,34 +3538,26 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 					}
 
 					if (fragments != null) {
+						int offset = classpath.length;
 						for (final Revision fragment : fragments) {
 							for (int i = 0; i < classpath.length; i++) {
-								final InputStream input = fragment
-										.retrieveFile(classpath[i], filename);
-								if (input == null) {
+								if (sources != null
+										&& !sources.get(offset + i)) {
+									continue;
+								}
+								final byte[] bytes = fragment
+										.retrieveBytes(classpath[i], filename);
+								if (bytes == null) {
 									continue;
 								}
 								try {
-									int len;
-									final ByteArrayOutputStream out = new ByteArrayOutputStream();
-									final BufferedInputStream bis = new BufferedInputStream(
-											input);
-									final byte[] chunk = new byte[Concierge.CLASSLOADER_BUFFER_SIZE];
-									while ((len = bis.read(chunk, 0,
-											Concierge.CLASSLOADER_BUFFER_SIZE)) > 0) {
-										out.write(chunk, 0, len);
-									}
-
 									// fixes https://github.com/eclipse/concierge/issues/48
 									// define package
 									definePackage(packageOf(classname));
-									return defineClass(classname,
-											out.toByteArray(), 0, out.size(),
+									return defineClass(classname, bytes, 0,
+											bytes.length,
 											((AbstractBundle) fragment
 													.getBundle()).domain);
-								} catch (final IOException ioe) {
-									ioe.printStackTrace();
-									return null;
 								} catch (final LinkageError le) {
 									if (framework.DEBUG_CLASSLOADING) {
 										framework.logger.log(
@@ -3120,6 +3572,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 									throw le;
 								}
 							}
+							offset += classpath.length;
 						}
 					}
 				} catch (final IOException e) {
@@ -3136,13 +3589,15 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 			private Class<?> findDexClass(final String classname) {
 				try {
-					if (dexFile == null) {
-						final String fileName = storageLocation
-								+ BUNDLE_FILE_NAME + revId;
-						dexFile = dexFileLoader.invoke(null,
-								new Object[] { fileName,
-										storageLocation + "classes.dex",
-										new Integer(0) });
+					synchronized (this) {
+						if (dexFile == null) {
+							final String fileName = storageLocation
+									+ BUNDLE_FILE_NAME + revId;
+							dexFile = dexFileLoader.invoke(null,
+									new Object[] { fileName,
+											storageLocation + "classes.dex",
+											new Integer(0) });
+						}
 					}
 
 					if (dexFile != null) {
@@ -3222,7 +3677,11 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				final Vector<URL> results = resources == null
 						? new Vector<URL>() : resources;
 				try {
+					final BitSet sources = getPackageSources(name);
 					for (int i = 0; i < classpath.length; i++) {
+						if (sources != null && !sources.get(i)) {
+							continue;
+						}
 						final URL url = lookupFile(classpath[i], name);
 						if (url != null) {
 							if (!multiple) {
@@ -3235,6 +3694,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 					if (useFragments && fragments != null) {
 						// look in fragments
+						int offset = classpath.length;
 						for (final Revision fragment : fragments) {
 							if (fragment == null) {
 								throw new IllegalStateException(
@@ -3242,6 +3702,10 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 							}
 
 							for (int i = 0; i < classpath.length; i++) {
+								if (sources != null
+										&& !sources.get(offset + i)) {
+									continue;
+								}
 								final URL url = fragment
 										.lookupFile(classpath[i], name);
 								if (url != null) {
@@ -3252,6 +3716,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 									}
 								}
 							}
+							offset += classpath.length;
 						}
 					}
 				} catch (final IOException ioe) {
@@ -3501,6 +3966,22 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 	}
 
+	/**
+	 * a weak reference to the lock for loading a class, remembers the class
+	 * name so that the entry can be removed once the lock is collected.
+	 */
+	static final class ClassLoadingLock extends WeakReference<Object> {
+
+		final String classname;
+
+		ClassLoadingLock(final String classname, final Object lock,
+				final ReferenceQueue<Object> queue) {
+			super(lock, queue);
+			this.classname = classname;
+		}
+
+	}
+
 	class HeaderDictionary extends Hashtable<String, String> {
 
 		private static final long serialVersionUID = 6688251578575649710L;
@@ -3579,13 +4060,22 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 
 	class JarBundleRevision extends Revision {
 
-		private final JarFile jarFile;
+		private final BundleArchive jarFile;
+
+		/**
+		 * the embedded jars of the bundle class path. They are extracted to
+		 * the storage on first use and opened as jar files, so that looking up
+		 * an entry uses the index of the jar file instead of scanning the
+		 * embedded jar.
+		 */
+		private final ConcurrentHashMap<String, BundleArchive> embeddedJars = new ConcurrentHashMap<String, BundleArchive>();
 
-		protected JarBundleRevision(final int revId, final JarFile jar,
+		protected JarBundleRevision(final int revId, final BundleArchive jar,
 				final Manifest manifest, final String[] classpathStrings)
 						throws BundleException {
 			super(revId, manifest, classpathStrings);
 			this.jarFile = jar;
+			openClassCache(new File(jar.getName()));
 		}
 
 		protected URL lookupFile(final String classpath, final String filename)
@@ -3604,6 +4094,11 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 					RETRIEVE_INPUT_STREAM);
 		}
 
+		protected byte[] retrieveBytes(final String classpath,
+				final String filename) throws IOException {
+			return (byte[]) findFile(classpath, filename, RETRIEVE_BYTES);
+		}
+
 		public long retrieveFileLength(final String classpath,
 				final String filename) throws IOException {
 			final Object res = findFile(classpath, filename,
@@ -3621,7 +4116,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			}
 		}
 
-		private Object findFile(final String classpath, String filename,
+		private Object findFile(String classpath, String filename,
 				final int mode) throws IOException {
 
 			// strip trailing separator
@@ -3641,15 +4136,20 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 					return jarFile.getInputStream(entry);
 				case GET_CONTENT_LENGTH:
 					return entry.getSize();
+				case RETRIEVE_BYTES:
+					return readFully(jarFile.getInputStream(entry),
+							entry.getSize());
 				}
 			} else {
+				// bundle URLs of embedded jars have the path of the jar
+				classpath = stripLeadingSlash(classpath);
+
 				final ZipEntry entry = jarFile.getEntry(classpath);
 				if (entry == null) {
 					return null;
 				}
 
-				final InputStream in = jarFile.getInputStream(entry);
-				if (in == null) {
+				if (entry.isDirectory()) {
 					// classpath is a directory
 					final ZipEntry entry2 = jarFile
 							.getEntry(classpath + "/" + filename);
@@ -3663,29 +4163,139 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 						return jarFile.getInputStream(entry2);
 					case GET_CONTENT_LENGTH:
 						return entry2.getSize();
+					case RETRIEVE_BYTES:
+						return readFully(jarFile.getInputStream(entry2),
+								entry2.getSize());
 					}
 				}
 
-				final JarInputStream embeddedJar = new JarInputStream(
-						jarFile.getInputStream(entry));
+				final BundleArchive embeddedJar;
+				try {
+					embeddedJar = getEmbeddedJar(classpath, entry);
+				} catch (final IOException ioe) {
+					// not a valid jar
+					return null;
+				}
+				final ZipEntry embeddedEntry = embeddedJar.getEntry(filename);
+				if (embeddedEntry == null) {
+					return null;
+				}
+				switch (mode) {
+				case GET_URL:
+					return createURL(entry.getName(), embeddedEntry.getName());
+				case RETRIEVE_INPUT_STREAM:
+					return embeddedJar.getInputStream(embeddedEntry);
+				case GET_CONTENT_LENGTH:
+					return embeddedEntry.getSize();
+				case RETRIEVE_BYTES:
+					return readFully(embeddedJar.getInputStream(embeddedEntry),
+							embeddedEntry.getSize());
+				}
+			}
+			return null;
+		}
 
-				JarEntry embeddedEntry;
-				while ((embeddedEntry = embeddedJar
-						.getNextJarEntry()) != null) {
-					if (embeddedEntry.getName().equals(filename)) {
-						switch (mode) {
-						case GET_URL:
-							return createURL(entry.getName(),
-									embeddedEntry.getName());
-						case RETRIEVE_INPUT_STREAM:
-							return embeddedJar;
-						case GET_CONTENT_LENGTH:
-							return embeddedEntry.getSize();
-						}
+		/**
+		 * get an embedded jar, extract and open it if this has not happened
+		 * yet. A copy that was extracted before, e.g., in an earlier run of
+		 * the framework, is reused if it has the size of the entry.
+		 * 
+		 * @param classpath
+		 *            the class path entry.
+		 * @param entry
+		 *            the entry of the embedded jar.
+		 * @return the embedded jar.
+		 * @throws IOException
+		 *             if the embedded jar cannot be extracted or opened.
+		 */
+		private BundleArchive getEmbeddedJar(final String classpath,
+				final ZipEntry entry) throws IOException {
+			final BundleArchive embeddedJar = embeddedJars.get(classpath);
+			if (embeddedJar != null) {
+				return embeddedJar;
+			}
+
+			synchronized (embeddedJars) {
+				BundleArchive jar = embeddedJars.get(classpath);
+				if (jar == null) {
+					final File file = new File(storageLocation
+							+ EMBEDDED_DIRECTORY_NAME + revId, classpath);
+					if (entry.getSize() < 0 || !file.isFile()
+							|| file.length() != entry.getSize()) {
+						storeFile(file, jarFile.getInputStream(entry));
+					}
+					jar = openArchive(file);
+					embeddedJars.put(classpath, jar);
+				}
+				return jar;
+			}
+		}
+
+		protected List<String> listEntries(String classpath) {
+			final List<String> result = new ArrayList<String>();
+			final Enumeration<? extends ZipEntry> entries;
+			final String prefix;
+			if (classpath == null || classpath.equals(".")) {
+				entries = jarFile.entries();
+				prefix = "";
+			} else {
+				classpath = stripLeadingSlash(classpath);
+				final ZipEntry entry = jarFile.getEntry(classpath);
+				if (entry == null) {
+					return result;
+				}
+				if (entry.isDirectory()) {
+					entries = jarFile.entries();
+					prefix = appendTrailingSlash(classpath);
+				} else {
+					final BundleArchive embeddedJar = embeddedJars
+							.get(classpath);
+					if (embeddedJar == null) {
+						// read the names from the entry, the jar is only
+						// extracted when something is loaded from it
+						listEmbeddedEntries(entry, result);
+						return result;
+					}
+					entries = embeddedJar.entries();
+					prefix = "";
+				}
+			}
+
+			while (entries.hasMoreElements()) {
+				final String name = entries.nextElement().getName();
+				if (name.startsWith(prefix)
+						&& name.length() > prefix.length()) {
+					result.add(name.substring(prefix.length()));
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * list the entries of an embedded jar that has not been extracted yet
+		 * by reading through its entry of the bundle jar.
+		 */
+		private void listEmbeddedEntries(final ZipEntry entry,
+				final List<String> result) {
+			ZipInputStream in = null;
+			try {
+				in = new ZipInputStream(jarFile.getInputStream(entry));
+				ZipEntry embeddedEntry;
+				while ((embeddedEntry = in.getNextEntry()) != null) {
+					result.add(embeddedEntry.getName());
+				}
+			} catch (final IOException ioe) {
+				// not a valid jar
+				result.clear();
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (final IOException ioe) {
+						// silently ignore
 					}
 				}
 			}
-			return null;
 		}
 
 		protected Vector<URL> searchFiles(final String classpath,
@@ -3708,9 +4318,9 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 				cpOffset = 0;
 			}
 
-			final Enumeration<JarEntry> enums = jarFile.entries();
+			final Enumeration<? extends ZipEntry> enums = jarFile.entries();
 			while (enums.hasMoreElements()) {
-				final JarEntry ze = enums.nextElement();
+				final ZipEntry ze = enums.nextElement();
 				final String name;
 				if (cpOffset == 0 || cpOffset >= ze.getName().length()) {
 					name = ze.getName().replace('\\', '/');
@@ -3751,7 +4361,11 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		}
 
 		protected void close() throws IOException {
+			closeClassCache();
 			jarFile.close();
+			for (final BundleArchive embeddedJar : embeddedJars.values()) {
+				embeddedJar.close();
+			}
 		}
 
 		public String toString() {
@@ -3769,6 +4383,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 						throws BundleException {
 			super(revId, manifest, classpathStrings);
 			this.storageLocation = location;
+			openClassCache(new File(location));
 		}
 
 		protected URL lookupFile(final String classpath, final String filename,
@@ -3788,6 +4403,12 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			return (Long) findFile(classpath, filename, 2);
 		}
 
+		@Override
+		protected byte[] retrieveBytes(final String classpath,
+				final String filename) throws IOException {
+			return (byte[]) findFile(classpath, filename, RETRIEVE_BYTES);
+		}
+
 		@Override
 		protected URL lookupFile(final String classpath, final String filename)
 				throws IOException {
@@ -3812,6 +4433,9 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 							return new FileInputStream(file);
 						case GET_CONTENT_LENGTH:
 							return file.length();
+						case RETRIEVE_BYTES:
+							return readFully(new FileInputStream(file),
+									file.length());
 						}
 					} else {
 						return null;
@@ -3837,6 +4461,9 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 								return jar.getInputStream(entry);
 							case GET_CONTENT_LENGTH:
 								return entry.getSize();
+							case RETRIEVE_BYTES:
+								return readFully(jar.getInputStream(entry),
+										entry.getSize());
 							}
 						} finally {
 							if (mode != RETRIEVE_INPUT_STREAM) {
@@ -3847,7 +4474,7 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 						// file is a directory
 						try {
 							final File source = new File(file, filename);
-							if (file.exists()) {
+							if (source.exists()) {
 								switch (mode) {
 								case GET_URL:
 									return createURL(filename, null);
@@ -3855,6 +4482,9 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 									return new FileInputStream(source);
 								case GET_CONTENT_LENGTH:
 									return source.length();
+								case RETRIEVE_BYTES:
+									return readFully(new FileInputStream(source),
+											source.length());
 								}
 							} else {
 								return null;
@@ -3982,6 +4612,57 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 			return results;
 		}
 
+		protected List<String> listEntries(final String classpath) {
+			final List<String> result = new ArrayList<String>();
+			if (classpath == null || classpath.equals(".")) {
+				listFiles(new File(storageLocation), "", result);
+				return result;
+			}
+
+			final File file = new File(storageLocation, classpath);
+			if (file.isDirectory()) {
+				listFiles(file, "", result);
+			} else if (file.exists()) {
+				ZipFile jar = null;
+				try {
+					jar = new ZipFile(file);
+					final Enumeration<? extends ZipEntry> entries = jar
+							.entries();
+					while (entries.hasMoreElements()) {
+						result.add(entries.nextElement().getName());
+					}
+				} catch (final IOException ioe) {
+					// not a valid jar
+				} finally {
+					if (jar != null) {
+						try {
+							jar.close();
+						} catch (final IOException ioe) {
+							// silently ignore
+						}
+					}
+				}
+			}
+			return result;
+		}
+
+		private void listFiles(final File directory, final String path,
+				final List<String> result) {
+			final File[] files = directory.listFiles();
+			if (files == null) {
+				return;
+			}
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory()) {
+					final String name = path + files[i].getName() + "/";
+					result.add(name);
+					listFiles(files[i], name, result);
+				} else {
+					result.add(path + files[i].getName());
+				}
+			}
+		}
+
 		private void testFiles(final File directory, final Vector<URL> results,
 				final boolean recurse, final String filePattern) {
 			if (directory.isDirectory()) {
@@ -4022,11 +4703,27 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		}
 
 		protected void close() throws IOException {
-			// nop
+			closeClassCache();
 		}
 
 	}
 
+	/**
+	 * open a stored bundle file with the archive backend configured for the
+	 * framework.
+	 * 
+	 * @param file
+	 *            the file.
+	 * @return the archive.
+	 * @throws IOException
+	 *             if the file is not a valid archive.
+	 */
+	BundleArchive openArchive(final File file) throws IOException {
+		final BundleArchive.Pool pool = framework.archivePool;
+		return pool != null ? pool.open(file)
+				: BundleArchive.open(file, framework.MAPPED_ARCHIVES);
+	}
+
 	/*
 	 * static methods
 	 */
@@ -4074,6 +4771,20 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		return !filename.endsWith("/") ? filename.concat("/") : filename;
 	}
 
+	/**
+	 * get the path of the directory that contains a file or directory.
+	 * 
+	 * @param filename
+	 *            the name of the file or directory.
+	 * @return the path, with a trailing slash, or the empty string for the
+	 *         root directory.
+	 */
+	static String packagePath(final String filename) {
+		final String name = stripTrailingSlash(filename);
+		final int pos = name.lastIndexOf('/');
+		return pos > -1 ? name.substring(0, pos + 1) : "";
+	}
+
 
 	/**
 	 * get a file from a class name.
@@ -4086,6 +4797,61 @@ public class BundleImpl extends AbstractBundle implements BundleStartLevel {
 		return fqc.replace('.', '/') + ".class";
 	}
 
+	/**
+	 * read a stream into an array of the exact size and close it.
+	 * 
+	 * @param input
+	 *            the input stream.
+	 * @param length
+	 *            the length of the content or <code>-1</code> if it is not
+	 *            known.
+	 * @return the content.
+	 * @throws IOException
+	 *             if the stream cannot be read.
+	 */
+	static byte[] readFully(final InputStream input, final long length)
+			throws IOException {
+		try {
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + length);
+			}
+			if (length >= 0) {
+				final byte[] bytes = new byte[(int) length];
+				int pos = 0;
+				while (pos < bytes.length) {
+					final int read = input.read(bytes, pos,
+							bytes.length - pos);
+					if (read < 0) {
+						throw new EOFException();
+					}
+					pos += read;
+				}
+				return bytes;
+			}
+
+			// unknown length, grow the buffer as needed
+			byte[] bytes = new byte[Concierge.CLASSLOADER_BUFFER_SIZE];
+			int pos = 0;
+			int read;
+			while ((read = input.read(bytes, pos, bytes.length - pos)) > -1) {
+				pos += read;
+				if (pos == bytes.length) {
+					final byte[] newBytes = new byte[bytes.length * 2];
+					System.arraycopy(bytes, 0, newBytes, 0, pos);
+					bytes = newBytes;
+				}
+			}
+			if (pos == bytes.length) {
+				return bytes;
+			}
+			final byte[] result = new byte[pos];
+			System.arraycopy(bytes, 0, result, 0, pos);
+			return result;
+		} finally {
+			input.close();
+		}
+	}
+
 	/**
 	 * store a file on the storage.
 	 * 
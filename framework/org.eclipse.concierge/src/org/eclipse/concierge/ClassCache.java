@@ -0,0 +1,429 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The persistent cache of the final, possibly woven, class bytes of a bundle
+ * revision. The classes are appended uncompressed to a single file when they
+ * are defined. When the file is opened again, e.g., after a restart, it is
+ * memory-mapped and the classes are served from the mapping without reading
+ * the bundle file or calling the weaving hooks again.
+ *
+ * Every class is stored together with the key of the weaving hooks that were
+ * in place when it was woven. A cached class is only used if the same hooks
+ * are in place. A class served from the cache is defined without a
+ * <code>WovenClass</code>, so neither the weaving hooks nor any
+ * <code>WovenClass</code> listeners see it. The file starts with the length
+ * and modification time of the bundle content and is discarded if the content
+ * does not match anymore. When classes are stored for other weaving hooks
+ * than those of the classes in the file, the file is rewritten with only the
+ * classes of the new hooks, so it does not grow with every change of the
+ * hooks.
+ *
+ * Classes are written by a background thread, so that defining a class does
+ * not wait for the file. The classes that are still pending are written when
+ * the cache is closed.
+ */
+final class ClassCache {
+
+	private static final int MAGIC = 0x43434331;
+
+	private static final int HEADER_SIZE = 20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * the thread that writes the classes of all caches.
+	 */
+	private static final ExecutorService WRITER = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r,
+							"Concierge class cache writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final File file;
+
+	private final long sourceLength;
+
+	private final long sourceLastModified;
+
+	/**
+	 * the classes found in the file when it was opened, mapped to their
+	 * entries.
+	 */
+	private final Map<String, Entry> entries;
+
+	/**
+	 * the mapped file or <code>null</code> if there was no valid file.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * the end of the last complete record in the file.
+	 */
+	private final long validEnd;
+
+	/**
+	 * the file opened for appending classes, opened on the first store.
+	 */
+	private RandomAccessFile out;
+
+	/**
+	 * the key of the weaving hooks of the classes appended to the file,
+	 * <code>null</code> until the file is opened for appending.
+	 */
+	private String outHooks;
+
+	/**
+	 * set if the file could not be written. No more classes are stored then.
+	 */
+	private volatile boolean failed;
+
+	/**
+	 * the records of the classes that have not been written yet.
+	 */
+	private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+
+	/**
+	 * set while a write of the pending records is scheduled.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * open the class cache of a revision.
+	 *
+	 * @param file
+	 *            the cache file. It is created when the first class is
+	 *            stored.
+	 * @param source
+	 *            the bundle file or content directory of the revision.
+	 */
+	ClassCache(final File file, final File source) {
+		this.file = file;
+		this.sourceLength = source.length();
+		this.sourceLastModified = source.lastModified();
+
+		final Map<String, Entry> map = new HashMap<String, Entry>();
+		ByteBuffer mapped = null;
+		long end = 0;
+		if (file.isFile()) {
+			try {
+				final RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					final FileChannel channel = raf.getChannel();
+					final long size = channel.size();
+					if (size >= HEADER_SIZE && size <= Integer.MAX_VALUE) {
+						// the mapping stays valid after the file is closed
+						mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+								size);
+						end = readIndex(mapped, map);
+					}
+				} finally {
+					raf.close();
+				}
+			} catch (final IOException ioe) {
+				map.clear();
+				end = 0;
+			}
+		}
+		this.entries = map;
+		this.buffer = end == 0 ? null : mapped;
+		this.validEnd = end;
+	}
+
+	/**
+	 * parse the records of the mapped file.
+	 *
+	 * @return the end of the last complete record or <code>0</code> if the
+	 *         file does not belong to the current bundle content.
+	 */
+	private long readIndex(final ByteBuffer mapped,
+			final Map<String, Entry> map) {
+		if (mapped.getInt(0) != MAGIC || mapped.getLong(4) != sourceLength
+				|| mapped.getLong(12) != sourceLastModified) {
+			return 0;
+		}
+
+		final int limit = mapped.limit();
+		int pos = HEADER_SIZE;
+		while (pos + 12 <= limit) {
+			final int nameLength = mapped.getInt(pos);
+			if (nameLength < 0 || nameLength > limit - pos - 12) {
+				break;
+			}
+			final int hooksPos = pos + 4 + nameLength;
+			final int hooksLength = mapped.getInt(hooksPos);
+			if (hooksLength < 0 || hooksLength > limit - hooksPos - 8) {
+				break;
+			}
+			final int dataPos = hooksPos + 4 + hooksLength;
+			final int dataLength = mapped.getInt(dataPos);
+			if (dataLength < 0 || dataLength > limit - dataPos - 4) {
+				// the last store was interrupted
+				break;
+			}
+			final String name = readString(mapped, pos + 4, nameLength);
+			final String hooks = readString(mapped, hooksPos + 4,
+					hooksLength);
+			// a later record replaces an earlier one of the same class
+			map.put(name, new Entry(hooks, dataPos + 4, dataLength));
+			pos = dataPos + 4 + dataLength;
+		}
+		return pos;
+	}
+
+	private static String readString(final ByteBuffer mapped, final int pos,
+			final int length) {
+		final byte[] bytes = new byte[length];
+		final ByteBuffer slice = mapped.duplicate();
+		slice.position(pos);
+		slice.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * get a cached class.
+	 *
+	 * @param classname
+	 *            the name of the class.
+	 * @param hooks
+	 *            the key of the weaving hooks currently in place.
+	 * @return a buffer with the class bytes or <code>null</code> if the class
+	 *         is not cached for these weaving hooks.
+	 */
+	ByteBuffer get(final String classname, final String hooks) {
+		final Entry entry = entries.get(classname);
+		if (entry == null || !entry.hooks.equals(hooks)) {
+			return null;
+		}
+		final ByteBuffer slice = buffer.duplicate();
+		slice.position(entry.offset);
+		slice.limit(entry.offset + entry.length);
+		return slice.slice();
+	}
+
+	/**
+	 * store a class. The class is written in the background, errors are not
+	 * reported, the class is then not cached.
+	 *
+	 * @param classname
+	 *            the name of the class.
+	 * @param hooks
+	 *            the key of the weaving hooks the class was woven by.
+	 * @param bytes
+	 *            the final class bytes.
+	 */
+	void put(final String classname, final String hooks,
+			final byte[] bytes) {
+		if (failed) {
+			return;
+		}
+
+		pending.add(encode(classname, hooks, ByteBuffer.wrap(bytes)));
+
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				WRITER.execute(new Runnable() {
+					public void run() {
+						// records added from now on schedule another write
+						scheduled.set(false);
+						flush();
+					}
+				});
+			} catch (final RejectedExecutionException ree) {
+				// written when the cache is closed
+				scheduled.set(false);
+			}
+		}
+	}
+
+	private static byte[] encode(final String classname, final String hooks,
+			final ByteBuffer bytes) {
+		final byte[] name = classname.getBytes(UTF8);
+		final byte[] hooksBytes = hooks.getBytes(UTF8);
+		final ByteBuffer record = ByteBuffer.allocate(12 + name.length
+				+ hooksBytes.length + bytes.remaining());
+		record.putInt(name.length);
+		record.put(name);
+		record.putInt(hooksBytes.length);
+		record.put(hooksBytes);
+		record.putInt(bytes.remaining());
+		record.put(bytes);
+		return record.array();
+	}
+
+	/**
+	 * write the pending records to the file.
+	 */
+	synchronized void flush() {
+		byte[] record = pending.poll();
+		if (record == null) {
+			return;
+		}
+		if (failed) {
+			pending.clear();
+			return;
+		}
+		try {
+			final ByteArrayOutputStream records = new ByteArrayOutputStream();
+			do {
+				final String hooks = readHooks(record);
+				if (!hooks.equals(outHooks)) {
+					// the records of other hooks are not used anymore
+					records.reset();
+					openFile(hooks);
+				}
+				records.write(record);
+			} while ((record = pending.poll()) != null);
+			out.write(records.toByteArray());
+		} catch (final IOException ioe) {
+			failed = true;
+			pending.clear();
+			closeFile();
+		}
+	}
+
+	private static String readHooks(final byte[] record) {
+		final ByteBuffer buf = ByteBuffer.wrap(record);
+		final int hooksPos = 4 + buf.getInt(0);
+		return readString(buf, hooksPos + 4, buf.getInt(hooksPos));
+	}
+
+	/**
+	 * open the file for appending the classes woven by the given hooks. If
+	 * the file has classes of other hooks, it is replaced by a file with only
+	 * the classes of the given hooks. The file is replaced and not
+	 * overwritten because its classes are still served from the mapping.
+	 */
+	private void openFile(final String hooks) throws IOException {
+		boolean append = out == null && validEnd != 0;
+		if (append) {
+			for (final Entry entry : entries.values()) {
+				if (!entry.hooks.equals(hooks)) {
+					append = false;
+					break;
+				}
+			}
+		}
+
+		if (append) {
+			out = new RandomAccessFile(file, "rw");
+			// drop the rest of an interrupted store
+			if (out.length() > validEnd) {
+				out.setLength(validEnd);
+			}
+			out.seek(validEnd);
+		} else {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+			final File tmp = new File(file.getPath() + ".tmp");
+			final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+			try {
+				raf.setLength(0);
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.putLong(sourceLength);
+				header.putLong(sourceLastModified);
+				bytes.write(header.array());
+				for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+					if (e.getValue().hooks.equals(hooks)) {
+						bytes.write(encode(e.getKey(), hooks,
+								get(e.getKey(), hooks)));
+					}
+				}
+				raf.write(bytes.toByteArray());
+			} finally {
+				raf.close();
+			}
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+				tmp.delete();
+				throw new IOException("Cannot replace " + file);
+			}
+			out = new RandomAccessFile(file, "rw");
+			out.seek(out.length());
+		}
+		outHooks = hooks;
+	}
+
+	/**
+	 * write the pending classes and close the file. The mapping is released
+	 * when the cache is garbage collected.
+	 */
+	synchronized void close() {
+		flush();
+		closeFile();
+	}
+
+	private void closeFile() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (final IOException ioe) {
+				// ignore
+			}
+			out = null;
+			// a reopened file would overwrite the classes stored since
+			failed = true;
+		}
+	}
+
+	/**
+	 * get the number of classes found in the file when it was opened.
+	 *
+	 * @return the number of classes.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	private static final class Entry {
+
+		final String hooks;
+
+		final int offset;
+
+		final int length;
+
+		Entry(final String hooks, final int offset, final int length) {
+			this.hooks = hooks;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+}
@@ -13,8 +13,10 @@
  *******************************************************************************/
 package org.eclipse.concierge;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -31,6 +33,8 @@ import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
 import java.nio.charset.Charset;
 import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivilegedAction;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
@@ -46,13 +50,24 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,12 +75,16 @@ import org.eclipse.concierge.BundleImpl.Revision;
 import org.eclipse.concierge.BundleImpl.Revision.WovenClassImpl;
 import org.eclipse.concierge.ConciergeCollections.MultiMap;
 import org.eclipse.concierge.ConciergeCollections.ParseResult;
+import org.eclipse.concierge.ConciergeCollections.PrefixTrie;
+import org.eclipse.concierge.ConciergeCollections.SnapshotMultiMap;
 import org.eclipse.concierge.Resources.BundleCapabilityImpl;
 import org.eclipse.concierge.Resources.ConciergeBundleWiring;
 import org.eclipse.concierge.Resources.HostedBundleCapability;
 import org.eclipse.concierge.compat.LegacyBundleProcessing;
 import org.eclipse.concierge.compat.service.XargsFileLauncher;
 import org.eclipse.concierge.service.log.LogServiceImpl;
+import org.eclipse.concierge.service.registry.BatchServiceRegistrar;
+import org.eclipse.concierge.service.statistics.FrameworkStatistics;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
@@ -86,6 +105,7 @@ import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.UnfilteredServiceListener;
 import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
 import org.osgi.framework.hooks.bundle.CollisionHook;
 import org.osgi.framework.hooks.bundle.EventHook;
 import org.osgi.framework.hooks.resolver.ResolverHook;
@@ -183,7 +203,12 @@ public final class Concierge extends AbstractBundle implements Framework,
 	/**
 	 * classloader buffer size.
 	 */
-	static int CLASSLOADER_BUFFER_SIZE;
+	static int CLASSLOADER_BUFFER_SIZE = 2048;
+
+	/**
+	 * keep the final class bytes of the bundles in a persistent cache.
+	 */
+	boolean CLASS_CACHE;
 
 	/**
 	 * logging enabled.
@@ -218,6 +243,45 @@ public final class Concierge extends AbstractBundle implements Framework,
 	 */
 	boolean DECOMPRESS_EMBEDDED;
 
+	/**
+	 * resolve only the resources that are not resolved yet and take the
+	 * existing wirings as they are.
+	 */
+	boolean INCREMENTAL_RESOLUTION;
+
+	/**
+	 * the number of threads that find the providers for the requirements in
+	 * a resolution. Less than two means sequential resolution.
+	 */
+	int RESOLVER_THREADS;
+
+	/**
+	 * store the wirings on shutdown and restore them on restart instead of
+	 * resolving the bundles again.
+	 */
+	boolean PERSIST_WIRINGS;
+
+	/**
+	 * memory-map the bundle files instead of opening them as jar files.
+	 */
+	boolean MAPPED_ARCHIVES;
+
+	/**
+	 * the maximum number of bundle files that are open as jar files at the
+	 * same time, <code>0</code> for no limit.
+	 */
+	int MAX_OPEN_ARCHIVES;
+
+	/**
+	 * the pool of open bundle files if their number is limited.
+	 */
+	BundleArchive.Pool archivePool;
+
+	/**
+	 * maintain the counters of the {@link FrameworkStatistics}.
+	 */
+	boolean STATISTICS;
+
 	/**
 	 * log level.
 	 */
@@ -258,8 +322,15 @@ public final class Concierge extends AbstractBundle implements Framework,
 	 */
 	private String PROFILE;
 
-	private final String[] bootdelegationAbs;
-	private final String[] bootdelegationPrefix;
+	/**
+	 * the packages that are boot delegated by their exact name.
+	 */
+	private final HashSet<String> bootdelegationAbs;
+
+	/**
+	 * the prefixes of the packages that are boot delegated by a wildcard.
+	 */
+	private final PrefixTrie bootdelegationPrefix;
 
 	private String[] libraryExtensions;
 
@@ -314,10 +385,18 @@ public final class Concierge extends AbstractBundle implements Framework,
 			2);
 
 	/**
-	 * class name string -> service reference.
+	 * class name string -> service reference, ordered by descending service
+	 * ranking and ascending service id. Lookups read immutable snapshots
+	 * without locking.
 	 */
-	final MultiMap<String, ServiceReference<?>> serviceRegistry = new MultiMap<String, ServiceReference<?>>(
-			3);
+	final SnapshotMultiMap<String, ServiceReference<?>> serviceRegistry = new SnapshotMultiMap<String, ServiceReference<?>>(
+			Collections.<ServiceReference<?>> reverseOrder());
+
+	/**
+	 * property key -> property value -> service reference.
+	 */
+	final ServicePropertyIndex servicePropertyIndex = new ServicePropertyIndex(
+			serviceRegistry);
 
 	/**
 	 * class name string -> service reference.
@@ -345,6 +424,24 @@ public final class Concierge extends AbstractBundle implements Framework,
 	protected final List<ServiceListenerEntry> serviceListeners = new ArrayList<ServiceListenerEntry>(
 			1);
 
+	/**
+	 * service listeners bucketed by the object classes their filters require.
+	 * Listeners that can receive events for any class are kept under
+	 * {@link ServiceListenerEntry#ANY_CLASS}.
+	 */
+	final SnapshotMultiMap<String, ServiceListenerEntry> serviceListenerIndex = new SnapshotMultiMap<String, ServiceListenerEntry>();
+
+	/**
+	 * the number of service listeners that were evaluated for service events.
+	 */
+	final AtomicLong serviceListenerEvaluations = new AtomicLong();
+
+	/**
+	 * the number of service listener evaluations that were skipped because
+	 * the listener was not interested in any class of the service.
+	 */
+	final AtomicLong skippedServiceListenerEvaluations = new AtomicLong();
+
 	/**
 	 * Map of unattached fragments in the system. HostName => List of fragments
 	 */
@@ -424,6 +521,9 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 	// weaving hooks
 	private final List<ServiceReferenceImpl<WeavingHook>> weavingHooks = new ArrayList<ServiceReferenceImpl<WeavingHook>>(0);
+	private volatile WeavingHookSnapshot weavingHookSnapshot;
+	private int weavingHooksGeneration;
+	private final ConcurrentHashMap<ServiceReference<WeavingHook>, WeavingHookTimer> weavingHookTimers = new ConcurrentHashMap<ServiceReference<WeavingHook>, WeavingHookTimer>(0);
 
 	// "hooks registry"
 	protected final HashMap<String, List<?>> hooks = new HashMap<String, List<?>>();
@@ -443,6 +543,71 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 	private final BundleStartLevel systemBundleStartLevel = new SystemBundleStartLevel();
 
+	private final FrameworkStatistics statistics = new FrameworkStatistics() {
+		public Map<String, Long> getCounters() {
+			final Map<String, Long> counters = new HashMap<String, Long>();
+			counters.put(SERVICE_LISTENER_EVALUATIONS,
+					Long.valueOf(serviceListenerEvaluations.get()));
+			counters.put(SERVICE_LISTENER_SKIPPED,
+					Long.valueOf(skippedServiceListenerEvaluations.get()));
+			counters.put(FILTER_CACHE_HITS,
+					Long.valueOf(RFC1960Filter.filterCache.getHits()));
+			counters.put(FILTER_CACHE_MISSES,
+					Long.valueOf(RFC1960Filter.filterCache.getMisses()));
+
+			long lookups = 0;
+			long missingNameHits = 0;
+			for (final AbstractBundle bundle : new ArrayList<AbstractBundle>(
+					bundles)) {
+				if (bundle instanceof BundleImpl) {
+					final Revision revision = ((BundleImpl) bundle).currentRevision;
+					if (revision != null) {
+						lookups += revision.lookups.get();
+						missingNameHits += revision.missingNameHits.get();
+					}
+				}
+			}
+			counters.put(CLASS_LOOKUPS, Long.valueOf(lookups));
+			counters.put(MISSING_NAME_HITS, Long.valueOf(missingNameHits));
+
+			final BundleArchive.Pool pool = archivePool;
+			if (pool != null) {
+				counters.put(OPEN_ARCHIVES,
+						Long.valueOf(pool.getOpenCount()));
+				counters.put(ARCHIVE_OPENS, Long.valueOf(pool.getOpens()));
+				counters.put(ARCHIVE_EVICTIONS,
+						Long.valueOf(pool.getEvictions()));
+			}
+
+			for (final Map.Entry<ServiceReference<WeavingHook>, WeavingHookTimer> entry : weavingHookTimers
+					.entrySet()) {
+				final String prefix = WEAVING_HOOK_PREFIX + entry.getKey()
+						.getProperty(Constants.SERVICE_ID) + '.';
+				counters.put(prefix + WEAVING_HOOK_CALLS,
+						Long.valueOf(entry.getValue().getCalls()));
+				counters.put(prefix + WEAVING_HOOK_NANOS,
+						Long.valueOf(entry.getValue().getNanos()));
+			}
+			return counters;
+		}
+	};
+
+	private final BatchServiceRegistrar batchServiceRegistrar = new BatchServiceRegistrar() {
+		public ServiceRegistration<?>[] registerServices(
+				final BundleContext context, final String[][] clazzes,
+				final Object[] services,
+				final Dictionary<String, ?>[] properties) {
+			if (!(context instanceof BundleContextImpl)
+					|| ((BundleContextImpl) context)
+							.getFramework() != Concierge.this) {
+				throw new IllegalArgumentException(
+						"Bundle context does not belong to this framework");
+			}
+			return ((BundleContextImpl) context).registerServices(clazzes,
+					services, properties);
+		}
+	};
+
 	private final ResolverImpl resolver = new ResolverImpl();
 
 	private final Method addURL;
@@ -506,8 +671,59 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 	};
 
+	/**
+	 * move the capabilities of resolved bundles to the front of a version
+	 * ordered list of package capabilities. The result is in export order.
+	 * 
+	 * @param providers
+	 *            the capabilities in version order.
+	 */
+	static void resolvedFirst(final List<Capability> providers) {
+		final ArrayList<Capability> unresolved = new ArrayList<Capability>();
+		int pos = 0;
+		for (final Capability cap : providers) {
+			if (cap instanceof BundleCapability
+					&& ((BundleCapability) cap).getResource()
+							.getWiring() != null) {
+				providers.set(pos++, cap);
+			} else {
+				unresolved.add(cap);
+			}
+		}
+		for (final Capability cap : unresolved) {
+			providers.set(pos++, cap);
+		}
+	}
+
+	/**
+	 * orders bundles by ascending start level.
+	 */
+	static final Comparator<Bundle> START_LEVEL_ORDER = new Comparator<Bundle>() {
+
+		public int compare(final Bundle b1, final Bundle b2) {
+			return ((AbstractBundle) b1).startlevel
+					- ((AbstractBundle) b2).startlevel;
+		}
+
+	};
+
 	public static final String DIR_INTERNAL = "x-int";
 
+	/**
+	 * the file in the storage that holds the wirings of the last shutdown.
+	 */
+	private static final String WIRINGS_FILE_NAME = "wirings";
+
+	/**
+	 * the framework properties that the result of a resolution depends on,
+	 * besides the capabilities of the system bundle. The execution
+	 * environment is covered by the osgi.ee capabilities.
+	 */
+	private static final String[] WIRING_PROPERTIES = {
+			Constants.FRAMEWORK_OS_NAME, Constants.FRAMEWORK_OS_VERSION,
+			Constants.FRAMEWORK_PROCESSOR, Constants.FRAMEWORK_LANGUAGE,
+			Constants.FRAMEWORK_BSNVERSION };
+
 	/** Return code from main when OK. */
 	private static final int MAIN_RC_OK = 0;
 
@@ -771,6 +987,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 			}
 
 			serviceRegistry.insertMap(microServices);
+			indexMicroServices();
 		} catch (final IOException ioe) {
 			ioe.printStackTrace();
 		}
@@ -832,7 +1049,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 		}
 
 		defaultProperties.setProperty(Constants.FRAMEWORK_SYSTEMPACKAGES,
-				"org.osgi.framework;version=1.7,org.osgi.framework.hooks.bundle;version=1.1,org.osgi.framework.hooks.resolver;version=1.0,org.osgi.framework.hooks.service;version=1.1,org.osgi.framework.hooks.weaving;version=1.0,org.osgi.framework.launch;version=1.1,org.osgi.framework.namespace;version=1.0,org.osgi.framework.startlevel;version=1.0,org.osgi.framework.wiring;version=1.1,org.osgi.resource;version=1.0,org.osgi.service.log;version=1.3,org.osgi.service.packageadmin;version=1.2,org.osgi.service.startlevel;version=1.1,org.osgi.service.url;version=1.0,org.osgi.service.resolver;version=1.0,org.osgi.util.tracker;version=1.5.1,META-INF.services");
+				"org.osgi.framework;version=1.7,org.osgi.framework.hooks.bundle;version=1.1,org.osgi.framework.hooks.resolver;version=1.0,org.osgi.framework.hooks.service;version=1.1,org.osgi.framework.hooks.weaving;version=1.0,org.osgi.framework.launch;version=1.1,org.osgi.framework.namespace;version=1.0,org.osgi.framework.startlevel;version=1.0,org.osgi.framework.wiring;version=1.1,org.osgi.resource;version=1.0,org.osgi.service.log;version=1.3,org.osgi.service.packageadmin;version=1.2,org.osgi.service.startlevel;version=1.1,org.osgi.service.url;version=1.0,org.osgi.service.resolver;version=1.0,org.osgi.util.tracker;version=1.5.1,org.eclipse.concierge.service.registry;version=1.0,org.eclipse.concierge.service.statistics;version=1.0,META-INF.services");
 
 		Object obj;
 		defaultProperties.put(Constants.FRAMEWORK_OS_NAME,
@@ -945,6 +1162,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 				"file:" + BASEDIR);
 		CLASSLOADER_BUFFER_SIZE = getProperty(
 				"org.eclipse.concierge.classloader.buffersize", 2048);
+		CLASS_CACHE = getProperty("org.eclipse.concierge.classloader.cache",
+				false);
 		LOG_ENABLED = getProperty("org.eclipse.concierge.log.enabled", false);
 		LOG_QUIET = getProperty("org.eclipse.concierge.log.quiet", false);
 		LOG_BUFFER_SIZE = getProperty("org.eclipse.concierge.log.buffersize",
@@ -977,6 +1196,19 @@ public final class Concierge extends AbstractBundle implements Framework,
 				"org.eclipse.concierge.alwaysDecompress", false);
 		DECOMPRESS_EMBEDDED = getProperty(
 				"org.eclipse.concierge.decompressEmbedded", true);
+		INCREMENTAL_RESOLUTION = getProperty(
+				"org.eclipse.concierge.resolver.incremental", false);
+		RESOLVER_THREADS = getProperty("org.eclipse.concierge.resolver.threads",
+				0);
+		PERSIST_WIRINGS = getProperty(
+				"org.eclipse.concierge.resolver.persistWirings", false);
+		MAPPED_ARCHIVES = getProperty("org.eclipse.concierge.archive.mapped",
+				false);
+		MAX_OPEN_ARCHIVES = getProperty("org.eclipse.concierge.archive.maxOpen",
+				0);
+		archivePool = MAX_OPEN_ARCHIVES > 0 && !MAPPED_ARCHIVES
+				? new BundleArchive.Pool(MAX_OPEN_ARCHIVES) : null;
+		STATISTICS = getProperty("org.eclipse.concierge.statistics", false);
 		SECURITY_ENABLED = getProperty("org.eclipse.concierge.security.enabled",
 				false);
 
@@ -996,8 +1228,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 		final String[] bds = Utils.splitString(
 				properties.getProperty(Constants.FRAMEWORK_BOOTDELEGATION),
 				',');
-		final ArrayList<String> bdsAbs = new ArrayList<String>();
-		final ArrayList<String> bdsRel = new ArrayList<String>();
+		final HashSet<String> bdsAbs = new HashSet<String>();
+		final PrefixTrie bdsRel = new PrefixTrie();
 		int pos;
 		for (int i = 0; i < bds.length; i++) {
 			if ((pos = bds[i].indexOf('*')) < 0) {
@@ -1008,15 +1240,16 @@ public final class Concierge extends AbstractBundle implements Framework,
 							"Framework bootdelegation " + bds[i]
 									+ " is not supported");
 				}
-				bdsRel.add(bds[i].substring(0, pos));
+				final String prefix = bds[i].substring(0, pos);
+				// java.* is always delegated to the parent
+				if (!"java.".equals(prefix)) {
+					bdsRel.add(prefix);
+				}
 			}
 		}
 
-		// remove the fast paths
-		bdsRel.remove("java.");
-
-		bootdelegationAbs = bdsAbs.toArray(new String[bdsAbs.size()]);
-		bootdelegationPrefix = bdsRel.toArray(new String[bdsRel.size()]);
+		bootdelegationAbs = bdsAbs;
+		bootdelegationPrefix = bdsRel;
 
 		// sanity checks
 		if (!LOG_ENABLED) {
@@ -1281,11 +1514,13 @@ public final class Concierge extends AbstractBundle implements Framework,
 					Concierge.this, this, impl.factory, null,
 					new String[] { LogService.class.getName() });
 
-			synchronized (serviceRegistry) {
-				serviceRegistry.insert(LogReaderService.class.getName(),
-						readerref);
-				serviceRegistry.insert(LogService.class.getName(), logref);
-			}
+			serviceRegistry.insert(LogReaderService.class.getName(),
+					readerref);
+			serviceRegistry.insert(LogService.class.getName(), logref);
+			servicePropertyIndex.add(readerref,
+					((ServiceReferenceImpl<?>) readerref).properties);
+			servicePropertyIndex.add(logref,
+					((ServiceReferenceImpl<?>) logref).properties);
 
 			registeredServices.add(logref);
 			registeredServices.add(readerref);
@@ -1313,6 +1548,10 @@ public final class Concierge extends AbstractBundle implements Framework,
 		if (restart) {
 			// have bundle objects for all installed bundles
 			restoreProfile();
+
+			if (PERSIST_WIRINGS) {
+				restoreWirings();
+			}
 		}
 	}
 
@@ -1520,18 +1759,403 @@ public final class Concierge extends AbstractBundle implements Framework,
 		}
 	}
 
-	boolean bootdelegation(final String pkg) {
-		for (int i = 0; i < bootdelegationPrefix.length; i++) {
-			if (pkg.startsWith(bootdelegationPrefix[i])) {
-				return true;
+	/**
+	 * store the wirings of the current bundle revisions together with the
+	 * fingerprint of the installed revisions and the framework configuration.
+	 * Only the static wires are stored, wires of dynamic imports are created
+	 * again when the classes are loaded. Requirements are referenced by their
+	 * index among the static requirements of the revision, capabilities by
+	 * their index in the revision, which do not change as long as the
+	 * revision is the same. Fragments, hosts with attached fragments, and
+	 * wirings with hosted capabilities or stale providers are not stored,
+	 * and neither are the wirings of the revisions that depend on them. These
+	 * revisions are resolved again on the next start.
+	 */
+	private void storeWirings() {
+		final File file = new File(STORAGE_LOCATION, WIRINGS_FILE_NAME);
+		file.delete();
+
+		final byte[] fingerprint = getWiringFingerprint();
+		if (fingerprint == null) {
+			return;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(fingerprint.length);
+			out.write(fingerprint);
+
+			final LinkedHashMap<Revision, List<BundleWire>> storable = new LinkedHashMap<Revision, List<BundleWire>>();
+			for (final AbstractBundle bundle : bundles) {
+				final Revision revision = bundle.currentRevision;
+				if (bundle.state == Bundle.UNINSTALLED || revision == null
+						|| revision.getWiring() == null) {
+					continue;
+				}
+				final List<BundleWire> wires = getStorableWires(revision);
+				if (wires != null) {
+					storable.put(revision, wires);
+				}
+			}
+
+			// drop the revisions that are wired to a revision that is not
+			// stored, until only self-contained wirings are left
+			boolean changed;
+			do {
+				changed = false;
+				final Iterator<Map.Entry<Revision, List<BundleWire>>> iter = storable
+						.entrySet().iterator();
+				while (iter.hasNext()) {
+					for (final BundleWire wire : iter.next().getValue()) {
+						final BundleRevision provider = wire.getProvider();
+						if (provider.getBundle() != this
+								&& !storable.containsKey(provider)) {
+							iter.remove();
+							changed = true;
+							break;
+						}
+					}
+				}
+			} while (changed);
+
+			out.writeInt(storable.size());
+			for (final Map.Entry<Revision, List<BundleWire>> entry : storable
+					.entrySet()) {
+				final Revision revision = entry.getKey();
+				final List<Requirement> requirements = getStaticRequirements(
+						revision);
+				final List<BundleWire> wires = entry.getValue();
+
+				out.writeLong(revision.getBundle().getBundleId());
+				out.writeInt(wires.size());
+				for (final BundleWire wire : wires) {
+					final BundleRevision provider = wire.getProvider();
+					out.writeInt(requirements.indexOf(wire.getRequirement()));
+					out.writeLong(provider.getBundle().getBundleId());
+					out.writeInt(provider.getCapabilities(null)
+							.indexOf(wire.getCapability()));
+				}
+			}
+			out.close();
+
+			final FileOutputStream fos = new FileOutputStream(file);
+			try {
+				bytes.writeTo(fos);
+			} finally {
+				fos.close();
 			}
+		} catch (final IOException ioe) {
+			file.delete();
 		}
-		for (int i = 0; i < bootdelegationAbs.length; i++) {
-			if (pkg.equals(bootdelegationAbs[i])) {
-				return true;
+	}
+
+	/**
+	 * get the static wires of a revision if its wiring can be stored.
+	 * 
+	 * @param revision
+	 *            the resolved revision.
+	 * @return the wires, or <code>null</code> if the revision is a fragment,
+	 *         has fragments attached, or has a wire that cannot be expressed
+	 *         by the indices of the current revisions.
+	 */
+	private List<BundleWire> getStorableWires(final Revision revision) {
+		final BundleWiring wiring = revision.getWiring();
+		final List<Revision> fragments = revision.getAttachedFragments();
+		if (revision.isFragment() || !wiring.isCurrent()
+				|| fragments != null && !fragments.isEmpty()) {
+			return null;
+		}
+
+		final List<Requirement> requirements = getStaticRequirements(revision);
+		final List<BundleWire> wires = new ArrayList<BundleWire>();
+		for (final BundleWire wire : wiring.getRequiredWires(null)) {
+			if (isDynamic(wire.getRequirement())) {
+				continue;
+			}
+			final BundleRevision provider = wire.getProvider();
+			final AbstractBundle providerBundle = (AbstractBundle) provider
+					.getBundle();
+			if (requirements.indexOf(wire.getRequirement()) < 0
+					|| provider.getCapabilities(null)
+							.indexOf(wire.getCapability()) < 0
+					|| providerBundle != this
+							&& providerBundle.currentRevision != provider) {
+				return null;
+			}
+			wires.add(wire);
+		}
+		return wires;
+	}
+
+	/**
+	 * restore the wirings stored on the last shutdown if the installed
+	 * revisions and the framework configuration are still the same. The
+	 * bundles are then resolved without running the resolver. The metadata
+	 * of each bundle is resolved as usual and the resolver hooks are asked
+	 * whether the bundles and wires are still acceptable; if not, the bundles
+	 * are resolved by the resolver instead.
+	 */
+	private void restoreWirings() {
+		final File file = new File(STORAGE_LOCATION, WIRINGS_FILE_NAME);
+		if (!file.exists()) {
+			return;
+		}
+
+		final MultiMap<Resource, Wire> solution = new MultiMap<Resource, Wire>();
+		final ArrayList<Revision> resolved = new ArrayList<Revision>();
+		final ArrayList<Wire> restored = new ArrayList<Wire>();
+		try {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				final int length = in.readInt();
+				if (length < 0 || length > file.length() - 4) {
+					throw new IOException("Corrupt wirings file " + file);
+				}
+				final byte[] fingerprint = new byte[length];
+				in.readFully(fingerprint);
+				if (!Arrays.equals(fingerprint, getWiringFingerprint())) {
+					return;
+				}
+
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final Revision revision = getCurrentRevision(in.readLong());
+					if (revision == null || !revision.resolveMetadata(false)) {
+						return;
+					}
+					resolved.add(revision);
+
+					final List<Requirement> requirements = getStaticRequirements(
+							revision);
+					final int wires = in.readInt();
+					if (wires == 0) {
+						solution.insertEmpty(revision);
+					}
+					for (int j = 0; j < wires; j++) {
+						final Requirement requirement = requirements
+								.get(in.readInt());
+						final long providerId = in.readLong();
+						final BundleRevision provider = providerId == 0 ? this
+								: getCurrentRevision(providerId);
+						if (provider == null) {
+							return;
+						}
+						final Capability capability = provider
+								.getCapabilities(null).get(in.readInt());
+
+						final Wire wire = Resources.createWire(capability,
+								requirement);
+						solution.insert(revision, wire);
+						solution.insertUnique(provider, wire);
+						restored.add(wire);
+					}
+				}
+			} finally {
+				in.close();
+			}
+
+			if (!acceptedByResolverHooks(resolved, restored)) {
+				return;
+			}
+		} catch (final Exception e) {
+			// resolve the bundles instead
+			return;
+		}
+
+		applySolution(solution,
+				new MultiMap<Resource, HostedCapability>());
+		for (final Revision revision : resolved) {
+			revision.markResolved();
+		}
+
+		if (DEBUG_BUNDLES) {
+			logger.log(LogService.LOG_DEBUG,
+					"restored the wirings of " + resolved.size() + " bundles");
+		}
+	}
+
+	private Revision getCurrentRevision(final long bundleId) {
+		final AbstractBundle bundle = bundleID_bundles
+				.get(Long.valueOf(bundleId));
+		return bundle == null ? null : bundle.currentRevision;
+	}
+
+	/**
+	 * get the requirements of a revision that are wired at resolve time.
+	 * Dynamic imports, including those added by weaving hooks, are left out.
+	 */
+	private static List<Requirement> getStaticRequirements(
+			final Revision revision) {
+		final ArrayList<Requirement> result = new ArrayList<Requirement>();
+		for (final Requirement requirement : revision.getRequirements(null)) {
+			if (!isDynamic(requirement)) {
+				result.add(requirement);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isDynamic(final Requirement requirement) {
+		return PackageNamespace.RESOLUTION_DYNAMIC
+				.equals(requirement.getDirectives()
+						.get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE));
+	}
+
+	/**
+	 * let the resolver hooks check a stored solution in the same way as a
+	 * solution of the resolver: the bundles have to stay resolvable, the
+	 * capabilities have to stay candidates for the requirements they are
+	 * wired to, and singletons must not collide.
+	 * 
+	 * @param revisions
+	 *            the revisions of the stored solution.
+	 * @param wires
+	 *            the stored wires.
+	 * @return <code>true</code> if the solution can be used as it is.
+	 */
+	private boolean acceptedByResolverHooks(final List<Revision> revisions,
+			final List<Wire> wires) throws BundleException {
+		final HashMap<ResolverHook, ServiceReferenceImpl<ResolverHookFactory>> hooks;
+		try {
+			hooks = getResolverHooks(
+					Collections.<BundleRevision> unmodifiableList(revisions));
+		} catch (final Throwable t) {
+			return false;
+		}
+
+		try {
+			if (!hooks.isEmpty()) {
+				final ConciergeCollections.RemoveOnlyList<BundleRevision> resolvable = new ConciergeCollections.RemoveOnlyList<BundleRevision>(
+						revisions);
+				for (final ResolverHook hook : hooks.keySet()) {
+					hook.filterResolvable(resolvable);
+				}
+				if (resolvable.size() != revisions.size()) {
+					return false;
+				}
+
+				for (final Wire wire : wires) {
+					if (!(wire.getRequirement() instanceof BundleRequirement)
+							|| !(wire
+									.getCapability() instanceof BundleCapability)) {
+						continue;
+					}
+					final ConciergeCollections.RemoveOnlyList<BundleCapability> candidates = new ConciergeCollections.RemoveOnlyList<BundleCapability>(
+							Collections.singletonList(
+									(BundleCapability) wire.getCapability()));
+					for (final ResolverHook hook : hooks.keySet()) {
+						hook.filterMatches(
+								(BundleRequirement) wire.getRequirement(),
+								candidates);
+					}
+					if (candidates.isEmpty()) {
+						return false;
+					}
+				}
+			}
+
+			for (final Revision revision : revisions) {
+				final BundleCapability identity = getSingletonIdentity(
+						revision);
+				if (identity == null) {
+					continue;
+				}
+				final List<BundleCapability> col = new ArrayList<BundleCapability>();
+				for (final Revision other : revisions) {
+					final BundleCapability otherIdentity = getSingletonIdentity(
+							other);
+					if (other != revision && otherIdentity != null
+							&& revision.getSymbolicName()
+									.equals(other.getSymbolicName())) {
+						col.add(otherIdentity);
+					}
+				}
+				if (col.isEmpty()) {
+					continue;
+				}
+				final ConciergeCollections.RemoveOnlyList<BundleCapability> collisions = new ConciergeCollections.RemoveOnlyList<BundleCapability>(
+						col);
+				for (final ResolverHook hook : hooks.keySet()) {
+					hook.filterSingletonCollisions(identity, collisions);
+				}
+				if (!collisions.isEmpty()) {
+					return false;
+				}
+			}
+
+			return true;
+		} catch (final Throwable t) {
+			return false;
+		} finally {
+			endResolverHooks(hooks);
+		}
+	}
+
+	private static BundleCapability getSingletonIdentity(
+			final Revision revision) {
+		final List<Capability> identities = revision
+				.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE);
+		if (identities == null || identities.isEmpty()) {
+			return null;
+		}
+		final BundleCapability identity = (BundleCapability) identities.get(0);
+		return "true".equals(identity.getDirectives()
+				.get(IdentityNamespace.CAPABILITY_SINGLETON_DIRECTIVE))
+						? identity : null;
+	}
+
+	/**
+	 * get the fingerprint of everything a stored wiring depends on: the
+	 * installed bundle revisions, the capabilities of the system bundle and
+	 * the framework properties used by the resolver.
+	 * 
+	 * @return the fingerprint or <code>null</code> if it cannot be computed.
+	 */
+	private byte[] getWiringFingerprint() {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException nsae) {
+			return null;
+		}
+
+		final StringBuffer buffer = new StringBuffer(FRAMEWORK_VERSION);
+		for (final String key : WIRING_PROPERTIES) {
+			buffer.append('\n').append(key).append('=')
+					.append(properties.getProperty(key));
+		}
+		for (final BundleCapability cap : systemBundleCapabilities) {
+			buffer.append('\n').append(cap);
+		}
+
+		final AbstractBundle[] installed = bundles
+				.toArray(new AbstractBundle[bundles.size()]);
+		Arrays.sort(installed, new Comparator<AbstractBundle>() {
+			public int compare(final AbstractBundle b1,
+					final AbstractBundle b2) {
+				return b1.bundleId < b2.bundleId ? -1
+						: b1.bundleId == b2.bundleId ? 0 : 1;
 			}
+		});
+		for (final AbstractBundle bundle : installed) {
+			if (bundle.state == Bundle.UNINSTALLED
+					|| bundle.currentRevision == null) {
+				continue;
+			}
+			buffer.append('\n').append(bundle.bundleId).append(' ')
+					.append(bundle.location).append(' ')
+					.append(bundle.currentRevision.revId).append(' ')
+					.append(bundle.lastModified);
 		}
-		return false;
+
+		return digest.digest(buffer.toString().getBytes(Charset.forName("UTF-8")));
+	}
+
+	boolean bootdelegation(final String pkg) {
+		return bootdelegationAbs.contains(pkg)
+				|| bootdelegationPrefix.matchesPrefixOf(pkg);
 	}
 
 	/**
@@ -1583,9 +2207,15 @@ public final class Concierge extends AbstractBundle implements Framework,
 			setLevel(bundles.toArray(new Bundle[bundles.size()]), 0, true);
 			state = Bundle.RESOLVED;
 
+			if (PERSIST_WIRINGS) {
+				storeWirings();
+			}
+
 			// stop System bundle
 			stop(context);
 
+			invalidateWeavingHooks();
+
 			// release all resources
 			for (final AbstractBundle bundle : bundles) {
 				for (final BundleRevision rev : bundle.getRevisions()) {
@@ -1596,9 +2226,12 @@ public final class Concierge extends AbstractBundle implements Framework,
 			bundles.clear();
 			bundleID_bundles.clear();
 			serviceRegistry.clear();
+			servicePropertyIndex.clear();
+			resolver.shutdown();
 
 			// restore micro-services
 			serviceRegistry.insertMap(microServices);
+			indexMicroServices();
 
 			// reset the used Concierge instance in URL stream handler factory
 			conciergeURLStreamHandlerFactory.setConcierge(null);
@@ -1728,11 +2361,19 @@ public final class Concierge extends AbstractBundle implements Framework,
 			return (A) wirings.get(this);
 		}
 
-		if (type.isInstance(this)) {
-			return (A) this;
+		if (type == BatchServiceRegistrar.class) {
+			return (A) batchServiceRegistrar;
 		}
 
-		return null;
+		if (type == FrameworkStatistics.class) {
+			return STATISTICS ? (A) statistics : null;
+		}
+
+		if (type.isInstance(this)) {
+			return (A) this;
+		}
+
+		return null;
 	}
 
 	// Bundle
@@ -2176,10 +2817,15 @@ public final class Concierge extends AbstractBundle implements Framework,
 						// perform a cleanup for all bundles
 						// CLEANUP
 						final List<Bundle> restartList = new ArrayList<Bundle>();
+						final List<BundleImpl> resolveList = new ArrayList<BundleImpl>();
 
 						for (int i = 0; i < refreshArray.length; i++) {
 							final BundleImpl bu = (BundleImpl) refreshArray[i];
 							try {
+								if (bu.state != INSTALLED) {
+									resolveList.add(bu);
+								}
+
 								if (bu.state == ACTIVE) {
 									bu.stop();
 
@@ -2206,28 +2852,45 @@ public final class Concierge extends AbstractBundle implements Framework,
 							}
 						}
 
-						// resolve, if possible
-						// FIXME: should be bulk operation
-
-						for (final Iterator<Bundle> resolveIter = restartList
-								.iterator(); resolveIter.hasNext();) {
-							final BundleImpl bu = (BundleImpl) resolveIter
-									.next();
+						// resolve the bundles that were resolved before at
+						// once, so that the resolver hooks are only called
+						// for one resolution
+						final ArrayList<BundleRevision> revisions = new ArrayList<BundleRevision>();
+						for (final BundleImpl bu : resolveList) {
+							if (bu.state == INSTALLED) {
+								revisions.add(bu.currentRevision);
+							}
+						}
+						if (!revisions.isEmpty()) {
 							try {
-								if (bu.state == Bundle.INSTALLED) {
-									final boolean success = bu.currentRevision
-											.resolve(false);
-									if (!success) {
-										resolveIter.remove();
+								resolve(revisions, false);
+							} catch (final Exception e) {
+								// resolve the bundles one by one to report
+								// the error against the bundles that fail
+								for (final BundleImpl bu : resolveList) {
+									try {
+										if (bu.state == INSTALLED) {
+											bu.currentRevision.resolve(false);
+										}
+									} catch (final Exception ex) {
+										notifyListeners(FrameworkEvent.ERROR,
+												bu, ex);
 									}
 								}
-							} catch (final Exception e) {
-								resolveIter.remove();
-								notifyListeners(FrameworkEvent.ERROR, bu, e);
+							}
+						}
+
+						// bundles that could not be resolved are not
+						// restarted
+						for (final Iterator<Bundle> iter = restartList
+								.iterator(); iter.hasNext();) {
+							if (iter.next().getState() == INSTALLED) {
+								iter.remove();
 							}
 						}
 
 						// restart all bundles regarding their startlevels
+						Collections.sort(restartList, START_LEVEL_ORDER);
 						for (final Bundle bu : restartList) {
 							try {
 								bu.start();
@@ -2549,18 +3212,24 @@ public final class Concierge extends AbstractBundle implements Framework,
 						}
 					}
 
-					sortProviders(providers, requirement.getNamespace());
+					sortProviders(providers, requirement.getNamespace(),
+							filterStr);
 
 					return providers;
 				}
 
 				private void sortProviders(final List<Capability> providers,
-						final String namespace) {
+						final String namespace, final String filterStr) {
 					if (providers.isEmpty()) {
 						return;
 					}
 					if (PackageNamespace.PACKAGE_NAMESPACE.equals(namespace)) {
-						Collections.sort(providers, EXPORT_ORDER);
+						if (filterStr == null) {
+							Collections.sort(providers, EXPORT_ORDER);
+						} else {
+							// the index already returns them in version order
+							resolvedFirst(providers);
+						}
 					}
 					if (BundleNamespace.BUNDLE_NAMESPACE.equals(namespace)) {
 						Collections.sort(providers, BUNDLE_VERSION);
@@ -2606,90 +3275,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 				logger.log(LogService.LOG_DEBUG, "Solution: " + solution);
 			}
 
-			// apply solution
-			for (final Resource resource : solution.keySet()) {
-				final List<Wire> wires = solution.get(resource);
-
-				if (resource instanceof Revision) {
-					final Revision revision = (Revision) resource;
-
-					final boolean isFragment = revision.isFragment();
-
-					if (isFragment) {
-						boolean attached = false;
-						for (final Iterator<Wire> iter = wires.iterator(); iter
-								.hasNext();) {
-							final Wire wire = iter.next();
-
-							// scan the wires for host namespace wires
-							if (HostNamespace.HOST_NAMESPACE.equals(
-									wire.getRequirement().getNamespace())) {
-
-								if (wire.getProvider() instanceof Revision) {
-									final Revision host = (Revision) wire
-											.getProvider();
-									try {
-										host.attachFragment(revision);
-										attached = true;
-									} catch (final BundleException be) { // TODO:
-																			// remove
-										be.printStackTrace();
-									}
-								} else {
-									// host is system bundle, check
-									// extensionBundles
-									if (extensionBundles
-											.contains(revision.getBundle())) {
-										attached = true;
-									}
-								}
-							}
-						}
-						if (!attached) {
-							continue;
-						}
-
-						// fragment has been attached to at least one host =>
-						// becomes resolved.
-						revision.markResolved();
-					}
-
-					final ConciergeBundleWiring wiring;
-					if (revision.getWiring() == null) {
-						// set wiring for this bundle
-						wiring = new ConciergeBundleWiring(revision, wires);
-						revision.setWiring(wiring);
-					} else {
-						wiring = revision.addAdditionalWires(wires);
-					}
-
-					if (!isFragment) {
-						final List<HostedCapability> hostedCaps = hostedCapabilities
-								.lookup(resource);
-						for (final HostedCapability hostedCap : hostedCaps) {
-							// add hosted capability
-							wiring.addCapability(hostedCap);
-							revision.addHostedCapability(hostedCap);
-						}
-					}
-
-					wirings.put(resource, wiring);
-				} else {
-					// this is the system bundle
-					// manually add the wires to wirings
-					final Concierge systemBundle = (Concierge) resource;
-					ConciergeBundleWiring wiring = (ConciergeBundleWiring) wirings
-							.get(resource);
-					if (wiring == null) {
-						wiring = new ConciergeBundleWiring(systemBundle, wires);
-						wirings.put(systemBundle, wiring);
-					} else {
-						for (final Wire wire : wires) {
-							wiring.addWire((BundleWire) wire);
-						}
-					}
-				}
-			}
+			applySolution(solution, hostedCapabilities);
 
 			if (unresolvedRequirements.isEmpty()
 					&& unresolvedResources.isEmpty()) {
@@ -2726,6 +3312,97 @@ public final class Concierge extends AbstractBundle implements Framework,
 		}
 	}
 
+	/**
+	 * apply the solution of a resolution, i.e., create or extend the wirings
+	 * of the resources.
+	 */
+	private void applySolution(final MultiMap<Resource, Wire> solution,
+			final MultiMap<Resource, HostedCapability> hostedCapabilities) {
+		for (final Resource resource : solution.keySet()) {
+			final List<Wire> wires = solution.get(resource);
+
+			if (resource instanceof Revision) {
+				final Revision revision = (Revision) resource;
+
+				final boolean isFragment = revision.isFragment();
+
+				if (isFragment) {
+					boolean attached = false;
+					for (final Iterator<Wire> iter = wires.iterator(); iter
+							.hasNext();) {
+						final Wire wire = iter.next();
+
+						// scan the wires for host namespace wires
+						if (HostNamespace.HOST_NAMESPACE.equals(
+								wire.getRequirement().getNamespace())) {
+
+							if (wire.getProvider() instanceof Revision) {
+								final Revision host = (Revision) wire
+										.getProvider();
+								try {
+									host.attachFragment(revision);
+									attached = true;
+								} catch (final BundleException be) { // TODO:
+																		// remove
+									be.printStackTrace();
+								}
+							} else {
+								// host is system bundle, check
+								// extensionBundles
+								if (extensionBundles
+										.contains(revision.getBundle())) {
+									attached = true;
+								}
+							}
+						}
+					}
+					if (!attached) {
+						continue;
+					}
+
+					// fragment has been attached to at least one host =>
+					// becomes resolved.
+					revision.markResolved();
+				}
+
+				final ConciergeBundleWiring wiring;
+				if (revision.getWiring() == null) {
+					// set wiring for this bundle
+					wiring = new ConciergeBundleWiring(revision, wires);
+					revision.setWiring(wiring);
+				} else {
+					wiring = revision.addAdditionalWires(wires);
+				}
+
+				if (!isFragment) {
+					final List<HostedCapability> hostedCaps = hostedCapabilities
+							.lookup(resource);
+					for (final HostedCapability hostedCap : hostedCaps) {
+						// add hosted capability
+						wiring.addCapability(hostedCap);
+						revision.addHostedCapability(hostedCap);
+					}
+				}
+
+				wirings.put(resource, wiring);
+			} else {
+				// this is the system bundle
+				// manually add the wires to wirings
+				final Concierge systemBundle = (Concierge) resource;
+				ConciergeBundleWiring wiring = (ConciergeBundleWiring) wirings
+						.get(resource);
+				if (wiring == null) {
+					wiring = new ConciergeBundleWiring(systemBundle, wires);
+					wirings.put(systemBundle, wiring);
+				} else {
+					for (final Wire wire : wires) {
+						wiring.addWire((BundleWire) wire);
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * @see org.osgi.framework.wiring.FrameworkWiring#getRemovalPendingBundles()
 	 * @category FrameworkWiring
@@ -2821,8 +3498,20 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 	public class ResolverImpl implements Resolver {
 
+		/**
+		 * the minimum number of requirements for which the providers are
+		 * found in parallel.
+		 */
+		private static final int PARALLEL_THRESHOLD = 64;
+
 		protected HashMap<ResolverHook, ServiceReferenceImpl<ResolverHookFactory>> hooks;
 
+		/**
+		 * the threads that find providers, created on first use and shut
+		 * down when the framework stops.
+		 */
+		private ExecutorService providerFinders;
+
 		public synchronized Map<Resource, List<Wire>> resolve(
 				final ResolveContext context) throws ResolutionException {
 			if (context == null) {
@@ -2863,48 +3552,277 @@ public final class Concierge extends AbstractBundle implements Framework,
 			if (!(mandatory.isEmpty() && optional.isEmpty())) {
 				final Map<Resource, Wiring> existingWirings = context
 						.getWirings();
+				final HashMap<Capability, List<BundleCapability>> usesCache = new HashMap<Capability, List<BundleCapability>>();
+				final HashMap<Requirement, List<Capability>> providers = new HashMap<Requirement, List<Capability>>();
+
+				// the framework's own context can be queried concurrently
+				if (!standalone && RESOLVER_THREADS > 1) {
+					findProvidersInParallel(context, mandatory,
+							existingWirings, providers);
+				}
+
+				final int filtered = unresolvedResources.size();
+				final boolean skipped = resolveResources(context, mandatory,
+						optional, existingWirings, solution,
+						unresolvedRequirements, unresolvedResources,
+						usesCache, providers, INCREMENTAL_RESOLUTION,
+						standalone);
+
+				if (skipped && conflicts(context, unresolvedRequirements,
+						existingWirings)) {
+					// the existing wirings cannot be taken as they are,
+					// re-enter the full resolution. The resources resolved so
+					// far stay in the solution.
+					unresolvedRequirements.clear();
+					unresolvedResources
+							.subList(filtered, unresolvedResources.size())
+							.clear();
+					resolveResources(context, mandatory, optional,
+							existingWirings, solution, unresolvedRequirements,
+							unresolvedResources, usesCache, providers, false,
+							standalone);
+				}
+			}
+		}
+
+		/**
+		 * check if one of the unresolved requirements has a candidate with an
+		 * existing wiring, i.e., it could not be wired because of a conflict
+		 * with the existing wirings and not for the lack of a provider.
+		 */
+		private boolean conflicts(final ResolveContext context,
+				final List<Requirement> unresolvedRequirements,
+				final Map<Resource, Wiring> existingWirings) {
+			for (final Requirement requirement : unresolvedRequirements) {
+				for (final Capability candidate : context
+						.findProviders(requirement)) {
+					if (existingWirings.get(candidate.getResource()) != null) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * resolve the mandatory and, if they all resolve, the optional
+		 * resources.
+		 * 
+		 * @return <code>true</code> if resources with fixed wirings were
+		 *         skipped in incremental mode.
+		 */
+		private boolean resolveResources(final ResolveContext context,
+				final Collection<Resource> mandatory,
+				final Collection<Resource> optional,
+				final Map<Resource, Wiring> existingWirings,
+				final MultiMap<Resource, Wire> solution,
+				final ArrayList<Requirement> unresolvedRequirements,
+				final ArrayList<Resource> unresolvedResources,
+				final HashMap<Capability, List<BundleCapability>> usesCache,
+				final HashMap<Requirement, List<Capability>> providers,
+				final boolean incremental, final boolean standalone) {
+			boolean skipped = false;
+
+			for (final Resource resource : mandatory) {
+				if (resource == null) {
+					continue;
+				}
+
+				if (incremental && isFixed(resource, existingWirings)) {
+					skipped = true;
+					continue;
+				}
 
-				for (final Resource resource : mandatory) {
-					if (resource == null) {
+				try {
+					if (resource instanceof Revision
+							&& !((Revision) resource).resolveMetadata(false)) {
+						unresolvedResources.add(resource);
 						continue;
 					}
+				} catch (final BundleException e) {
+					// should not happen for critical==false
+					e.printStackTrace();
+				}
 
-					try {
-						if (resource instanceof Revision
-								&& !((Revision) resource)
-										.resolveMetadata(false)) {
-							unresolvedResources.add(resource);
-							continue;
-						}
-					} catch (final BundleException e) {
-						// should not happen for critical==false
-						e.printStackTrace();
+				if (resource instanceof BundleRevision) {
+					if (!checkSingleton((BundleRevision) resource)) {
+						unresolvedResources.add(resource);
+						continue;
 					}
+				}
 
-					if (resource instanceof BundleRevision) {
-						if (!checkSingleton((BundleRevision) resource)) {
-							unresolvedResources.add(resource);
-							continue;
+				final Collection<Requirement> unres = resolveResource(context,
+						resource, existingWirings, solution,
+						new HashSet<Resource>(), usesCache, providers,
+						standalone);
+				unresolvedRequirements.addAll(unres);
+			}
+
+			if (!unresolvedRequirements.isEmpty()
+					|| !unresolvedResources.isEmpty()) {
+				return skipped;
+			}
+
+			for (final Resource resource : optional) {
+				if (incremental && isFixed(resource, existingWirings)) {
+					skipped = true;
+					continue;
+				}
+				resolveResource(context, resource, existingWirings, solution,
+						new HashSet<Resource>(), usesCache, providers,
+						standalone);
+			}
+
+			return skipped;
+		}
+
+		/**
+		 * find the providers for the requirements of the resources to resolve
+		 * on several threads. The requirements are independent of each other,
+		 * each thread takes the next one until all are done. The results are
+		 * merged in the order of the requirements, so the resolution does not
+		 * depend on the scheduling of the threads.
+		 */
+		private void findProvidersInParallel(final ResolveContext context,
+				final Collection<Resource> resources,
+				final Map<Resource, Wiring> existingWirings,
+				final Map<Requirement, List<Capability>> providers) {
+			final ArrayList<Requirement> requirementList = new ArrayList<Requirement>();
+			for (final Resource resource : resources) {
+				if (resource == null || INCREMENTAL_RESOLUTION
+						&& isFixed(resource, existingWirings)) {
+					continue;
+				}
+				for (final Requirement requirement : resource
+						.getRequirements(null)) {
+					if (context.isEffective(requirement)) {
+						requirementList.add(requirement);
+					}
+				}
+			}
+
+			if (requirementList.size() < PARALLEL_THRESHOLD) {
+				return;
+			}
+
+			final Requirement[] requirements = requirementList
+					.toArray(new Requirement[requirementList.size()]);
+			final AtomicReferenceArray<List<Capability>> results = new AtomicReferenceArray<List<Capability>>(
+					requirements.length);
+			final AtomicInteger next = new AtomicInteger();
+
+			final Runnable finder = new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < requirements.length) {
+						try {
+							results.set(i,
+									context.findProviders(requirements[i]));
+						} catch (final Throwable t) {
+							// the providers are found again in the
+							// sequential resolution, which reports the
+							// failure if it persists
+							if (LOG_ENABLED) {
+								logger.log(LogService.LOG_WARNING,
+										"Could not find the providers for "
+												+ requirements[i],
+										t);
+							}
 						}
 					}
+				}
+			};
 
-					final Collection<Requirement> unres = resolveResource(
-							context, resource, existingWirings, solution,
-							new HashSet<Resource>(), standalone);
-					unresolvedRequirements.addAll(unres);
+			final List<Future<?>> futures = new ArrayList<Future<?>>(
+					RESOLVER_THREADS - 1);
+			synchronized (this) {
+				if (providerFinders == null) {
+					providerFinders = Executors.newFixedThreadPool(
+							RESOLVER_THREADS - 1, new ThreadFactory() {
+								private int count;
+
+								public Thread newThread(final Runnable r) {
+									final Thread thread = new Thread(r,
+											"Concierge resolver " + count++);
+									thread.setDaemon(true);
+									return thread;
+								}
+							});
+				}
+				for (int i = 0; i < RESOLVER_THREADS - 1; i++) {
+					futures.add(providerFinders.submit(finder));
 				}
+			}
+			finder.run();
 
-				if (!unresolvedRequirements.isEmpty()
-						|| !unresolvedResources.isEmpty()) {
-					return;
+			boolean interrupted = false;
+			for (final Future<?> future : futures) {
+				while (true) {
+					try {
+						future.get();
+						break;
+					} catch (final InterruptedException ie) {
+						interrupted = true;
+					} catch (final ExecutionException ee) {
+						if (LOG_ENABLED) {
+							logger.log(LogService.LOG_ERROR,
+									"Finding providers failed", ee.getCause());
+						}
+						break;
+					}
 				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
 
-				for (final Resource resource : optional) {
-					resolveResource(context, resource, existingWirings,
-							solution, new HashSet<Resource>(), standalone);
+			for (int i = 0; i < requirements.length; i++) {
+				final List<Capability> result = results.get(i);
+				if (result != null) {
+					providers.put(requirements[i], result);
 				}
+			}
+		}
+
+		/**
+		 * stop the threads that find providers.
+		 */
+		synchronized void shutdown() {
+			if (providerFinders != null) {
+				providerFinders.shutdown();
+				providerFinders = null;
+			}
+		}
+
+		/**
+		 * check if a resource is taken as it is in incremental resolution. This
+		 * is the case for a bundle that has a current wiring and no fragments
+		 * that are waiting to be attached. Everything else goes through the
+		 * full resolution.
+		 */
+		private boolean isFixed(final Resource resource,
+				final Map<Resource, Wiring> existingWirings) {
+			if (!(resource instanceof Revision)) {
+				return false;
+			}
+
+			final Revision revision = (Revision) resource;
+			final Wiring wiring = existingWirings.get(revision);
+			if (wiring == null || !((BundleWiring) wiring).isCurrent()
+					|| revision.isFragment()) {
+				return false;
+			}
 
+			if (revision.allowsFragmentAttachment()) {
+				for (final Revision frag : getFragments(revision)) {
+					if (revision.fragments == null
+							|| !revision.fragments.contains(frag)) {
+						return false;
+					}
+				}
 			}
+
+			return true;
 		}
 
 		private boolean checkSingleton(final BundleRevision resource) {
@@ -2993,6 +3911,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 				final Map<Resource, Wiring> existingWirings,
 				final MultiMap<Resource, Wire> solution,
 				final HashSet<Resource> inResolution,
+				final HashMap<Capability, List<BundleCapability>> usesCache,
+				final HashMap<Requirement, List<Capability>> providers,
 				final boolean standalone) {
 			inResolution.add(resource);
 
@@ -3035,7 +3955,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 									continue;
 								}
 
-								hostFragment(context, frag, revision, solution);
+								hostFragment(context, frag, revision, solution,
+										providers);
 							} catch (final BundleException e) {
 								// does not attach...
 								if (LOG_ENABLED) {
@@ -3058,6 +3979,16 @@ public final class Concierge extends AbstractBundle implements Framework,
 					.getRequirements(null);
 			final HashSet<Requirement> skip = new HashSet<Requirement>();
 
+			// skip requirements that are already wired, a resolved resource
+			// only gets wires for the requirements it could not satisfy yet
+			final Wiring existingWiring = existingWirings.get(resource);
+			if (existingWiring != null) {
+				for (final Wire wire : existingWiring
+						.getRequiredResourceWires(null)) {
+					skip.add(wire.getRequirement());
+				}
+			}
+
 			for (final Requirement requirement : requirements) {
 				// skip requirements that are already resolved through uses
 				// constraints
@@ -3076,9 +4007,11 @@ public final class Concierge extends AbstractBundle implements Framework,
 					continue;
 				}
 				
-				// find candidates for the requirement
-				final Collection<Capability> candidates = context
-						.findProviders(requirement);
+				// find candidates for the requirement, unless they have been
+				// found in parallel
+				final List<Capability> found = providers.remove(requirement);
+				final Collection<Capability> candidates = found != null ? found
+						: context.findProviders(requirement);
 
 				// filter through the resolver hooks if there are any
 				if (hooks != null && !hooks.isEmpty()
@@ -3116,7 +4049,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 						hostFragment(context, revision,
 								(BundleRevision) capability.getResource(),
-								solution);
+								solution, providers);
 
 						// don't trigger resolution of the host
 						continue;
@@ -3124,86 +4057,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 					// handling potential uses constraints
 					if (capability instanceof BundleCapability) {
-						// FIXME: CLEANUP!!!, OPTIMIZE!!!
-						final ArrayList<BundleCapability> caps = new ArrayList<BundleCapability>();
-
-						if (BundleNamespace.BUNDLE_NAMESPACE
-								.equals(capability.getNamespace())) {
-							caps.addAll(((BundleCapability) capability)
-									.getResource().getDeclaredCapabilities(
-											PackageNamespace.PACKAGE_NAMESPACE));
-						} else {
-							caps.add((BundleCapability) capability);
-						}
-
-						final ArrayList<BundleCapability> impliedConstraints = new ArrayList<BundleCapability>();
-						final HashSet<BundleCapability> seen = new HashSet<BundleCapability>();
-						while (!caps.isEmpty()) {
-							final BundleCapability cap = caps.remove(0);
-
-							if (seen.contains(cap)) {
-								continue;
-							}
-
-							seen.add(cap);
-
-							final String usesStr = cap.getDirectives()
-									.get(Namespace.CAPABILITY_USES_DIRECTIVE);
-
-							if (usesStr != null) {
-								final String[] usesConstraints = Utils
-										.splitString(usesStr, ',');
-								final HashSet<String> usesSet = new HashSet<String>();
-								usesSet.addAll(Arrays.asList(usesConstraints));
-
-								final BundleWiring wiring = cap.getResource()
-										.getWiring();
-								// TODO: what does it mean that wiring is null
-								// at this point???
-								if (wiring != null && wiring.isInUse()) {
-									final List<BundleWire> wires = wiring
-											.getRequiredWires(
-													PackageNamespace.PACKAGE_NAMESPACE);
-
-									final HashSet<Object> requireSet = new HashSet<Object>();
-									for (final BundleWire wire : wires) {
-										final Object pkg = wire.getCapability()
-												.getAttributes()
-												.get(PackageNamespace.PACKAGE_NAMESPACE);
-
-										if (usesSet.contains(pkg)) {
-											impliedConstraints
-													.add(wire.getCapability());
-											caps.add(wire.getCapability());
-											requireSet.add(pkg);
-										}
-									}
-									final List<BundleCapability> caps2 = wiring
-											.getCapabilities(
-													PackageNamespace.PACKAGE_NAMESPACE);
-
-									for (final Capability cap2 : caps2) {
-										final Object pkg = cap2.getAttributes()
-												.get(PackageNamespace.PACKAGE_NAMESPACE);
-										if (usesSet.contains(pkg)
-												&& !requireSet.contains(pkg)) { // don't
-																				// include
-																				// cap
-																				// if
-																				// it
-																				// was
-																				// already
-																				// imported
-																				// as
-																				// requirement
-											impliedConstraints.add(
-													(BundleCapability) cap2);
-											caps.add((BundleCapability) cap2);
-										}
-									}
-								}
-							}
-						}
+						final List<BundleCapability> impliedConstraints = getImpliedConstraints(
+								(BundleCapability) capability, usesCache);
 
 						if (!impliedConstraints.isEmpty()) {
 							// go over implied constraints
@@ -3261,7 +4116,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 											&& resolveResource(context,
 													capability.getResource(),
 													existingWirings, solution,
-													inResolution, standalone)
+													inResolution, usesCache,
+													providers, standalone)
 															.isEmpty()) {
 
 								final Wire wire = Resources
@@ -3307,9 +4163,96 @@ public final class Concierge extends AbstractBundle implements Framework,
 			return unresolvedRequirements;
 		}
 
+		/**
+		 * get the capabilities implied by the uses constraints of a
+		 * capability. The result only depends on the wirings that are in use,
+		 * which do not change during a resolution, and is therefore memorized
+		 * for the resolution.
+		 */
+		private List<BundleCapability> getImpliedConstraints(
+				final BundleCapability capability,
+				final HashMap<Capability, List<BundleCapability>> usesCache) {
+			final List<BundleCapability> cached = usesCache.get(capability);
+			if (cached != null) {
+				return cached;
+			}
+
+			final ArrayList<BundleCapability> caps = new ArrayList<BundleCapability>();
+
+			if (BundleNamespace.BUNDLE_NAMESPACE
+					.equals(capability.getNamespace())) {
+				caps.addAll(capability.getResource().getDeclaredCapabilities(
+						PackageNamespace.PACKAGE_NAMESPACE));
+			} else {
+				caps.add(capability);
+			}
+
+			final ArrayList<BundleCapability> impliedConstraints = new ArrayList<BundleCapability>();
+			final HashSet<BundleCapability> seen = new HashSet<BundleCapability>();
+			while (!caps.isEmpty()) {
+				final BundleCapability cap = caps.remove(0);
+
+				if (seen.contains(cap)) {
+					continue;
+				}
+
+				seen.add(cap);
+
+				final String usesStr = cap.getDirectives()
+						.get(Namespace.CAPABILITY_USES_DIRECTIVE);
+
+				if (usesStr != null) {
+					final String[] usesConstraints = Utils.splitString(usesStr,
+							',');
+					final HashSet<String> usesSet = new HashSet<String>();
+					usesSet.addAll(Arrays.asList(usesConstraints));
+
+					final BundleWiring wiring = cap.getResource().getWiring();
+					// TODO: what does it mean that wiring is null
+					// at this point???
+					if (wiring != null && wiring.isInUse()) {
+						final List<BundleWire> wires = wiring.getRequiredWires(
+								PackageNamespace.PACKAGE_NAMESPACE);
+
+						final HashSet<Object> requireSet = new HashSet<Object>();
+						for (final BundleWire wire : wires) {
+							final Object pkg = wire.getCapability()
+									.getAttributes()
+									.get(PackageNamespace.PACKAGE_NAMESPACE);
+
+							if (usesSet.contains(pkg)) {
+								impliedConstraints.add(wire.getCapability());
+								caps.add(wire.getCapability());
+								requireSet.add(pkg);
+							}
+						}
+						final List<BundleCapability> caps2 = wiring
+								.getCapabilities(
+										PackageNamespace.PACKAGE_NAMESPACE);
+
+						for (final Capability cap2 : caps2) {
+							final Object pkg = cap2.getAttributes()
+									.get(PackageNamespace.PACKAGE_NAMESPACE);
+							// don't include cap if it was already imported as
+							// requirement
+							if (usesSet.contains(pkg)
+									&& !requireSet.contains(pkg)) {
+								impliedConstraints.add((BundleCapability) cap2);
+								caps.add((BundleCapability) cap2);
+							}
+						}
+					}
+				}
+			}
+
+			usesCache.put(capability, impliedConstraints);
+			return impliedConstraints;
+		}
+
 		private void hostFragment(final ResolveContext context,
 				final BundleRevision fragment, final BundleRevision host,
-				final MultiMap<Resource, Wire> solution) {
+				final MultiMap<Resource, Wire> solution,
+				final Map<Requirement, List<Capability>> providers) {
 			// host the capabilities
 			for (final Capability cap : fragment.getCapabilities(null)) {
 				if (!IdentityNamespace.IDENTITY_NAMESPACE
@@ -3324,6 +4267,10 @@ public final class Concierge extends AbstractBundle implements Framework,
 				}
 			}
 
+			// the providers found before do not include the hosted
+			// capabilities
+			providers.clear();
+
 			// create host wire
 			final Capability hostCapability = host
 					.getCapabilities(HostNamespace.HOST_NAMESPACE).get(0);
@@ -3586,6 +4533,59 @@ public final class Concierge extends AbstractBundle implements Framework,
 	 * framework operations
 	 */
 
+	/**
+	 * restore the order of the service registry after the ranking of a
+	 * service has changed.
+	 * 
+	 * @param sref
+	 *            the service reference.
+	 */
+	void resortService(final ServiceReferenceImpl<?> sref) {
+		final String[] clazzes = (String[]) sref.properties
+				.get(Constants.OBJECTCLASS);
+		for (int i = 0; i < clazzes.length; i++) {
+			serviceRegistry.resort(clazzes[i]);
+		}
+
+		boolean isWeavingHook;
+		synchronized (weavingHooks) {
+			isWeavingHook = weavingHooks.contains(sref);
+			if (isWeavingHook) {
+				Collections.sort(weavingHooks, Collections.reverseOrder());
+			}
+		}
+		if (isWeavingHook) {
+			invalidateWeavingHooks();
+		}
+	}
+
+	/**
+	 * drop the snapshot of the weaving hooks if the properties of one of them
+	 * have changed.
+	 * 
+	 * @param sref
+	 *            the service reference.
+	 */
+	void weavingHookModified(final ServiceReferenceImpl<?> sref) {
+		final boolean isWeavingHook;
+		synchronized (weavingHooks) {
+			isWeavingHook = weavingHooks.contains(sref);
+		}
+		if (isWeavingHook) {
+			invalidateWeavingHooks();
+		}
+	}
+
+	/**
+	 * add the micro-services to the service property index.
+	 */
+	private void indexMicroServices() {
+		for (final ServiceReference<?> ref : microServices.getAllValues()) {
+			servicePropertyIndex.add(ref,
+					((ServiceReferenceImpl<?>) ref).properties);
+		}
+	}
+
 	/**
 	 * unregister a service.
 	 * 
@@ -3597,6 +4597,8 @@ public final class Concierge extends AbstractBundle implements Framework,
 		final String[] clazzes = (String[]) sref
 				.getProperty(Constants.OBJECTCLASS);
 		serviceRegistry.removeAll(clazzes, sref);
+		servicePropertyIndex.remove(sref,
+				((ServiceReferenceImpl<?>) sref).properties);
 
 		boolean isHook = false;
 
@@ -3606,7 +4608,13 @@ public final class Concierge extends AbstractBundle implements Framework,
 					.get(clazzes[i]);
 			if (hookList != null) {
 				isHook = true;
-				hookList.remove(sref);
+				synchronized (hookList) {
+					hookList.remove(sref);
+				}
+				if ((Object) hookList == (Object) weavingHooks) {
+					weavingHookTimers.remove(sref);
+					invalidateWeavingHooks();
+				}
 			}
 		}
 
@@ -3863,8 +4871,16 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 		if (serviceEventListenerHooks.isEmpty()
 				&& serviceEventHooks.isEmpty()) {
-			entries = serviceListeners
-					.toArray(new ServiceListenerEntry[serviceListeners.size()]);
+			final int total = serviceListeners.size();
+			entries = getServiceListenerCandidates((String[]) reference
+					.getProperty(Constants.OBJECTCLASS));
+			if (STATISTICS) {
+				serviceListenerEvaluations.addAndGet(entries.length);
+				if (total > entries.length) {
+					skippedServiceListenerEvaluations
+							.addAndGet(total - entries.length);
+				}
+			}
 		} else {
 			// prepare the data structures
 			final MultiMap<BundleContext, ListenerInfo> mmap = new MultiMap<BundleContext, ListenerInfo>();
@@ -3945,18 +4961,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 			if (entries[i].listener instanceof UnfilteredServiceListener
 					|| entries[i].filter == null
 					|| entries[i].filter.matches(ref.properties)) {
-				final ServiceListener listener = entries[i].listener;
-				if (SECURITY_ENABLED) {
-					AccessController
-							.doPrivileged(new PrivilegedAction<Object>() {
-								public Object run() {
-									listener.serviceChanged(event);
-									return null;
-								}
-							});
-				} else {
-					listener.serviceChanged(event);
-				}
+				deliverServiceEvent(entries[i].listener, event);
 			} else if (state == ServiceEvent.MODIFIED) {
 				if (entries[i].filter.matches(oldProperties)) {
 					entries[i].listener.serviceChanged(endmatchEvent);
@@ -3965,6 +4970,152 @@ public final class Concierge extends AbstractBundle implements Framework,
 		}
 	}
 
+	/**
+	 * notify all service listeners about a batch of newly registered services.
+	 * Without event hooks, the candidate listeners for the object classes of
+	 * the whole batch are looked up once and every candidate is evaluated
+	 * against the references it is interested in.
+	 * 
+	 * @param refs
+	 *            the service references.
+	 */
+	void notifyServiceListeners(final List<ServiceReferenceImpl<?>> refs) {
+		if (serviceListeners.isEmpty() || refs.isEmpty()) {
+			return;
+		}
+
+		if (!serviceEventListenerHooks.isEmpty()
+				|| !serviceEventHooks.isEmpty()) {
+			// the hooks have to see every event on its own
+			for (final ServiceReferenceImpl<?> ref : refs) {
+				notifyServiceListeners(ServiceEvent.REGISTERED, ref, null);
+			}
+			return;
+		}
+
+		final int total = serviceListeners.size();
+		final LinkedHashSet<String> classes = new LinkedHashSet<String>();
+		for (final ServiceReferenceImpl<?> ref : refs) {
+			classes.addAll(Arrays.asList(
+					(String[]) ref.properties.get(Constants.OBJECTCLASS)));
+		}
+		final ServiceListenerEntry[] entries = getServiceListenerCandidates(
+				classes.toArray(new String[classes.size()]));
+		final ServiceEvent[] events = new ServiceEvent[refs.size()];
+		long evaluations = 0;
+
+		for (int i = 0; i < entries.length; i++) {
+			final ServiceListenerEntry entry = entries[i];
+			for (int j = 0; j < events.length; j++) {
+				final ServiceReferenceImpl<?> ref = refs.get(j);
+				final String[] clazzes = (String[]) ref.properties
+						.get(Constants.OBJECTCLASS);
+				if (!entry.isInterestedIn(clazzes)) {
+					continue;
+				}
+				evaluations++;
+
+				// check if the listener can receive the service event
+				if (!(entry.listener instanceof AllServiceListener)
+						&& !ref.isAssignableTo(entry.bundle, clazzes)) {
+					continue;
+				}
+				if (entry.listener instanceof UnfilteredServiceListener
+						|| entry.filter == null
+						|| entry.filter.matches(ref.properties)) {
+					if (events[j] == null) {
+						events[j] = new ServiceEvent(ServiceEvent.REGISTERED,
+								ref);
+					}
+					deliverServiceEvent(entry.listener, events[j]);
+				}
+			}
+		}
+
+		if (STATISTICS) {
+			serviceListenerEvaluations.addAndGet(evaluations);
+			skippedServiceListenerEvaluations.addAndGet(
+					(long) total * events.length - evaluations);
+		}
+	}
+
+	private void deliverServiceEvent(final ServiceListener listener,
+			final ServiceEvent event) {
+		if (SECURITY_ENABLED) {
+			AccessController.doPrivileged(new PrivilegedAction<Object>() {
+				public Object run() {
+					listener.serviceChanged(event);
+					return null;
+				}
+			});
+		} else {
+			listener.serviceChanged(event);
+		}
+	}
+
+	/**
+	 * get the service listeners that are interested in services registered
+	 * under one of the given classes, in the order in which they have been
+	 * added.
+	 * 
+	 * @param clazzes
+	 *            the object classes of the service.
+	 * @return the candidate listeners.
+	 */
+	private ServiceListenerEntry[] getServiceListenerCandidates(
+			final String[] clazzes) {
+		final List<List<ServiceListenerEntry>> buckets = new ArrayList<List<ServiceListenerEntry>>(
+				clazzes.length + 1);
+		int size = 0;
+
+		final List<ServiceListenerEntry> any = serviceListenerIndex
+				.get(ServiceListenerEntry.ANY_CLASS);
+		if (any != null) {
+			buckets.add(any);
+			size += any.size();
+		}
+		for (int i = 0; i < clazzes.length; i++) {
+			final List<ServiceListenerEntry> bucket = serviceListenerIndex
+					.get(clazzes[i]);
+			if (bucket != null) {
+				buckets.add(bucket);
+				size += bucket.size();
+			}
+		}
+
+		if (buckets.size() == 1) {
+			return buckets.get(0)
+					.toArray(new ServiceListenerEntry[size]);
+		}
+
+		final ServiceListenerEntry[] entries = new ServiceListenerEntry[size];
+		int pos = 0;
+		for (final List<ServiceListenerEntry> bucket : buckets) {
+			for (int i = 0; i < bucket.size(); i++) {
+				entries[pos++] = bucket.get(i);
+			}
+		}
+		if (size < 2) {
+			return entries;
+		}
+
+		// restore the registration order and drop listeners that are in the
+		// buckets of more than one class of the service
+		Arrays.sort(entries, ServiceListenerEntry.ORDER);
+		int len = 1;
+		for (int i = 1; i < size; i++) {
+			if (entries[i] != entries[len - 1]) {
+				entries[len++] = entries[i];
+			}
+		}
+		if (len == size) {
+			return entries;
+		}
+		final ServiceListenerEntry[] result = new ServiceListenerEntry[len];
+		System.arraycopy(entries, 0, result, 0, len);
+		return result;
+	}
+
 	/**
 	 * clear all traces of a bundle.
 	 * 
@@ -3979,6 +5130,9 @@ public final class Concierge extends AbstractBundle implements Framework,
 		}
 		if (bundle.registeredServiceListeners != null) {
 			serviceListeners.removeAll(bundle.registeredServiceListeners);
+			for (final ServiceListenerEntry entry : bundle.registeredServiceListeners) {
+				serviceListenerIndex.removeAll(entry.classes, entry);
+			}
 			bundle.registeredServiceListeners = null;
 		}
 		final List<BundleListener> bundleListeners = bundleListenerMap
@@ -4226,6 +5380,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 				}
 				bundle.registeredServiceListeners.add(entry);
 				serviceListeners.add(entry);
+				serviceListenerIndex.insert(entry.classes, entry);
 			}
 
 			informListenerHooks(serviceListenerHooks,
@@ -4513,25 +5668,39 @@ public final class Concierge extends AbstractBundle implements Framework,
 			checkValid();
 
 			final Filter theFilter = RFC1960Filter.fromString(filter);
-			final Collection<ServiceReference<?>> references;
+			final List<ServiceReference<?>> candidates = RFC1960Filter
+					.filterWithIndex(theFilter, servicePropertyIndex);
+			final List<ServiceReference<?>> references;
+			final boolean checkClass;
 
 			if (clazz == null) {
-				references = serviceRegistry.getAllValues();
+				references = candidates == null
+						? serviceRegistry.getAllValues() : candidates;
+				checkClass = false;
 			} else {
-				references = serviceRegistry.get(clazz);
+				final List<ServiceReference<?>> registered = serviceRegistry
+						.get(clazz);
+				// use the index if it is more selective than the class
+				checkClass = candidates != null && registered != null
+						&& candidates.size() < registered.size();
+				references = checkClass ? candidates : registered;
 			}
 
 			final List<ServiceReference<?>> result = new ArrayList<ServiceReference<?>>();
 
 			if (references != null) {
-				final ServiceReferenceImpl<?>[] refs = references
-						.toArray(new ServiceReferenceImpl[references.size()]);
-
-				for (int i = 0; i < refs.length; i++) {
-					if (theFilter.match(refs[i]) && (all
-							|| refs[i].isAssignableTo(bundle, (String[]) refs[i]
+				// the references are an immutable snapshot
+				final int size = references.size();
+				for (int i = 0; i < size; i++) {
+					final ServiceReferenceImpl<?> ref = (ServiceReferenceImpl<?>) references
+							.get(i);
+					if (checkClass && !hasObjectClass(ref, clazz)) {
+						continue;
+					}
+					if (theFilter.match(ref) && (all
+							|| ref.isAssignableTo(bundle, (String[]) ref
 									.getProperty(Constants.OBJECTCLASS)))) {
-						result.add(refs[i]);
+						result.add(ref);
 					}
 				}
 			}
@@ -4571,6 +5740,18 @@ public final class Concierge extends AbstractBundle implements Framework,
 							.toArray(new ServiceReference[result.size()]);
 		}
 
+		private boolean hasObjectClass(final ServiceReferenceImpl<?> ref,
+				final String clazz) {
+			final String[] clazzes = (String[]) ref.properties
+					.get(Constants.OBJECTCLASS);
+			for (int i = 0; i < clazzes.length; i++) {
+				if (clazzes[i].equals(clazz)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
 		/**
 		 * get a service reference.
 		 * 
@@ -4585,8 +5766,23 @@ public final class Concierge extends AbstractBundle implements Framework,
 		public ServiceReference<?> getServiceReference(final String clazz) {
 			checkValid();
 
+			if (clazz != null && serviceFindHooks.isEmpty()) {
+				// the registry is ordered by ranking and service id, so the
+				// best match is at the head of the list
+				final List<ServiceReference<?>> refs = serviceRegistry
+						.get(clazz);
+				final ServiceReference<?> winner = refs == null
+						|| refs.isEmpty() ? null : refs.get(0);
+				if (LOG_ENABLED && DEBUG_SERVICES) {
+					logger.log(LogService.LOG_INFO,
+							"Framework: REQUESTED SERVICE " + clazz);
+					logger.log(LogService.LOG_INFO, "\tRETURNED " + winner);
+				}
+				return winner;
+			}
+
 			ServiceReference<?> winner = null;
-			int maxRanking = -1;
+			int maxRanking = Integer.MIN_VALUE;
 			long lastServiceID = Long.MAX_VALUE;
 
 			ServiceReference<?>[] list = null;
@@ -4726,9 +5922,9 @@ public final class Concierge extends AbstractBundle implements Framework,
 				final String clazz = clazzes[counter];
 
 				isHook = checkHook(clazz, sref, true);
-
-				serviceRegistry.insert(clazz, sref);
 			}
+			serviceRegistry.insert(clazzes, sref);
+			servicePropertyIndex.add(sref, sref.properties);
 
 			if (LOG_ENABLED && DEBUG_SERVICES) {
 				logger.log(LogService.LOG_INFO,
@@ -4742,6 +5938,97 @@ public final class Concierge extends AbstractBundle implements Framework,
 			return sref.registration;
 		}
 
+		/**
+		 * register a batch of services.
+		 * 
+		 * @param clazzes
+		 *            the classes under which each service is registered.
+		 * @param services
+		 *            the service objects.
+		 * @param serviceProperties
+		 *            the properties of each service, or <code>null</code>.
+		 * @return the service registrations.
+		 * @see BatchServiceRegistrar#registerServices(BundleContext,
+		 *      String[][], Object[], Dictionary[])
+		 */
+		ServiceRegistration<?>[] registerServices(final String[][] clazzes,
+				final Object[] services,
+				final Dictionary<String, ?>[] serviceProperties) {
+			checkValid();
+
+			if (clazzes.length != services.length
+					|| serviceProperties != null
+							&& serviceProperties.length != services.length) {
+				throw new IllegalArgumentException(
+						"Number of classes, services, and properties differ");
+			}
+
+			// create all references before touching the registry, so that an
+			// invalid service leaves it unchanged
+			final List<ServiceReferenceImpl<?>> srefs = new ArrayList<ServiceReferenceImpl<?>>(
+					services.length);
+			for (int i = 0; i < services.length; i++) {
+				if (services[i] == null) {
+					throw new IllegalArgumentException(
+							"Cannot register a null service");
+				}
+
+				if (SECURITY_ENABLED) {
+					for (int j = 0; j < clazzes[i].length; j++) {
+						AccessController.checkPermission(new ServicePermission(
+								clazzes[i][j], ServicePermission.REGISTER));
+					}
+				}
+
+				srefs.add(new ServiceReferenceImpl<Object>(Concierge.this,
+						bundle, services[i], serviceProperties == null ? null
+								: serviceProperties[i],
+						clazzes[i]));
+			}
+
+			// lazy initialization
+			if (bundle.registeredServices == null) {
+				bundle.registeredServices = new ArrayList<ServiceReference<?>>(
+						srefs.size());
+			}
+			bundle.registeredServices.addAll(srefs);
+
+			final List<ServiceReferenceImpl<?>> registered = new ArrayList<ServiceReferenceImpl<?>>(
+					srefs.size());
+			for (final ServiceReferenceImpl<?> sref : srefs) {
+				final String[] classes = (String[]) sref.properties
+						.get(Constants.OBJECTCLASS);
+				boolean isHook = false;
+				for (int counter = 0; counter < classes.length; counter++) {
+					isHook = checkHook(classes[counter], sref, true);
+				}
+				if (!isHook) {
+					registered.add(sref);
+				}
+			}
+
+			serviceRegistry.insertAll(Arrays.asList(clazzes), srefs);
+			servicePropertyIndex.addAll(srefs);
+
+			if (LOG_ENABLED && DEBUG_SERVICES) {
+				logger.log(LogService.LOG_INFO, "Framework: REGISTERED "
+						+ srefs.size() + " SERVICES IN BATCH");
+			}
+
+			notifyServiceListeners(registered);
+
+			final ServiceRegistration<?>[] result = new ServiceRegistration<?>[srefs
+					.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = srefs.get(i).registration;
+			}
+			return result;
+		}
+
+		Concierge getFramework() {
+			return Concierge.this;
+		}
+
 		private boolean checkHook(final String clazz,
 				final ServiceReference<?> sref, final boolean add) {
 			@SuppressWarnings("unchecked")
@@ -4752,10 +6039,14 @@ public final class Concierge extends AbstractBundle implements Framework,
 			}
 
 			if (add) {
-				hookList.add(sref);
-				// not required for collision hook, weaving hook,
-				// resolverHookFactory...
-				Collections.sort(hookList, Collections.reverseOrder());
+				synchronized (hookList) {
+					hookList.add(sref);
+					// not required for collision hook, resolverHookFactory...
+					Collections.sort(hookList, Collections.reverseOrder());
+				}
+				if ((Object) hookList == (Object) weavingHooks) {
+					invalidateWeavingHooks();
+				}
 			} else {
 				// FIXME: remove!
 			}
@@ -4864,6 +6155,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 				}
 				entry.removed = true;
 				serviceListeners.remove(entry);
+				serviceListenerIndex.removeAll(entry.classes, entry);
 				bundle.registeredServiceListeners.remove(entry);
 				if (bundle.registeredServiceListeners.isEmpty()) {
 					bundle.registeredServiceListeners = null;
@@ -4884,8 +6176,7 @@ public final class Concierge extends AbstractBundle implements Framework,
 		 * @see org.osgi.framework.BundleContext#ungetService(org.osgi.framework.ServiceReference)
 		 * 
 		 */
-		public synchronized boolean ungetService(
-				final ServiceReference<?> reference) {
+		public boolean ungetService(final ServiceReference<?> reference) {
 			checkValid();
 			return ((ServiceReferenceImpl<?>) reference).ungetService(bundle);
 		}
@@ -4929,6 +6220,111 @@ public final class Concierge extends AbstractBundle implements Framework,
 		}
 	}
 
+	/**
+	 * An immutable snapshot of the weaving hooks, in the order in which they
+	 * are called.
+	 */
+	static final class WeavingHookSnapshot {
+
+		final WeavingHookEntry[] entries;
+
+		/**
+		 * the key of the hooks for the class cache.
+		 */
+		final String key;
+
+		/**
+		 * the number of callers using the snapshot, plus one while it is the
+		 * current snapshot of the framework. The hook services are released
+		 * when it drops to zero.
+		 */
+		private final AtomicInteger users = new AtomicInteger(1);
+
+		WeavingHookSnapshot(final WeavingHookEntry[] entries,
+				final String key) {
+			this.entries = entries;
+			this.key = key;
+		}
+
+		/**
+		 * start using the snapshot.
+		 * 
+		 * @return <code>false</code> if the hook services have already been
+		 *         released.
+		 */
+		boolean retain() {
+			int n;
+			do {
+				n = users.get();
+				if (n == 0) {
+					return false;
+				}
+			} while (!users.compareAndSet(n, n + 1));
+			return true;
+		}
+
+		/**
+		 * stop using the snapshot, the last user releases the hook services.
+		 */
+		void release(final Concierge framework) {
+			if (users.decrementAndGet() == 0) {
+				for (final WeavingHookEntry entry : entries) {
+					entry.sref.ungetService(framework);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * A weaving hook of a snapshot together with its service object.
+	 */
+	static final class WeavingHookEntry {
+
+		final ServiceReferenceImpl<WeavingHook> sref;
+
+		final WeavingHook hook;
+
+		final WeavingHookTimer timer;
+
+		WeavingHookEntry(final ServiceReferenceImpl<WeavingHook> sref,
+				final WeavingHook hook, final WeavingHookTimer timer) {
+			this.sref = sref;
+			this.hook = hook;
+			this.timer = timer;
+		}
+
+	}
+
+	/**
+	 * The number of calls of a weaving hook and the time spent in it.
+	 */
+	static final class WeavingHookTimer {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong nanos = new AtomicLong();
+
+		void record(final long time) {
+			calls.incrementAndGet();
+			nanos.addAndGet(time);
+		}
+
+		long getCalls() {
+			return calls.get();
+		}
+
+		long getNanos() {
+			return nanos.get();
+		}
+
+		public String toString() {
+			return "WeavingHookTimer{calls=" + calls.get() + ", nanos="
+					+ nanos.get() + "}";
+		}
+
+	}
+
 	/**
 	 * An entry consisting of service listener and filter.
 	 * 
@@ -4937,6 +6333,21 @@ public final class Concierge extends AbstractBundle implements Framework,
 	static final class ServiceListenerEntry
 			implements EventListener, ListenerHook.ListenerInfo {
 
+		/**
+		 * the index key for listeners that are not restricted to certain
+		 * object classes. Cannot clash with a class name.
+		 */
+		static final String ANY_CLASS = "*";
+
+		static final Comparator<ServiceListenerEntry> ORDER = new Comparator<ServiceListenerEntry>() {
+			public int compare(final ServiceListenerEntry e1,
+					final ServiceListenerEntry e2) {
+				return e1.seq < e2.seq ? -1 : e1.seq == e2.seq ? 0 : 1;
+			}
+		};
+
+		private static final AtomicLong SEQUENCE = new AtomicLong();
+
 		final AbstractBundle bundle;
 
 		/**
@@ -4949,6 +6360,16 @@ public final class Concierge extends AbstractBundle implements Framework,
 		 */
 		final Filter filter;
 
+		/**
+		 * the object classes under which the entry is indexed.
+		 */
+		final String[] classes;
+
+		/**
+		 * the position of the entry in the order of additions.
+		 */
+		final long seq;
+
 		boolean removed;
 
 		/**
@@ -4969,6 +6390,36 @@ public final class Concierge extends AbstractBundle implements Framework,
 			this.removed = false;
 			this.filter = filter == null ? null
 					: RFC1960Filter.fromString(filter);
+			this.seq = SEQUENCE.incrementAndGet();
+
+			final Set<String> required = this.filter == null
+					|| listener instanceof UnfilteredServiceListener ? null
+							: RFC1960Filter.getRequiredValues(this.filter,
+									Constants.OBJECTCLASS);
+			this.classes = required == null ? new String[] { ANY_CLASS }
+					: required.toArray(new String[required.size()]);
+		}
+
+		/**
+		 * check if the listener can be interested in a service.
+		 * 
+		 * @param clazzes
+		 *            the object classes of the service.
+		 * @return true if the entry is indexed under one of the classes or
+		 *         is not restricted to certain classes.
+		 */
+		boolean isInterestedIn(final String[] clazzes) {
+			if (classes[0] == ANY_CLASS) {
+				return true;
+			}
+			for (int i = 0; i < classes.length; i++) {
+				for (int j = 0; j < clazzes.length; j++) {
+					if (classes[i].equals(clazzes[j])) {
+						return true;
+					}
+				}
+			}
+			return false;
 		}
 
 		/**
@@ -5028,10 +6479,39 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 	static class CapabilityRegistry {
 
+		/**
+		 * the order of the package capabilities in the index: highest version
+		 * first, then lowest bundle id first. Unlike the export order, the
+		 * resolution state is not part of it since it changes while the
+		 * capabilities are in the index.
+		 */
+		static final Comparator<Capability> VERSION_ORDER = new Comparator<Capability>() {
+
+			public int compare(final Capability cap1, final Capability cap2) {
+				final int score = getVersion(cap2)
+						.compareTo(getVersion(cap1));
+				if (score != 0) {
+					return score;
+				}
+				final long id1 = getBundleId(cap1);
+				final long id2 = getBundleId(cap2);
+				return id1 < id2 ? -1 : id1 == id2 ? 0 : 1;
+			}
+
+			private long getBundleId(final Capability cap) {
+				return cap instanceof BundleCapability
+						? ((BundleCapability) cap).getRevision().getBundle()
+								.getBundleId()
+						: Long.MAX_VALUE;
+			}
+
+		};
+
 		// namespace -> list of capability
 		private final MultiMap<String, Capability> capabilities = new MultiMap<String, Capability>();
 
-		// namespace -> value (of canonical attribute) -> list of capability
+		// namespace -> value (of canonical attribute) -> list of capability,
+		// the package capabilities are kept in version order
 		private final HashMap<String, MultiMap<String, Capability>> defaultAttributeIndex = new HashMap<String, MultiMap<String, Capability>>();
 
 		void add(final Capability cap) {
@@ -5043,7 +6523,11 @@ public final class Concierge extends AbstractBundle implements Framework,
 				MultiMap<String, Capability> attributeIndex = defaultAttributeIndex
 						.get(namespace);
 				if (attributeIndex == null) {
-					attributeIndex = new MultiMap<String, Capability>();
+					attributeIndex = PackageNamespace.PACKAGE_NAMESPACE
+							.equals(namespace)
+									? new MultiMap<String, Capability>(
+											VERSION_ORDER)
+									: new MultiMap<String, Capability>();
 					defaultAttributeIndex.put(namespace, attributeIndex);
 				}
 				attributeIndex.insert((String) defaultAttribute, cap);
@@ -5112,6 +6596,63 @@ public final class Concierge extends AbstractBundle implements Framework,
 					: new ArrayList<Capability>(result);
 		}
 
+		/**
+		 * get the package capabilities with a given package name and a
+		 * version within a range. The range is looked up in the version
+		 * ordered index, the capabilities outside of it are never visited.
+		 *
+		 * @param value
+		 *            the package name.
+		 * @param range
+		 *            the version range.
+		 * @return the capabilities in version order.
+		 */
+		public List<Capability> getByVersionRange(final String value,
+				final VersionRange range) {
+			final List<Capability> caps = getByKey(
+					PackageNamespace.PACKAGE_NAMESPACE, value);
+			if (caps == null || caps.isEmpty()) {
+				return Collections.emptyList();
+			}
+			final Version right = range.getRight();
+			final int start = right == null ? 0
+					: firstBelow(caps, right,
+							range.getRightType() == VersionRange.RIGHT_CLOSED);
+			final int end = firstBelow(caps, range.getLeft(),
+					range.getLeftType() == VersionRange.LEFT_OPEN);
+			return start >= end ? Collections.<Capability> emptyList()
+					: new ArrayList<Capability>(caps.subList(start, end));
+		}
+
+		/**
+		 * binary search in a version ordered list.
+		 *
+		 * @return the index of the first capability with a version lower than
+		 *         the bound (or equal to it, if inclusive is set).
+		 */
+		private static int firstBelow(final List<Capability> caps,
+				final Version bound, final boolean inclusive) {
+			int low = 0;
+			int high = caps.size();
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				final int score = getVersion(caps.get(mid)).compareTo(bound);
+				if (score < 0 || inclusive && score == 0) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return low;
+		}
+
+		static Version getVersion(final Capability cap) {
+			final Object version = cap.getAttributes()
+					.get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE);
+			return version instanceof Version ? (Version) version
+					: Version.emptyVersion;
+		}
+
 		@Override
 		public String toString() {
 			return capabilities.toString();
@@ -5119,42 +6660,530 @@ public final class Concierge extends AbstractBundle implements Framework,
 
 	}
 
+	static class ServicePropertyIndex {
+
+		private static final String OBJECTCLASS = Constants.OBJECTCLASS
+				.toLowerCase();
+
+		private static final String SERVICE_RANKING = Constants.SERVICE_RANKING
+				.toLowerCase();
+
+		// objectClass terms are answered by the service registry
+		private final SnapshotMultiMap<String, ServiceReference<?>> registry;
+
+		// lower case key -> value (String or Long) -> list of service reference
+		private final ConcurrentHashMap<String, ConcurrentHashMap<Object, List<ServiceReference<?>>>> valueIndex = new ConcurrentHashMap<String, ConcurrentHashMap<Object, List<ServiceReference<?>>>>();
+
+		// lower case key -> list of service references with values that
+		// cannot be indexed
+		private final ConcurrentHashMap<String, List<ServiceReference<?>>> unindexed = new ConcurrentHashMap<String, List<ServiceReference<?>>>();
+
+		// the lists in the index are immutable snapshots that are replaced
+		// by the (serialized) writers, so lookups never lock
+
+		ServicePropertyIndex(
+				final SnapshotMultiMap<String, ServiceReference<?>> registry) {
+			this.registry = registry;
+		}
+
+		/**
+		 * check if equality terms on a key can be answered by the index. The
+		 * object class is answered by the registry, the ranking is shared by
+		 * almost all services and not worth indexing.
+		 */
+		boolean isIndexed(final String key) {
+			return !SERVICE_RANKING.equalsIgnoreCase(key);
+		}
+
+		synchronized void add(final ServiceReference<?> ref,
+				final Map<String, ?> props) {
+			for (final Map.Entry<String, ?> entry : props.entrySet()) {
+				final String key = entry.getKey().toLowerCase();
+				if (key.equals(OBJECTCLASS) || key.equals(SERVICE_RANKING)) {
+					continue;
+				}
+				final Object value = entry.getValue();
+				if (value instanceof String[]) {
+					final String[] values = (String[]) value;
+					for (int i = 0; i < values.length; i++) {
+						if (!containsBefore(values, i)) {
+							insert(key, values[i], ref);
+						}
+					}
+				} else {
+					final Object indexValue = indexValue(value);
+					if (indexValue == null) {
+						insert(unindexed, key, ref);
+					} else {
+						insert(key, indexValue, ref);
+					}
+				}
+			}
+		}
+
+		/**
+		 * add a batch of service references. Every affected list is copied
+		 * once and the new lists are published together after the whole
+		 * batch has been indexed.
+		 */
+		synchronized void addAll(
+				final List<? extends ServiceReferenceImpl<?>> refs) {
+			final HashMap<String, HashMap<Object, List<ServiceReference<?>>>> added = new HashMap<String, HashMap<Object, List<ServiceReference<?>>>>();
+			final HashMap<String, List<ServiceReference<?>>> addedUnindexed = new HashMap<String, List<ServiceReference<?>>>();
+
+			for (final ServiceReferenceImpl<?> ref : refs) {
+				for (final Map.Entry<String, ?> entry : ref.properties
+						.entrySet()) {
+					final String key = entry.getKey().toLowerCase();
+					if (key.equals(OBJECTCLASS)
+							|| key.equals(SERVICE_RANKING)) {
+						continue;
+					}
+					final Object value = entry.getValue();
+					if (value instanceof String[]) {
+						final String[] values = (String[]) value;
+						for (int i = 0; i < values.length; i++) {
+							if (!containsBefore(values, i)) {
+								collect(added, key, values[i], ref);
+							}
+						}
+					} else {
+						final Object indexValue = indexValue(value);
+						if (indexValue == null) {
+							collect(addedUnindexed, key, ref);
+						} else {
+							collect(added, key, indexValue, ref);
+						}
+					}
+				}
+			}
+
+			for (final Map.Entry<String, HashMap<Object, List<ServiceReference<?>>>> entry : added
+					.entrySet()) {
+				ConcurrentHashMap<Object, List<ServiceReference<?>>> values = valueIndex
+						.get(entry.getKey());
+				if (values == null) {
+					values = new ConcurrentHashMap<Object, List<ServiceReference<?>>>();
+					valueIndex.put(entry.getKey(), values);
+				}
+				for (final Map.Entry<Object, List<ServiceReference<?>>> value : entry
+						.getValue().entrySet()) {
+					insertAll(values, value.getKey(), value.getValue());
+				}
+			}
+			for (final Map.Entry<String, List<ServiceReference<?>>> entry : addedUnindexed
+					.entrySet()) {
+				insertAll(unindexed, entry.getKey(), entry.getValue());
+			}
+		}
+
+		synchronized void remove(final ServiceReference<?> ref,
+				final Map<String, ?> props) {
+			for (final Map.Entry<String, ?> entry : props.entrySet()) {
+				final String key = entry.getKey().toLowerCase();
+				if (key.equals(OBJECTCLASS) || key.equals(SERVICE_RANKING)) {
+					continue;
+				}
+				final Object value = entry.getValue();
+				if (value instanceof String[]) {
+					final String[] values = (String[]) value;
+					for (int i = 0; i < values.length; i++) {
+						if (!containsBefore(values, i)) {
+							delete(key, values[i], ref);
+						}
+					}
+				} else {
+					final Object indexValue = indexValue(value);
+					if (indexValue == null) {
+						delete(unindexed, key, ref);
+					} else {
+						delete(key, indexValue, ref);
+					}
+				}
+			}
+		}
+
+		synchronized void clear() {
+			valueIndex.clear();
+			unindexed.clear();
+		}
+
+		/**
+		 * get the number of service references that are candidates for
+		 * matching the equality term <code>(key=value)</code>.
+		 */
+		int count(final String key, final String value) {
+			final String lower = key.toLowerCase();
+			if (lower.equals(OBJECTCLASS)) {
+				return registry.lookup(value).size();
+			}
+			final List<ServiceReference<?>> unindexedRefs = unindexed
+					.get(lower);
+			int count = unindexedRefs == null ? 0 : unindexedRefs.size();
+
+			final Map<Object, List<ServiceReference<?>>> values = valueIndex
+					.get(lower);
+			if (values != null) {
+				List<ServiceReference<?>> refs = values.get(value);
+				count += refs == null ? 0 : refs.size();
+				final Long number = parseNumber(value);
+				if (number != null) {
+					refs = values.get(number);
+					count += refs == null ? 0 : refs.size();
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * get the service references that are candidates for matching the
+		 * equality term <code>(key=value)</code>. Every service reference that
+		 * matches the term is contained in the result but the result can
+		 * contain references that do not match.
+		 * 
+		 * @return an immutable list of candidates.
+		 */
+		List<ServiceReference<?>> getCandidates(final String key,
+				final String value) {
+			final String lower = key.toLowerCase();
+			if (lower.equals(OBJECTCLASS)) {
+				return registry.lookup(value);
+			}
+
+			final Map<Object, List<ServiceReference<?>>> values = valueIndex
+					.get(lower);
+			final List<ServiceReference<?>> strings = values == null ? null
+					: values.get(value);
+			final Long number = values == null ? null : parseNumber(value);
+			final List<ServiceReference<?>> numbers = number == null ? null
+					: values.get(number);
+			final List<ServiceReference<?>> unindexedRefs = unindexed
+					.get(lower);
+
+			// in the common case, the snapshot can be returned as it is
+			if (numbers == null && unindexedRefs == null) {
+				return strings == null
+						? Collections.<ServiceReference<?>> emptyList()
+						: strings;
+			} else if (strings == null && unindexedRefs == null) {
+				return numbers;
+			} else if (strings == null && numbers == null) {
+				return unindexedRefs;
+			}
+
+			final ArrayList<ServiceReference<?>> result = new ArrayList<ServiceReference<?>>();
+			if (strings != null) {
+				result.addAll(strings);
+			}
+			if (numbers != null) {
+				result.addAll(numbers);
+			}
+			if (unindexedRefs != null) {
+				result.addAll(unindexedRefs);
+			}
+			return result;
+		}
+
+		private void insert(final String key, final Object value,
+				final ServiceReference<?> ref) {
+			ConcurrentHashMap<Object, List<ServiceReference<?>>> values = valueIndex
+					.get(key);
+			if (values == null) {
+				values = new ConcurrentHashMap<Object, List<ServiceReference<?>>>();
+				valueIndex.put(key, values);
+			}
+			insert(values, value, ref);
+		}
+
+		private void delete(final String key, final Object value,
+				final ServiceReference<?> ref) {
+			final ConcurrentHashMap<Object, List<ServiceReference<?>>> values = valueIndex
+					.get(key);
+			if (values != null) {
+				delete(values, value, ref);
+				if (values.isEmpty()) {
+					valueIndex.remove(key);
+				}
+			}
+		}
+
+		private static <K> void insert(
+				final ConcurrentHashMap<K, List<ServiceReference<?>>> map,
+				final K key, final ServiceReference<?> ref) {
+			final List<ServiceReference<?>> list = map.get(key);
+			final ArrayList<ServiceReference<?>> newList;
+			if (list == null) {
+				newList = new ArrayList<ServiceReference<?>>(1);
+			} else {
+				newList = new ArrayList<ServiceReference<?>>(list.size() + 1);
+				newList.addAll(list);
+			}
+			newList.add(ref);
+			map.put(key, Collections.unmodifiableList(newList));
+		}
+
+		private static <K> void insertAll(
+				final ConcurrentHashMap<K, List<ServiceReference<?>>> map,
+				final K key, final List<ServiceReference<?>> refs) {
+			final List<ServiceReference<?>> list = map.get(key);
+			final ArrayList<ServiceReference<?>> newList;
+			if (list == null) {
+				newList = new ArrayList<ServiceReference<?>>(refs);
+			} else {
+				newList = new ArrayList<ServiceReference<?>>(
+						list.size() + refs.size());
+				newList.addAll(list);
+				newList.addAll(refs);
+			}
+			map.put(key, Collections.unmodifiableList(newList));
+		}
+
+		private static void collect(
+				final HashMap<String, HashMap<Object, List<ServiceReference<?>>>> added,
+				final String key, final Object value,
+				final ServiceReference<?> ref) {
+			HashMap<Object, List<ServiceReference<?>>> values = added
+					.get(key);
+			if (values == null) {
+				values = new HashMap<Object, List<ServiceReference<?>>>();
+				added.put(key, values);
+			}
+			collect(values, value, ref);
+		}
+
+		private static <K> void collect(
+				final HashMap<K, List<ServiceReference<?>>> added, final K key,
+				final ServiceReference<?> ref) {
+			List<ServiceReference<?>> list = added.get(key);
+			if (list == null) {
+				list = new ArrayList<ServiceReference<?>>();
+				added.put(key, list);
+			}
+			list.add(ref);
+		}
+
+		private static <K> void delete(
+				final ConcurrentHashMap<K, List<ServiceReference<?>>> map,
+				final K key, final ServiceReference<?> ref) {
+			final List<ServiceReference<?>> list = map.get(key);
+			if (list != null && list.contains(ref)) {
+				if (list.size() == 1) {
+					map.remove(key);
+				} else {
+					final ArrayList<ServiceReference<?>> newList = new ArrayList<ServiceReference<?>>(
+							list);
+					newList.remove(ref);
+					map.put(key, Collections.unmodifiableList(newList));
+				}
+			}
+		}
+
+		private static boolean containsBefore(final String[] values,
+				final int pos) {
+			for (int i = 0; i < pos; i++) {
+				if (values[i].equals(values[pos])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * strings are indexed as they are, integral numbers by their long
+		 * value. Everything else is matched in a type specific way and cannot
+		 * be indexed.
+		 */
+		private static Object indexValue(final Object value) {
+			if (value instanceof String) {
+				return value;
+			}
+			if (value instanceof Integer || value instanceof Long
+					|| value instanceof Short || value instanceof Byte) {
+				return Long.valueOf(((Number) value).longValue());
+			}
+			return null;
+		}
+
+		private static Long parseNumber(final String value) {
+			try {
+				return Long.valueOf(Long.parseLong(value.trim()));
+			} catch (final NumberFormatException nfe) {
+				return null;
+			}
+		}
+
+	}
+
 	boolean hasWeavingHooks() {
 		return !weavingHooks.isEmpty();
 	}
 
-	void callWeavingHooks(final WovenClassImpl wovenClass) {
-		Collections.sort(weavingHooks, Collections.reverseOrder());
+	/**
+	 * get the weaving hooks in the order in which they are called. The
+	 * snapshot is built on first use after a hook was registered,
+	 * unregistered or changed its ranking, and holds the hook services until
+	 * it is replaced and no caller uses it anymore. The caller has to release
+	 * the snapshot when done.
+	 * 
+	 * @return the snapshot.
+	 */
+	private WeavingHookSnapshot acquireWeavingHookSnapshot() {
+		while (true) {
+			final WeavingHookSnapshot current = weavingHookSnapshot;
+			if (current == null) {
+				break;
+			}
+			if (current.retain()) {
+				return current;
+			}
+			// released concurrently, it has already been replaced
+		}
 
-		final List<ServiceReferenceImpl<WeavingHook>> wHooks = new ArrayList<ServiceReferenceImpl<WeavingHook>>();
-		wHooks.addAll(weavingHooks);
+		final ArrayList<ServiceReferenceImpl<WeavingHook>> srefs;
+		final int generation;
+		synchronized (weavingHooks) {
+			srefs = new ArrayList<ServiceReferenceImpl<WeavingHook>>(
+					weavingHooks);
+			generation = weavingHooksGeneration;
+		}
 
-		for (final ServiceReferenceImpl<WeavingHook> sref : wHooks) {
+		// the services are acquired without holding the lock, service
+		// factories can run arbitrary code
+		final List<WeavingHookEntry> entries = new ArrayList<WeavingHookEntry>(
+				srefs.size());
+		final StringBuilder key = new StringBuilder();
+		for (final ServiceReferenceImpl<WeavingHook> sref : srefs) {
 			final WeavingHook hook = sref.getService(this);
-
-			try {
-				hook.weave(wovenClass);
-			} catch (final Throwable t) {
-				if (!(t instanceof WeavingException)) {
-					// blacklist the hook
-					weavingHooks.remove(sref);
+			if (hook == null) {
+				continue;
+			}
+			WeavingHookTimer timer = weavingHookTimers.get(sref);
+			if (timer == null) {
+				timer = new WeavingHookTimer();
+				final WeavingHookTimer existing = weavingHookTimers
+						.putIfAbsent(sref, timer);
+				if (existing != null) {
+					timer = existing;
 				}
+			}
+			entries.add(new WeavingHookEntry(sref, hook, timer));
+			appendWeavingHookKey(key, sref, hook);
+		}
+		final WeavingHookSnapshot snapshot = new WeavingHookSnapshot(
+				entries.toArray(new WeavingHookEntry[entries.size()]),
+				key.toString());
 
-				// framework event
-				notifyFrameworkListeners(FrameworkEvent.ERROR, sref.bundle, t);
+		synchronized (weavingHooks) {
+			// only publish the snapshot if the hooks have not changed in the
+			// meantime, otherwise it is used for this call only
+			if (generation == weavingHooksGeneration
+					&& weavingHookSnapshot == null) {
+				snapshot.retain();
+				weavingHookSnapshot = snapshot;
+			}
+		}
+		return snapshot;
+	}
 
-				// mark as complete
-				wovenClass.setComplete();
+	/**
+	 * append the identity and configuration of a weaving hook to the key of
+	 * the weaving hooks: the location and modification time of its bundle,
+	 * the class of the hook, and its service properties except for the
+	 * service id, which changes with every start.
+	 */
+	private static void appendWeavingHookKey(final StringBuilder key,
+			final ServiceReferenceImpl<WeavingHook> sref,
+			final WeavingHook hook) {
+		key.append(sref.bundle.getLocation()).append('@')
+				.append(sref.bundle.getLastModified()).append('/')
+				.append(hook.getClass().getName());
+		final TreeMap<String, Object> props;
+		synchronized (sref.properties) {
+			props = new TreeMap<String, Object>(sref.properties);
+		}
+		props.remove(Constants.SERVICE_ID);
+		for (final Map.Entry<String, Object> prop : props.entrySet()) {
+			final Object value = prop.getValue();
+			key.append(',').append(prop.getKey()).append('=')
+					.append(value instanceof Object[]
+							? Arrays.asList((Object[]) value) : value);
+		}
+		key.append(';');
+	}
 
-				final ClassFormatError err = new ClassFormatError(
-						"Error while invoking weaving hook");
-				err.initCause(t);
-				throw err;
-			} finally {
-				sref.ungetService(this);
+	/**
+	 * drop the current snapshot of the weaving hooks. The hook services it
+	 * holds are released once the callers that still use it are done.
+	 */
+	void invalidateWeavingHooks() {
+		final WeavingHookSnapshot snapshot;
+		synchronized (weavingHooks) {
+			weavingHooksGeneration++;
+			snapshot = weavingHookSnapshot;
+			weavingHookSnapshot = null;
+		}
+		if (snapshot != null) {
+			snapshot.release(this);
+		}
+	}
+
+	/**
+	 * get the key of the weaving hooks currently in place, used to tell if a
+	 * cached class was woven by the same hooks. The hooks are identified by
+	 * their bundles, classes and service properties, in the order in which
+	 * they are called.
+	 * 
+	 * @return the key, the empty string if there are no weaving hooks.
+	 */
+	String getWeavingHooksKey() {
+		if (weavingHooks.isEmpty()) {
+			return "";
+		}
+		final WeavingHookSnapshot snapshot = acquireWeavingHookSnapshot();
+		try {
+			return snapshot.key;
+		} finally {
+			snapshot.release(this);
+		}
+	}
+
+	void callWeavingHooks(final WovenClassImpl wovenClass) {
+		final WeavingHookSnapshot snapshot = acquireWeavingHookSnapshot();
+		try {
+			for (final WeavingHookEntry entry : snapshot.entries) {
+				final long start = STATISTICS ? System.nanoTime() : 0;
+				try {
+					entry.hook.weave(wovenClass);
+				} catch (final Throwable t) {
+					if (!(t instanceof WeavingException)) {
+						// blacklist the hook
+						synchronized (weavingHooks) {
+							weavingHooks.remove(entry.sref);
+						}
+						invalidateWeavingHooks();
+					}
+
+					// framework event
+					notifyFrameworkListeners(FrameworkEvent.ERROR,
+							entry.sref.bundle, t);
+
+					// mark as complete
+					wovenClass.setComplete();
+
+					final ClassFormatError err = new ClassFormatError(
+							"Error while invoking weaving hook");
+					err.initCause(t);
+					throw err;
+				} finally {
+					if (STATISTICS) {
+						entry.timer.record(System.nanoTime() - start);
+					}
+				}
 			}
+			wovenClass.setComplete();
+		} finally {
+			snapshot.release(this);
 		}
-		wovenClass.setComplete();
 	}
 
 	/**
@@ -20,10 +20,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public interface ConciergeCollections {
 
@@ -68,9 +70,10 @@ public interface ConciergeCollections {
 				list = new ArrayList<V>();
 				map.put(key, list);
 			}
-			list.add(value);
 			if (comp != null) {
-				Collections.sort(list, comp);
+				insertSorted(list, value);
+			} else {
+				list.add(value);
 			}
 			if (!dirty) {
 				allValues.add(value);
@@ -92,9 +95,10 @@ public interface ConciergeCollections {
 				map.put(key, list);
 			}
 			if (!list.contains(value)) {
-				list.add(value);
 				if (comp != null) {
-					Collections.sort(list, comp);
+					insertSorted(list, value);
+				} else {
+					list.add(value);
 				}
 				if (!dirty) {
 					allValues.add(value);
@@ -118,6 +122,20 @@ public interface ConciergeCollections {
 			}
 		}
 
+		private void insertSorted(final List<V> list, final V value) {
+			int pos = Collections.binarySearch(list, value, comp);
+			if (pos < 0) {
+				pos = -pos - 1;
+			} else {
+				// keep insertion order among equal elements
+				while (pos < list.size()
+						&& comp.compare(list.get(pos), value) == 0) {
+					pos++;
+				}
+			}
+			list.add(pos, value);
+		}
+
 		public void insertMap(final MultiMap<K, ? extends V> existing) {
 			for (final K key : existing.keySet()) {
 				final List<? extends V> vals = existing.get(key);
@@ -293,6 +311,448 @@ public interface ConciergeCollections {
 
 	}
 
+	/**
+	 * A multi map for data that is read much more often than it is modified.
+	 * Readers do not lock and get immutable snapshots of the value lists.
+	 * Writers are serialized and replace the affected lists by modified
+	 * copies.
+	 */
+	public static class SnapshotMultiMap<K, V> {
+
+		protected final ConcurrentHashMap<K, List<V>> map = new ConcurrentHashMap<K, List<V>>();
+
+		// incremented by the writers after each modification
+		private volatile int version;
+
+		// lazily created snapshot of all values and the version it reflects
+		private volatile Tuple<Integer, List<V>> allValues;
+
+		private final Comparator<? super V> comp;
+
+		public SnapshotMultiMap() {
+			this.comp = null;
+		}
+
+		public SnapshotMultiMap(final Comparator<? super V> comp) {
+			this.comp = comp;
+		}
+
+		/**
+		 * get the values of a key.
+		 * 
+		 * @return an immutable snapshot of the values or <code>null</code> if
+		 *         there are no values for the key.
+		 */
+		public List<V> get(final K key) {
+			return map.get(key);
+		}
+
+		public List<V> lookup(final K key) {
+			final List<V> result = map.get(key);
+			return result == null ? Collections.<V> emptyList() : result;
+		}
+
+		/**
+		 * get all values.
+		 * 
+		 * @return an immutable snapshot of all values.
+		 */
+		public List<V> getAllValues() {
+			final int current = version;
+			final Tuple<Integer, List<V>> snapshot = allValues;
+			if (snapshot != null
+					&& snapshot.getFormer().intValue() == current) {
+				return snapshot.getLatter();
+			}
+
+			// the snapshot is created from the current lists and published
+			// for the version that was read before, so a concurrent
+			// modification at worst causes another rebuild.
+			final LinkedHashSet<V> all = new LinkedHashSet<V>();
+			for (final List<V> list : map.values()) {
+				all.addAll(list);
+			}
+			final List<V> result = Collections
+					.unmodifiableList(new ArrayList<V>(all));
+			allValues = new Tuple<Integer, List<V>>(Integer.valueOf(current),
+					result);
+			return result;
+		}
+
+		public synchronized void insert(final K key, final V value) {
+			insert0(key, value);
+			version++;
+		}
+
+		public synchronized void insert(final K[] keys, final V value) {
+			for (int i = 0; i < keys.length; i++) {
+				insert0(keys[i], value);
+			}
+			version++;
+		}
+
+		/**
+		 * insert a batch of values, each under its own keys. Every affected
+		 * key is copied only once and the modification counts as a single
+		 * one.
+		 * 
+		 * @param keys
+		 *            the keys of each value.
+		 * @param values
+		 *            the values.
+		 */
+		public synchronized void insertAll(final List<K[]> keys,
+				final List<? extends V> values) {
+			final HashMap<K, ArrayList<V>> added = new HashMap<K, ArrayList<V>>();
+			for (int i = 0; i < values.size(); i++) {
+				final K[] valueKeys = keys.get(i);
+				for (int j = 0; j < valueKeys.length; j++) {
+					ArrayList<V> list = added.get(valueKeys[j]);
+					if (list == null) {
+						list = new ArrayList<V>();
+						added.put(valueKeys[j], list);
+					}
+					list.add(values.get(i));
+				}
+			}
+
+			for (final Map.Entry<K, ArrayList<V>> entry : added.entrySet()) {
+				final List<V> list = map.get(entry.getKey());
+				final ArrayList<V> newList;
+				if (list == null) {
+					newList = entry.getValue();
+				} else {
+					newList = new ArrayList<V>(
+							list.size() + entry.getValue().size());
+					newList.addAll(list);
+					newList.addAll(entry.getValue());
+				}
+				if (comp != null) {
+					// stable, so insertion order among equal elements is kept
+					Collections.sort(newList, comp);
+				}
+				map.put(entry.getKey(), Collections.unmodifiableList(newList));
+			}
+			version++;
+		}
+
+		public synchronized void insertMap(
+				final MultiMap<K, ? extends V> existing) {
+			for (final K key : existing.keySet()) {
+				for (final V value : existing.get(key)) {
+					insert0(key, value);
+				}
+			}
+			version++;
+		}
+
+		public synchronized void removeAll(final K[] keys, final V value) {
+			for (int i = 0; i < keys.length; i++) {
+				final List<V> list = map.get(keys[i]);
+				if (list != null) {
+					final List<V> newList = remove(list, value);
+					if (newList.isEmpty()) {
+						map.remove(keys[i]);
+					} else if (newList != list) {
+						map.put(keys[i], newList);
+					}
+				}
+			}
+			version++;
+		}
+
+		/**
+		 * restore the order of the values of a key after the sort criteria of
+		 * one of its values have changed.
+		 */
+		public synchronized void resort(final K key) {
+			final List<V> list = map.get(key);
+			if (list != null && comp != null) {
+				final ArrayList<V> newList = new ArrayList<V>(list);
+				Collections.sort(newList, comp);
+				map.put(key, Collections.unmodifiableList(newList));
+			}
+		}
+
+		public synchronized void clear() {
+			map.clear();
+			version++;
+		}
+
+		public Set<K> keySet() {
+			return Collections.unmodifiableSet(map.keySet());
+		}
+
+		private void insert0(final K key, final V value) {
+			final List<V> list = map.get(key);
+			final ArrayList<V> newList;
+			if (list == null) {
+				newList = new ArrayList<V>(1);
+			} else {
+				newList = new ArrayList<V>(list.size() + 1);
+				newList.addAll(list);
+			}
+
+			int pos = newList.size();
+			if (comp != null) {
+				pos = Collections.binarySearch(newList, value, comp);
+				if (pos < 0) {
+					pos = -pos - 1;
+				} else {
+					// keep insertion order among equal elements
+					while (pos < newList.size()
+							&& comp.compare(newList.get(pos), value) == 0) {
+						pos++;
+					}
+				}
+			}
+			newList.add(pos, value);
+			map.put(key, Collections.unmodifiableList(newList));
+		}
+
+		private static <V> List<V> remove(final List<V> list, final V value) {
+			final int pos = list.indexOf(value);
+			if (pos == -1) {
+				return list;
+			}
+			final ArrayList<V> newList = new ArrayList<V>(list);
+			newList.remove(pos);
+			return Collections.unmodifiableList(newList);
+		}
+
+		public String toString() {
+			return "SnapshotMultiMap " + map.toString();
+		}
+
+	}
+
+	/**
+	 * a size-bounded cache that evicts the least recently used entry. Keeps
+	 * track of hits and misses so that the bound can be tuned. The cache can
+	 * be split into segments with a lock of their own, so that concurrent
+	 * lookups of different keys do not contend. In this case, each segment
+	 * holds its share of the entries and evicts its least recently used one.
+	 * 
+	 * @param <K>
+	 *            the type of the keys.
+	 * @param <V>
+	 *            the type of the values.
+	 */
+	public static class LRUCache<K, V> {
+
+		private final Segment<K, V>[] segments;
+
+		public LRUCache(final int maxSize) {
+			this(maxSize, 1);
+		}
+
+		@SuppressWarnings("unchecked")
+		public LRUCache(final int maxSize, final int concurrency) {
+			final int n = Math.max(1, Math.min(concurrency, maxSize));
+			segments = new Segment[n];
+			for (int i = 0; i < n; i++) {
+				segments[i] = new Segment<K, V>((maxSize + n - 1) / n);
+			}
+		}
+
+		private Segment<K, V> segmentFor(final Object key) {
+			int h = key.hashCode();
+			h ^= (h >>> 20) ^ (h >>> 12);
+			h ^= (h >>> 7) ^ (h >>> 4);
+			return segments[(h & 0x7fffffff) % segments.length];
+		}
+
+		public V get(final K key) {
+			return segmentFor(key).get(key);
+		}
+
+		public void put(final K key, final V value) {
+			segmentFor(key).put(key, value);
+		}
+
+		public int size() {
+			int size = 0;
+			for (final Segment<K, V> segment : segments) {
+				size += segment.size();
+			}
+			return size;
+		}
+
+		public long getHits() {
+			long hits = 0;
+			for (final Segment<K, V> segment : segments) {
+				hits += segment.getHits();
+			}
+			return hits;
+		}
+
+		public long getMisses() {
+			long misses = 0;
+			for (final Segment<K, V> segment : segments) {
+				misses += segment.getMisses();
+			}
+			return misses;
+		}
+
+		public void clear() {
+			for (final Segment<K, V> segment : segments) {
+				segment.clear();
+			}
+		}
+
+		public String toString() {
+			return "LRUCache{size=" + size() + ", hits=" + getHits()
+					+ ", misses=" + getMisses() + "}";
+		}
+
+		private static final class Segment<K, V> {
+
+			private final LinkedHashMap<K, V> map;
+
+			private long hits;
+
+			private long misses;
+
+			Segment(final int maxSize) {
+				this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(
+							final Map.Entry<K, V> eldest) {
+						return size() > maxSize;
+					}
+				};
+			}
+
+			synchronized V get(final K key) {
+				final V value = map.get(key);
+				if (value == null) {
+					misses++;
+				} else {
+					hits++;
+				}
+				return value;
+			}
+
+			synchronized void put(final K key, final V value) {
+				map.put(key, value);
+			}
+
+			synchronized int size() {
+				return map.size();
+			}
+
+			synchronized long getHits() {
+				return hits;
+			}
+
+			synchronized long getMisses() {
+				return misses;
+			}
+
+			synchronized void clear() {
+				map.clear();
+				hits = 0;
+				misses = 0;
+			}
+
+		}
+
+	}
+
+	/**
+	 * a character trie of string prefixes. Tells in time linear in the length
+	 * of a string, and independent of the number of prefixes, if the string
+	 * starts with one of the prefixes. Not thread-safe while prefixes are
+	 * added, safe to query concurrently afterwards.
+	 */
+	public static class PrefixTrie {
+
+		private final Node root = new Node();
+
+		private int size;
+
+		/**
+		 * add a prefix.
+		 * 
+		 * @param prefix
+		 *            the prefix, the empty string matches every string.
+		 */
+		public void add(final String prefix) {
+			Node node = root;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.child(prefix.charAt(i), true);
+			}
+			if (!node.terminal) {
+				node.terminal = true;
+				size++;
+			}
+		}
+
+		/**
+		 * check if a string starts with one of the prefixes.
+		 * 
+		 * @param str
+		 *            the string.
+		 * @return true if one of the prefixes matches.
+		 */
+		public boolean matchesPrefixOf(final String str) {
+			Node node = root;
+			for (int i = 0; !node.terminal; i++) {
+				if (i == str.length()) {
+					return false;
+				}
+				node = node.child(str.charAt(i), false);
+				if (node == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		private static final class Node {
+
+			private static final char[] NO_KEYS = new char[0];
+
+			private static final Node[] NO_CHILDREN = new Node[0];
+
+			private char[] keys = NO_KEYS;
+
+			private Node[] children = NO_CHILDREN;
+
+			boolean terminal;
+
+			Node child(final char c, final boolean create) {
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] == c) {
+						return children[i];
+					}
+				}
+				if (!create) {
+					return null;
+				}
+				final int n = keys.length;
+				final char[] newKeys = new char[n + 1];
+				final Node[] newChildren = new Node[n + 1];
+				System.arraycopy(keys, 0, newKeys, 0, n);
+				System.arraycopy(children, 0, newChildren, 0, n);
+				newKeys[n] = c;
+				newChildren[n] = new Node();
+				keys = newKeys;
+				children = newChildren;
+				return newChildren[n];
+			}
+
+		}
+
+	}
+
 	public static class Tuple<T1, T2> {
 
 		private final T1 former;
@@ -34,9 +34,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
+import org.eclipse.concierge.ConciergeCollections.LRUCache;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 
@@ -140,8 +144,24 @@ public final class RFC1960Filter implements Filter {
 		this.operator = operator;
 	}
 
-	private static java.util.WeakHashMap<String, Filter> filterCache = new java.util.WeakHashMap<String, Filter>();
-	
+	/**
+	 * the maximum number of parsed filters kept in the cache.
+	 */
+	private static final int FILTER_CACHE_SIZE = Integer.getInteger(
+			"org.eclipse.concierge.filter.cache.size", 512).intValue();
+
+	/**
+	 * the number of independently locked segments of the cache.
+	 */
+	private static final int FILTER_CACHE_SEGMENTS = 16;
+
+	/**
+	 * cache of parsed filters, keyed by the trimmed filter string. Filter
+	 * trees are never modified after parsing and can therefore be shared.
+	 */
+	static final LRUCache<String, Filter> filterCache = new LRUCache<String, Filter>(
+			FILTER_CACHE_SIZE, FILTER_CACHE_SEGMENTS);
+
 	/**
 	 * get a filter instance from filter string.
 	 * 
@@ -156,12 +176,12 @@ public final class RFC1960Filter implements Filter {
 		if (str == null) {
 			return NULL_FILTER;
 		}
-		final Filter cached = filterCache.get(str);
+		final String filterString = str.trim();
+		final Filter cached = filterCache.get(filterString);
 		if (cached != null) {
 			return cached;
 		}
-		
-		final String filterString = str.trim();
+
 		if (filterString.length() == 1) {
 			throw new InvalidSyntaxException("Malformed filter", filterString);
 		}
@@ -238,7 +258,7 @@ public final class RFC1960Filter implements Filter {
 						final RFC1960Filter filter = (RFC1960Filter) stack
 								.pop();
 						if (stack.isEmpty()) {
-							filterCache.put(str, filter);
+							filterCache.put(filterString, filter);
 							return filter;
 						}
 						final RFC1960Filter parent = (RFC1960Filter) stack
@@ -277,7 +297,7 @@ public final class RFC1960Filter implements Filter {
 								final Filter filter = 
 								 new RFC1960SimpleFilter(id, comparator,
 										value);
-								filterCache.put(str, filter);
+								filterCache.put(filterString, filter);
 								return filter;
 							} else {
 								throw new InvalidSyntaxException(
@@ -366,7 +386,7 @@ public final class RFC1960Filter implements Filter {
 			}
 
 			final Filter filter = stack.pop();
-			filterCache.put(str, filter);
+			filterCache.put(filterString, filter);
 			return filter;
 		} catch (final EmptyStackException e) {
 			throw new InvalidSyntaxException(
@@ -640,6 +660,12 @@ public final class RFC1960Filter implements Filter {
 	 */
 	final private static class RFC1960SimpleFilter implements Filter {
 
+		/**
+		 * marker for filter values that cannot be converted to the type of an
+		 * attribute.
+		 */
+		private static final Object NOT_CONVERTIBLE = new Object();
+
 		/**
 		 * the id.
 		 */
@@ -655,6 +681,12 @@ public final class RFC1960Filter implements Filter {
 		 */
 		protected final String value;
 
+		/**
+		 * the value converted to the type of the attribute it was last
+		 * compared with.
+		 */
+		private volatile TypedValue typedValue;
+
 		/**
 		 * create a new filter.
 		 * 
@@ -772,8 +804,7 @@ public final class RFC1960Filter implements Filter {
 				} else if (attr instanceof Number) {
 					// all the numbers checkings run a lot faster when compared
 					// in a primitive typed way
-					return compareNumber(value.trim(), comparator,
-							(Number) attr);
+					return compareNumber((Number) attr);
 				} else if (attr instanceof String[]) {
 					final String[] array = (String[]) attr;
 					if (array.length == 0) {
@@ -792,40 +823,119 @@ public final class RFC1960Filter implements Filter {
 							&& ((Boolean) attr)
 									.equals(Boolean.valueOf(value.trim()));
 				} else if (attr instanceof Character) {
-					final String trimmed = value.trim();
-					return trimmed.length() == 1
-							? compareTyped(new Character(trimmed.charAt(0)),
-									comparator, (Character) attr)
-							: trimmed.length() == 0 && Character.isWhitespace(
-									((Character) attr).charValue());
+					return compareCharacter((Character) attr);
 				} else if (attr instanceof Collection) {
 					final Collection<?> col = (Collection<?>) attr;
 					final Object[] obj = col.toArray();
-					return compareArray(value, comparator, obj);
+					return compareArray(obj);
 				} else if (attr instanceof Object[]) {
-					return compareArray(value, comparator, (Object[]) attr);
+					return compareArray((Object[]) attr);
 				} else if (attr.getClass().isArray()) {
 					for (int i = 0; i < Array.getLength(attr); i++) {
 						final Object obj = Array.get(attr, i);
-						if (obj instanceof Number
-								&& compareNumber(value.trim(), comparator,
-										(Number) obj)
-								|| obj instanceof Character && compareTyped(
-										new Character(value.trim().charAt(0)),
-										comparator, (Character) obj)
-								|| compareReflective(value, comparator, obj)) {
+						if (obj instanceof Number && compareNumber((Number) obj)
+								|| obj instanceof Character
+										&& compareCharacter((Character) obj)
+								|| compareReflective(obj)) {
 							return true;
 						}
 					}
 					return false;
 				} else {
-					return compareReflective(value, comparator, attr);
+					return compareReflective(attr);
 				}
 			} catch (final Throwable t) {
 				return false;
 			}
 		}
 
+		/**
+		 * get the filter value converted to the type of an attribute. The
+		 * conversion is cached since a filter is usually matched against
+		 * attributes of the same type over and over again.
+		 * 
+		 * @param type
+		 *            the type of the attribute.
+		 * @return the typed value or <code>NOT_CONVERTIBLE</code> if the value
+		 *         cannot be converted.
+		 */
+		private Object getTypedValue(final Class<?> type) {
+			final TypedValue cached = typedValue;
+			if (cached != null && cached.type == type) {
+				return cached.value;
+			}
+			final Object converted = convert(type);
+			typedValue = new TypedValue(type, converted);
+			return converted;
+		}
+
+		/**
+		 * convert the filter value to a type.
+		 * 
+		 * @param type
+		 *            the type.
+		 * @return the typed value or <code>NOT_CONVERTIBLE</code> if the value
+		 *         cannot be converted.
+		 */
+		private Object convert(final Class<?> type) {
+			try {
+				if (type == Integer.class) {
+					return Integer.valueOf(value.trim());
+				} else if (type == Long.class) {
+					return Long.valueOf(value.trim());
+				} else if (type == Byte.class) {
+					return Byte.valueOf(value.trim());
+				} else if (type == Short.class) {
+					return Short.valueOf(value.trim());
+				} else if (type == Double.class) {
+					return Double.valueOf(value.trim());
+				} else if (type == Float.class) {
+					return Float.valueOf(value.trim());
+				} else if (type == Character.class) {
+					final String trimmed = value.trim();
+					return trimmed.length() == 1
+							? Character.valueOf(trimmed.charAt(0))
+							: NOT_CONVERTIBLE;
+				}
+			} catch (final NumberFormatException nfe) {
+				return NOT_CONVERTIBLE;
+			}
+
+			// all other are less frequent and are handled as
+			// Comparables or objects.
+			final String val = Number.class.isAssignableFrom(type)
+					? value.trim() : value;
+
+			// check if there is a valueOf...
+			try {
+				final Method m = type.getDeclaredMethod("valueOf",
+						String.class);
+				if (Modifier.isStatic(m.getModifiers())
+						&& type.isAssignableFrom(m.getReturnType())) {
+					if (!((AccessibleObject) m).isAccessible()) {
+						m.setAccessible(true);
+					}
+					final Object typedVal = m.invoke(null, val);
+					if (typedVal != null) {
+						return typedVal;
+					}
+				}
+			} catch (final Exception e) {
+				// ignore and move on
+			}
+
+			try {
+				// check for constructor...
+				final Constructor<?> constr = type.getConstructor(String.class);
+				if (!((AccessibleObject) constr).isAccessible()) {
+					constr.setAccessible(true);
+				}
+				return constr.newInstance(new Object[] { val });
+			} catch (final Exception didNotWork) {
+				return NOT_CONVERTIBLE;
+			}
+		}
+
 		/**
 		 * compare a string.
 		 * 
@@ -863,19 +973,23 @@ public final class RFC1960Filter implements Filter {
 		/**
 		 * compare numbers.
 		 * 
-		 * @param value
-		 *            the filter value.
-		 * @param comparator
-		 *            the comparator.
 		 * @param attr
 		 *            the number.
 		 * @return true, iff matches.
 		 */
-		private static boolean compareNumber(final String value,
-				final int comparator, final Number attr) {
+		private boolean compareNumber(final Number attr) {
+			if (comparator == SUBSTRING) {
+				return false;
+			}
+
+			final Object typed = getTypedValue(attr.getClass());
+			if (typed == NOT_CONVERTIBLE) {
+				return false;
+			}
+
 			if (attr instanceof Integer) {
 				final int intAttr = ((Integer) attr).intValue();
-				final int intValue = Integer.parseInt(value);
+				final int intValue = ((Integer) typed).intValue();
 				switch (comparator) {
 				case GREATER:
 					return intAttr >= intValue;
@@ -886,7 +1000,7 @@ public final class RFC1960Filter implements Filter {
 				}
 			} else if (attr instanceof Long) {
 				final long longAttr = ((Long) attr).longValue();
-				final long longValue = Long.parseLong(value);
+				final long longValue = ((Long) typed).longValue();
 				switch (comparator) {
 				case GREATER:
 					return longAttr >= longValue;
@@ -897,37 +1011,29 @@ public final class RFC1960Filter implements Filter {
 				}
 			} else if (attr instanceof Byte) {
 				final byte byteAttr = ((Byte) attr).byteValue();
-				// parse the byte manually since the default implementation does not cache
-				int intVal = Integer.parseInt(value);
-		        if (intVal < Byte.MIN_VALUE || intVal > Byte.MAX_VALUE)
-		            throw new NumberFormatException(
-		                "Value out of range. Value:\"" + value);
+				final byte byteValue = ((Byte) typed).byteValue();
 				switch (comparator) {
 				case GREATER:
-					return byteAttr >= (byte) intVal;
+					return byteAttr >= byteValue;
 				case LESS:
-					return byteAttr <= (byte) intVal;
+					return byteAttr <= byteValue;
 				default:
-					return byteAttr == (byte) intVal;
+					return byteAttr == byteValue;
 				}
 			} else if (attr instanceof Short) {
 				final short shortAttr = ((Short) attr).shortValue();
-				// parse the short manually since the default implementation does not cache
-				int intVal = Integer.parseInt(value);
-		        if (intVal < Short.MIN_VALUE || intVal > Short.MAX_VALUE)
-		            throw new NumberFormatException(
-		                "Value out of range. Value:\"" + value);
+				final short shortValue = ((Short) typed).shortValue();
 				switch (comparator) {
 				case GREATER:
-					return shortAttr >= (short) intVal;
+					return shortAttr >= shortValue;
 				case LESS:
-					return shortAttr <= (short) intVal;
+					return shortAttr <= shortValue;
 				default:
-					return shortAttr == (short) intVal;
+					return shortAttr == shortValue;
 				}
 			} else if (attr instanceof Double) {
 				final double doubleAttr = ((Double) attr).doubleValue();
-				final double doubleValue = Double.parseDouble(value);
+				final double doubleValue = ((Double) typed).doubleValue();
 				switch (comparator) {
 				case GREATER:
 					return doubleAttr >= doubleValue;
@@ -938,7 +1044,7 @@ public final class RFC1960Filter implements Filter {
 				}
 			} else if (attr instanceof Float) {
 				final float floatAttr = ((Float) attr).floatValue();
-				final float floatValue = Float.parseFloat(value);
+				final float floatValue = ((Float) typed).floatValue();
 				switch (comparator) {
 				case GREATER:
 					return floatAttr >= floatValue;
@@ -948,9 +1054,23 @@ public final class RFC1960Filter implements Filter {
 					return floatAttr == floatValue;
 				}
 			}
-			// all other are less frequent and are handled as
-			// Comparables or objects.
-			return compareReflective(value, comparator, attr);
+			return compareReflective(attr);
+		}
+
+		/**
+		 * compare characters.
+		 * 
+		 * @param attr
+		 *            the character.
+		 * @return true, iff matches.
+		 */
+		private boolean compareCharacter(final Character attr) {
+			final Object typed = getTypedValue(Character.class);
+			if (typed == NOT_CONVERTIBLE) {
+				return value.trim().length() == 0
+						&& Character.isWhitespace(attr.charValue());
+			}
+			return compareTyped(typed, comparator, attr);
 		}
 
 		/**
@@ -989,16 +1109,11 @@ public final class RFC1960Filter implements Filter {
 		/**
 		 * compare arrays.
 		 * 
-		 * @param value
-		 *            the filter value.
-		 * @param comparator
-		 *            the comparator.
 		 * @param array
 		 *            the array.
 		 * @return true, iff matches.
 		 */
-		private static boolean compareArray(final String value,
-				final int comparator, final Object[] array) {
+		private boolean compareArray(final Object[] array) {
 			for (int i = 0; i < array.length; i++) {
 				final Object obj = array[i];
 				if (obj instanceof String) {
@@ -1007,11 +1122,11 @@ public final class RFC1960Filter implements Filter {
 						return true;
 					}
 				} else if (obj instanceof Number) {
-					if (compareNumber(value.trim(), comparator, (Number) obj)) {
+					if (compareNumber((Number) obj)) {
 						return true;
 					}
 				} else {
-					if (compareReflective(value, comparator, obj)) {
+					if (compareReflective(obj)) {
 						return true;
 					}
 				}
@@ -1020,52 +1135,25 @@ public final class RFC1960Filter implements Filter {
 		}
 
 		/**
-		 * compare in a generic way by using reflection to create a
-		 * corresponding object from the filter values string and compare this
-		 * object with the attribute.
+		 * compare in a generic way by converting the filter value to the type
+		 * of the attribute, through a static valueOf method or a constructor
+		 * taking a string, and comparing the result with the attribute.
 		 * 
-		 * @param val
-		 *            the filter value.
-		 * @param comparator
-		 *            the comparator.
 		 * @param attr
 		 *            the attribute.
 		 * @return true, iff matches.
 		 */
-		private static boolean compareReflective(final String val,
-				final int comparator, final Object attr) {
+		private boolean compareReflective(final Object attr) {
 			if (comparator == SUBSTRING) {
 				return false;
 			}
 
-			Object typedVal = null;
-
-			// check if there is a valueOf...
-			try {
-				final Method m = attr.getClass().getDeclaredMethod("valueOf",
-						String.class);
-				if (Modifier.isStatic(m.getModifiers()) && attr.getClass()
-						.isAssignableFrom(m.getReturnType())) {
-					if (!((AccessibleObject) m).isAccessible()) {
-						m.setAccessible(true);
-					}
-					typedVal = m.invoke(null, val);
-				}
-			} catch (final Exception e) {
-				// ignore and move on
+			final Object typedVal = getTypedValue(attr.getClass());
+			if (typedVal == NOT_CONVERTIBLE) {
+				return false;
 			}
 
 			try {
-				if (typedVal == null) {
-					// check for constructor...
-					final Constructor<?> constr = attr.getClass()
-							.getConstructor(String.class);
-					if (!((AccessibleObject) constr).isAccessible()) {
-						constr.setAccessible(true);
-					}
-					typedVal = constr.newInstance(new Object[] { val });
-				}
-
 				return (attr instanceof Comparable) ? compareTyped(typedVal,
 						comparator, (Comparable<?>) attr)
 						: typedVal.equals(attr);
@@ -1074,6 +1162,21 @@ public final class RFC1960Filter implements Filter {
 			}
 		}
 
+		/**
+		 * a filter value converted to a type.
+		 */
+		private static final class TypedValue {
+
+			final Class<?> type;
+
+			final Object value;
+
+			TypedValue(final Class<?> type, final Object value) {
+				this.type = type;
+				this.value = value;
+			}
+		}
+
 		/**
 		 * strip whitespaces from a string.
 		 * 
@@ -1166,13 +1269,24 @@ public final class RFC1960Filter implements Filter {
 			}
 			return capabilityIndex.getByValue(namespace,
 					values.iterator().next());
-		} else if (prefilterResult == NECESSARY) {
+		}
+
+		final boolean packageNamespace = PackageNamespace.PACKAGE_NAMESPACE
+				.equals(namespace);
+		boolean indexed = false;
+		if (prefilterResult == NECESSARY) {
 			// FIXME: check
 			if (values.size() != 1) {
 				candidates = capabilityIndex.getAll(namespace);
 			} else {
-				candidates = capabilityIndex.getByKey(namespace,
-						values.iterator().next());
+				final VersionRange range = packageNamespace
+						? getVersionRange(filter) : null;
+				candidates = range == null
+						? capabilityIndex.getByKey(namespace,
+								values.iterator().next())
+						: capabilityIndex.getByVersionRange(
+								values.iterator().next(), range);
+				indexed = true;
 			}
 		} else {
 			candidates = capabilityIndex.getAll(namespace);
@@ -1191,9 +1305,91 @@ public final class RFC1960Filter implements Filter {
 			}
 		}
 
+		if (packageNamespace && !indexed) {
+			Collections.sort(matches,
+					Concierge.CapabilityRegistry.VERSION_ORDER);
+		}
+
 		return matches;
 	}
 
+	/**
+	 * get the range of the version attribute that is required by the top
+	 * level clauses of a filter, e.g., the filter of a package import.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @return the version range or <code>null</code> if the filter does not
+	 *         restrict the version attribute.
+	 */
+	static VersionRange getVersionRange(final Filter filter) {
+		if (!(filter instanceof RFC1960Filter)
+				|| ((RFC1960Filter) filter).operator != AND_OPERATOR) {
+			return null;
+		}
+
+		Version left = null;
+		boolean leftOpen = false;
+		Version right = null;
+		boolean rightOpen = false;
+
+		for (final Filter operand : ((RFC1960Filter) filter).operands) {
+			boolean negated = false;
+			Filter term = operand;
+			if (term instanceof RFC1960Filter) {
+				final RFC1960Filter f = (RFC1960Filter) term;
+				if (f.operator != NOT_OPERATOR) {
+					continue;
+				}
+				negated = true;
+				term = f.operands.get(0);
+			}
+			if (!(term instanceof RFC1960SimpleFilter)) {
+				continue;
+			}
+			final RFC1960SimpleFilter simple = (RFC1960SimpleFilter) term;
+			if (!PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE
+					.equalsIgnoreCase(simple.id)
+					|| simple.comparator != GREATER
+							&& simple.comparator != LESS) {
+				continue;
+			}
+
+			final Version version;
+			try {
+				version = Version.parseVersion(simple.value);
+			} catch (final IllegalArgumentException iae) {
+				continue;
+			}
+
+			// (!(version>=x)) is an open upper bound, (!(version<=x)) an
+			// open lower bound
+			if (simple.comparator == GREATER ^ negated) {
+				final int score = left == null ? 1 : version.compareTo(left);
+				if (score > 0 || score == 0 && negated) {
+					left = version;
+					leftOpen = negated;
+				}
+			} else {
+				final int score = right == null ? -1
+						: version.compareTo(right);
+				if (score < 0 || score == 0 && negated) {
+					right = version;
+					rightOpen = negated;
+				}
+			}
+		}
+
+		if (left == null && right == null) {
+			return null;
+		}
+		return new VersionRange(
+				leftOpen ? VersionRange.LEFT_OPEN : VersionRange.LEFT_CLOSED,
+				left == null ? Version.emptyVersion : left, right,
+				rightOpen ? VersionRange.RIGHT_OPEN
+						: VersionRange.RIGHT_CLOSED);
+	}
+
 	private static int prefilter(final String namespace, final Filter filter,
 			final Concierge.CapabilityRegistry capabilities, final int state,
 			final boolean inNegation, final Set<String> values) {
@@ -1245,4 +1441,104 @@ public final class RFC1960Filter implements Filter {
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * use the equality terms at the top level of a filter to preselect
+	 * candidate service references from the property index. Only the most
+	 * selective term is used, the candidates still have to be matched against
+	 * the full filter.
+	 *
+	 * @param filter
+	 *            the filter.
+	 * @param index
+	 *            the service property index.
+	 * @return the candidates or <code>null</code> if the filter does not
+	 *         contain any indexable term.
+	 */
+	static List<ServiceReference<?>> filterWithIndex(final Filter filter,
+			final Concierge.ServicePropertyIndex index) {
+		RFC1960SimpleFilter best = null;
+		int bestCount = Integer.MAX_VALUE;
+
+		if (filter instanceof RFC1960SimpleFilter) {
+			final RFC1960SimpleFilter f = (RFC1960SimpleFilter) filter;
+			if (isIndexable(f, index)) {
+				best = f;
+			}
+		} else if (filter instanceof RFC1960Filter
+				&& ((RFC1960Filter) filter).operator == AND_OPERATOR) {
+			for (final Filter next : ((RFC1960Filter) filter).operands) {
+				if (next instanceof RFC1960SimpleFilter
+						&& isIndexable((RFC1960SimpleFilter) next, index)) {
+					final RFC1960SimpleFilter f = (RFC1960SimpleFilter) next;
+					final int count = index.count(f.id, f.value);
+					if (count < bestCount) {
+						best = f;
+						bestCount = count;
+					}
+				}
+			}
+		}
+
+		return best == null ? null : index.getCandidates(best.id, best.value);
+	}
+
+	/**
+	 * get the values that an attribute must be equal to in order for the
+	 * filter to match. Used to bucket service listeners by the object classes
+	 * they are interested in.
+	 *
+	 * @param filter
+	 *            the filter.
+	 * @param key
+	 *            the attribute key.
+	 * @return the set of values of which at least one has to be present or
+	 *         <code>null</code> if the filter does not restrict the attribute
+	 *         to a set of literal values.
+	 */
+	static Set<String> getRequiredValues(final Filter filter,
+			final String key) {
+		if (filter instanceof RFC1960SimpleFilter) {
+			final RFC1960SimpleFilter f = (RFC1960SimpleFilter) filter;
+			if (f.comparator == EQUALS && f.id.equalsIgnoreCase(key)
+					&& f.value.length() > 0 && f.value.indexOf('*') == -1
+					&& f.value.indexOf('\\') == -1) {
+				return Collections.singleton(f.value);
+			}
+			return null;
+		} else if (filter instanceof RFC1960Filter) {
+			final RFC1960Filter f = (RFC1960Filter) filter;
+			if (f.operator == AND_OPERATOR) {
+				// one restricting term is sufficient
+				for (final Filter next : f.operands) {
+					final Set<String> values = getRequiredValues(next, key);
+					if (values != null) {
+						return values;
+					}
+				}
+			} else if (f.operator == OR_OPERATOR) {
+				// every alternative has to be restricting
+				final Set<String> result = new HashSet<String>();
+				for (final Filter next : f.operands) {
+					final Set<String> values = getRequiredValues(next, key);
+					if (values == null) {
+						return null;
+					}
+					result.addAll(values);
+				}
+				return result.isEmpty() ? null : result;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isIndexable(final RFC1960SimpleFilter filter,
+			final Concierge.ServicePropertyIndex index) {
+		// wildcards and escapes are interpreted by stringCompare and therefore
+		// cannot be looked up literally
+		return filter.comparator == EQUALS && index.isIndexed(filter.id)
+				&& filter.value.length() > 0
+				&& filter.value.indexOf('*') == -1
+				&& filter.value.indexOf('\\') == -1;
+	}
+
+}
@@ -19,10 +19,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.concierge.BundleImpl.Revision;
 import org.eclipse.concierge.ConciergeCollections.MultiMap;
@@ -588,9 +588,9 @@ public class Resources {
 			}
 		}
 
-		HashMap<String, BundleWire> getPackageImportWires() {
+		ConcurrentHashMap<String, BundleWire> getPackageImportWires() {
 			final List<BundleWire> list = getRequiredWires(PackageNamespace.PACKAGE_NAMESPACE);
-			final HashMap<String, BundleWire> result = new HashMap<String, BundleWire>();
+			final ConcurrentHashMap<String, BundleWire> result = new ConcurrentHashMap<String, BundleWire>();
 
 			if (list != null) {
 				for (final BundleWire wire : list) {
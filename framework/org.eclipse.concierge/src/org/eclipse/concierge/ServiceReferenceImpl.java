@@ -13,11 +13,14 @@
  *******************************************************************************/
 package org.eclipse.concierge;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -55,12 +58,8 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 	/**
 	 * the bundles that are using the service.
 	 */
-	final Map<Bundle, Integer> useCounters = new HashMap<Bundle, Integer>(0);
-
-	/**
-	 * cached service objects if the registered service is a service factory.
-	 */
-	private HashMap<Bundle, S> cachedServices = null;
+	final ConcurrentHashMap<Bundle, UseCounter<S>> useCounters = new ConcurrentHashMap<Bundle, UseCounter<S>>(
+			2, 0.75f, 1);
 
 	/**
 	 * the registration.
@@ -156,9 +155,6 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 		useCounters.clear();
 		bundle = null;
 		registration = null;
-		if (cachedServices != null) {
-			cachedServices = null;
-		}
 	}
 
 	/**
@@ -223,16 +219,29 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 	 * @category ServiceReference
 	 */
 	public Bundle[] getUsingBundles() {
-		synchronized (useCounters) {
-			if (useCounters.isEmpty()) {
-				return null;
+		final ArrayList<Bundle> result = new ArrayList<Bundle>(
+				useCounters.size());
+		for (final Map.Entry<Bundle, UseCounter<S>> entry : useCounters
+				.entrySet()) {
+			if (entry.getValue().get() > 0) {
+				result.add(entry.getKey());
 			}
-			return useCounters.keySet().toArray(new Bundle[useCounters.size()]);
 		}
+		return result.isEmpty() ? null
+				: result.toArray(new Bundle[result.size()]);
 	}
 
-	// FIXME: concurrency???
-	private boolean marker = false;
+	/**
+	 * check if a bundle is using the service.
+	 * 
+	 * @param theBundle
+	 *            the bundle.
+	 * @return true if the use count of the bundle is positive.
+	 */
+	boolean isUsedBy(final Bundle theBundle) {
+		final UseCounter<S> counter = useCounters.get(theBundle);
+		return counter != null && counter.get() > 0;
+	}
 
 	/**
 	 * get the service object. If the service is a service factory, a cached
@@ -243,78 +252,103 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 	 * @return the service object.
 	 */
 	S getService(final Bundle theBundle) {
-		if (service == null || marker) {
+		final S theService = service;
+		if (theService == null) {
 			return null;
 		}
 
-		synchronized (useCounters) {
-			if (isServiceFactory) {
-				if (cachedServices == null) {
-					cachedServices = new HashMap<Bundle, S>(1);
-				}
-				final S cachedService = cachedServices.get(theBundle);
-				if (cachedService != null) {
-					incrementCounter(theBundle);
-					return cachedService;
-				}
-				@SuppressWarnings("unchecked")
-				final ServiceFactory<S> factory = (ServiceFactory<S>) service;
-				final S factoredService;
-				try {
-					incrementCounter(theBundle);
-					marker = true;
-					factoredService = factory.getService(theBundle,
-							registration);
-					marker = false;
-					checkService(factoredService,
-							(String[]) properties.get(Constants.OBJECTCLASS));
-					// catch failed check and exceptions thrown in factory
-				} catch (final IllegalArgumentException iae) {
-					decrementCounter(theBundle);
-					framework.notifyFrameworkListeners(FrameworkEvent.ERROR,
-							bundle, new ServiceException(
-									"Invalid service object",
-									ServiceException.FACTORY_ERROR));
-					return null;
-				} catch (final Throwable t) {
-					decrementCounter(theBundle);
-					framework.notifyFrameworkListeners(FrameworkEvent.ERROR,
-							bundle, new ServiceException(
-									"Exception while factoring the service",
-									ServiceException.FACTORY_EXCEPTION, t));
-					return null;
-				}
-				cachedServices.put(theBundle, factoredService);
+		final UseCounter<S> counter = incrementCounter(theBundle);
 
-				return factoredService;
+		if (!isServiceFactory) {
+			return theService;
+		}
+
+		// the counter is held by the bundle as long as its use count is
+		// positive, so it serializes the factory calls for that bundle
+		synchronized (counter) {
+			if (counter.service != null) {
+				return counter.service;
+			}
 
+			if (counter.factoring) {
+				// the factory asked for its own service on the same thread
+				decrementCounter(theBundle, counter);
+				framework.notifyFrameworkListeners(FrameworkEvent.ERROR,
+						bundle, new ServiceException(
+								"Recursive call to the service factory",
+								ServiceException.FACTORY_RECURSION));
+				return null;
 			}
 
-			incrementCounter(theBundle);
+			@SuppressWarnings("unchecked")
+			final ServiceFactory<S> factory = (ServiceFactory<S>) theService;
+			final S factoredService;
+			counter.factoring = true;
+			try {
+				factoredService = factory.getService(theBundle,
+						registration);
+				checkService(factoredService,
+						(String[]) properties.get(Constants.OBJECTCLASS));
+				// catch failed check and exceptions thrown in factory
+			} catch (final IllegalArgumentException iae) {
+				decrementCounter(theBundle, counter);
+				framework.notifyFrameworkListeners(FrameworkEvent.ERROR,
+						bundle, new ServiceException("Invalid service object",
+								ServiceException.FACTORY_ERROR));
+				return null;
+			} catch (final Throwable t) {
+				decrementCounter(theBundle, counter);
+				framework.notifyFrameworkListeners(FrameworkEvent.ERROR,
+						bundle, new ServiceException(
+								"Exception while factoring the service",
+								ServiceException.FACTORY_EXCEPTION, t));
+				return null;
+			} finally {
+				counter.factoring = false;
+			}
+			counter.service = factoredService;
 
-			return service;
+			return factoredService;
 		}
 	}
 
-	private void incrementCounter(final Bundle theBundle) {
-		Integer counter = useCounters.get(theBundle);
-		if (counter == null) {
-			counter = new Integer(1);
-		} else {
-			counter = new Integer(counter.intValue() + 1);
+	/**
+	 * increment the use count of a bundle.
+	 * 
+	 * @param theBundle
+	 *            the bundle.
+	 * @return the counter of the bundle.
+	 */
+	private UseCounter<S> incrementCounter(final Bundle theBundle) {
+		while (true) {
+			final UseCounter<S> counter = useCounters.get(theBundle);
+			if (counter == null) {
+				final UseCounter<S> newCounter = new UseCounter<S>();
+				if (useCounters.putIfAbsent(theBundle, newCounter) == null) {
+					return newCounter;
+				}
+			} else if (counter.increment()) {
+				return counter;
+			} else {
+				// the counter has just dropped to zero, help removing it
+				useCounters.remove(theBundle, counter);
+			}
 		}
-		useCounters.put(theBundle, counter);
 	}
 
-	private void decrementCounter(final Bundle theBundle) {
-		Integer counter = useCounters.get(theBundle);
-		final int newValue = counter.intValue() - 1;
-		if (newValue == 0) {
-			counter = null;
-		} else {
-			counter = new Integer(newValue);
+	/**
+	 * decrement the use count of a bundle.
+	 * 
+	 * @param theBundle
+	 *            the bundle.
+	 * @param counter
+	 *            the counter of the bundle.
+	 */
+	private void decrementCounter(final Bundle theBundle,
+			final UseCounter<S> counter) {
+		if (counter.decrement() == 0) {
+			useCounters.remove(theBundle, counter);
 		}
-		useCounters.put(theBundle, counter);
 	}
 
 	/**
@@ -328,32 +362,99 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 	 */
 	@SuppressWarnings("unchecked")
 	boolean ungetService(final Bundle theBundle) {
-		synchronized (useCounters) {
-			if (service == null) {
-				return false;
+		final S theService = service;
+		if (theService == null) {
+			return false;
+		}
+
+		final UseCounter<S> counter = useCounters.get(theBundle);
+		if (counter == null) {
+			return false;
+		}
+
+		final int count = counter.decrement();
+		if (count == -1) {
+			return false;
+		}
+
+		if (count == 0) {
+			useCounters.remove(theBundle, counter);
+			if (isServiceFactory) {
+				synchronized (counter) {
+					if (counter.service != null) {
+						try {
+							((ServiceFactory<S>) theService).ungetService(
+									theBundle, registration, counter.service);
+							// catch exceptions thrown in factory
+						} catch (final Throwable t) {
+							framework.notifyFrameworkListeners(
+									FrameworkEvent.ERROR, bundle, t);
+						}
+						counter.service = null;
+					}
+				}
 			}
-			Integer counter = useCounters.get(theBundle);
-			if (counter == null) {
-				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * the use count of a bundle and the service object that a service factory
+	 * produced for it. Once the count has dropped to zero, the counter is
+	 * retired and a new one has to be created for the next use.
+	 * 
+	 * @param <S>
+	 *            the type of the service.
+	 */
+	static final class UseCounter<S> extends AtomicInteger {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * the factored service object, guarded by the counter's monitor.
+		 */
+		S service;
+
+		/**
+		 * true while the service factory is called for the bundle.
+		 */
+		boolean factoring;
+
+		UseCounter() {
+			super(1);
+		}
+
+		/**
+		 * increment the count unless the counter has been retired.
+		 * 
+		 * @return false if the counter has been retired.
+		 */
+		boolean increment() {
+			while (true) {
+				final int count = get();
+				if (count == 0) {
+					return false;
+				}
+				if (compareAndSet(count, count + 1)) {
+					return true;
+				}
 			}
-			if (counter.intValue() == 1) {
-				if (isServiceFactory) {
-					try {
-						((ServiceFactory<S>) service).ungetService(theBundle,
-								registration, cachedServices.get(theBundle));
-						// catch exceptions thrown in factory
-					} catch (final Throwable t) {
-						framework.notifyFrameworkListeners(
-								FrameworkEvent.ERROR, bundle, t);
-					}
-					useCounters.remove(theBundle);
-					cachedServices.remove(theBundle);
+		}
+
+		/**
+		 * decrement the count unless it is already zero.
+		 * 
+		 * @return the new count or -1 if the count was already zero.
+		 */
+		int decrement() {
+			while (true) {
+				final int count = get();
+				if (count == 0) {
+					return -1;
+				}
+				if (compareAndSet(count, count - 1)) {
+					return count - 1;
 				}
-				return true;
-			} else {
-				counter = new Integer(counter.intValue() - 1);
-				useCounters.put(theBundle, counter);
-				return true;
 			}
 		}
 	}
@@ -392,12 +493,11 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 		if (comparedServiceIds == 0) {
 			return 0;
 		}
-		final int res = ((Integer) properties.get(Constants.SERVICE_RANKING))
-				.compareTo((Integer) other.properties
-						.get(Constants.SERVICE_RANKING));
-		if (res < 0) {
+		final int ranking = getRanking();
+		final int otherRanking = other.getRanking();
+		if (ranking < otherRanking) {
 			return -1;
-		} else if (res > 0) {
+		} else if (ranking > otherRanking) {
 			return 1;
 		}
 		if (comparedServiceIds < 0) {
@@ -408,6 +508,17 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 
 	}
 
+	/**
+	 * get the service ranking. Values that are not of type Integer are deemed
+	 * to have a ranking of zero.
+	 * 
+	 * @return the ranking.
+	 */
+	int getRanking() {
+		final Object ranking = properties.get(Constants.SERVICE_RANKING);
+		return ranking instanceof Integer ? ((Integer) ranking).intValue() : 0;
+	}
+
 	/**
 	 * test if bundle and class have same source
 	 * 
@@ -429,12 +540,12 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 		final BundleImpl otherBundle = (BundleImpl) theBundle;
 		final BundleImpl ourBundle = (BundleImpl) bundle;
 
-		try {
-			return otherBundle.loadClass(className) == ourBundle
-					.loadClass(className);
-		} catch (final ClassNotFoundException e) {
+		final Class<?> otherClass = otherBundle.getVisibleClass(className);
+		if (otherClass == null) {
 			return true;
 		}
+		final Class<?> ourClass = ourBundle.getVisibleClass(className);
+		return ourClass == null || otherClass == ourClass;
 	}
 
 	/**
@@ -484,8 +595,10 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 			}
 
 			final Map<String, Object> oldProps;
+			final boolean rankingChanged;
 			// could be called from multiple threads
 			synchronized(properties){
+				final int oldRanking = getRanking();
 				oldProps = new HashMap<String, Object>(
 						properties);
 	
@@ -518,6 +631,20 @@ final class ServiceReferenceImpl<S> implements ServiceReference<S> {
 						properties.put(key, value);
 					}
 				}
+
+				framework.servicePropertyIndex.remove(ServiceReferenceImpl.this,
+						oldProps);
+				framework.servicePropertyIndex.add(ServiceReferenceImpl.this,
+						properties);
+
+				rankingChanged = getRanking() != oldRanking;
+			}
+
+			if (rankingChanged) {
+				framework.resortService(ServiceReferenceImpl.this);
+			} else {
+				// the key of the weaving hooks includes their properties
+				framework.weavingHookModified(ServiceReferenceImpl.this);
 			}
 
 			framework.notifyServiceListeners(ServiceEvent.MODIFIED,
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.service.registry;
+
+import java.util.Dictionary;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Concierge-specific extension for registering many services at once. The
+ * registrar is obtained by adapting the system bundle:
+ *
+ * <pre>
+ * context.getBundle(0).adapt(BatchServiceRegistrar.class)
+ * </pre>
+ *
+ * The services of a batch are added to the service registry in a single
+ * modification and the <code>REGISTERED</code> events are delivered in one
+ * pass over the service listeners, after all services of the batch have been
+ * registered.
+ */
+public interface BatchServiceRegistrar {
+
+	/**
+	 * register a batch of services on behalf of a bundle.
+	 *
+	 * @param context
+	 *            the bundle context of the registering bundle.
+	 * @param clazzes
+	 *            the classes under which each service is registered.
+	 * @param services
+	 *            the service objects.
+	 * @param properties
+	 *            the properties of each service or <code>null</code>. Single
+	 *            entries can be <code>null</code> as well.
+	 * @return the service registrations, in the order of the services.
+	 * @throws IllegalArgumentException
+	 *             if the arrays differ in length or one of the services is
+	 *             invalid. In this case, none of the services is registered.
+	 * @throws IllegalStateException
+	 *             if the bundle context is no longer valid.
+	 * @see BundleContext#registerService(String[], Object, Dictionary)
+	 */
+	ServiceRegistration<?>[] registerServices(BundleContext context,
+			String[][] clazzes, Object[] services,
+			Dictionary<String, ?>[] properties);
+
+}
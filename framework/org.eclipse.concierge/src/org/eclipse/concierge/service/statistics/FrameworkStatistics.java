@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.service.statistics;
+
+import java.util.Map;
+
+/**
+ * Concierge-specific view on the internal counters of the framework. The
+ * counters are only maintained if the framework is launched with
+ * <code>org.eclipse.concierge.statistics=true</code>, in this case the
+ * statistics are obtained by adapting the system bundle:
+ *
+ * <pre>
+ * context.getBundle(0).adapt(FrameworkStatistics.class)
+ * </pre>
+ *
+ * Otherwise, the adaption returns <code>null</code>.
+ */
+public interface FrameworkStatistics {
+
+	/**
+	 * the number of service listeners that were evaluated for service events.
+	 */
+	String SERVICE_LISTENER_EVALUATIONS = "serviceListener.evaluations";
+
+	/**
+	 * the number of service listener evaluations that were skipped because
+	 * the listener was not interested in any class of the service.
+	 */
+	String SERVICE_LISTENER_SKIPPED = "serviceListener.skipped";
+
+	/**
+	 * the number of filter strings that were found in the cache of parsed
+	 * filters. The cache is shared by all frameworks in the same VM, and so
+	 * is the counter.
+	 */
+	String FILTER_CACHE_HITS = "filterCache.hits";
+
+	/**
+	 * the number of filter strings that had to be parsed. Shared by all
+	 * frameworks in the same VM.
+	 */
+	String FILTER_CACHE_MISSES = "filterCache.misses";
+
+	/**
+	 * the number of single class and resource lookups in the bundle scopes
+	 * of the current bundle revisions.
+	 */
+	String CLASS_LOOKUPS = "classLoader.lookups";
+
+	/**
+	 * the number of lookups in the bundle scopes of the current bundle
+	 * revisions that were answered by their negative lookup caches.
+	 */
+	String MISSING_NAME_HITS = "classLoader.missingNameHits";
+
+	/**
+	 * the number of bundle files that are currently open. Only present if
+	 * the number of open bundle files is limited through
+	 * <code>org.eclipse.concierge.archive.maxOpen</code>.
+	 */
+	String OPEN_ARCHIVES = "archives.open";
+
+	/**
+	 * the number of times a bundle file was opened, including reopens after
+	 * it was closed because too many files were open. Only present if the
+	 * number of open bundle files is limited.
+	 */
+	String ARCHIVE_OPENS = "archives.opens";
+
+	/**
+	 * the number of times an idle bundle file was closed because too many
+	 * files were open. Only present if the number of open bundle files is
+	 * limited.
+	 */
+	String ARCHIVE_EVICTIONS = "archives.evictions";
+
+	/**
+	 * the prefix of the counters of a registered weaving hook, followed by
+	 * the service id of the hook, a dot, and {@link #WEAVING_HOOK_CALLS} or
+	 * {@link #WEAVING_HOOK_NANOS}, e.g. <code>weavingHook.42.calls</code>.
+	 */
+	String WEAVING_HOOK_PREFIX = "weavingHook.";
+
+	/**
+	 * the number of times a weaving hook was called.
+	 */
+	String WEAVING_HOOK_CALLS = "calls";
+
+	/**
+	 * the time spent in a weaving hook, in nanoseconds.
+	 */
+	String WEAVING_HOOK_NANOS = "nanos";
+
+	/**
+	 * get the current values of the counters.
+	 *
+	 * @return a snapshot of the counters, keyed by the names defined in this
+	 *         interface.
+	 */
+	Map<String, Long> getCounters();
+
+}
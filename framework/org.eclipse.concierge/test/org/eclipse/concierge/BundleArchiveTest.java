@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BundleArchiveTest {
+
+	private File file;
+
+	private byte[] content;
+
+	@Before
+	public void setUp() throws Exception {
+		content = new byte[10000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 7);
+		}
+
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,
+				"1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName",
+				"archive");
+
+		file = File.createTempFile("concierge", ".jar");
+		final JarOutputStream out = new JarOutputStream(
+				new FileOutputStream(file), manifest);
+		out.putNextEntry(new ZipEntry("dir/"));
+		out.closeEntry();
+		out.putNextEntry(new ZipEntry("dir/deflated.bin"));
+		out.write(content);
+		out.closeEntry();
+
+		final ZipEntry stored = new ZipEntry("dir/stored.bin");
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+		stored.setMethod(ZipEntry.STORED);
+		stored.setSize(content.length);
+		stored.setCrc(crc.getValue());
+		out.putNextEntry(stored);
+		out.write(content);
+		out.closeEntry();
+		out.close();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testMappedArchive() throws Exception {
+		final BundleArchive jar = new BundleArchive.JarFileArchive(file);
+		final BundleArchive mapped = new BundleArchive.MappedArchive(file);
+		try {
+			assertEquals(names(jar), names(mapped));
+			assertEquals(jar.getManifest(), mapped.getManifest());
+
+			for (final String name : names(jar)) {
+				final ZipEntry entry = mapped.getEntry(name);
+				assertEquals(jar.getEntry(name).getSize(), entry.getSize());
+				assertArrayEquals(read(jar, jar.getEntry(name)),
+						read(mapped, entry));
+			}
+			assertArrayEquals(content,
+					read(mapped, mapped.getEntry("dir/stored.bin")));
+			assertArrayEquals(content,
+					read(mapped, mapped.getEntry("dir/deflated.bin")));
+
+			// directories are found without trailing slash
+			assertTrue(mapped.getEntry("dir").isDirectory());
+			assertNull(mapped.getEntry("missing"));
+		} finally {
+			jar.close();
+			mapped.close();
+		}
+	}
+
+	@Test
+	public void testFallback() throws Exception {
+		final FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] { 1, 2, 3 });
+		out.close();
+
+		try {
+			new BundleArchive.MappedArchive(file);
+			fail("not a zip archive");
+		} catch (final IOException ioe) {
+			// expected
+		}
+		try {
+			BundleArchive.open(file, true);
+			fail("not a zip archive");
+		} catch (final IOException ioe) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPool() throws Exception {
+		final File copy = File.createTempFile("concierge", ".jar");
+		try {
+			final FileOutputStream out = new FileOutputStream(copy);
+			out.write(BundleImpl.readFully(new FileInputStream(file),
+					file.length()));
+			out.close();
+
+			final BundleArchive.Pool pool = new BundleArchive.Pool(1);
+			final BundleArchive first = pool.open(file);
+			final BundleArchive second = pool.open(copy);
+			assertEquals(2, pool.getOpens());
+			assertEquals(1, pool.getEvictions());
+			assertEquals(1, pool.getOpenCount());
+
+			// the evicted archive is opened again on access
+			final ZipEntry entry = first.getEntry("dir/deflated.bin");
+			assertNotNull(entry);
+			assertEquals(3, pool.getOpens());
+			assertEquals(2, pool.getEvictions());
+
+			// an archive with an open stream is not closed
+			final InputStream in = first.getInputStream(entry);
+			assertNotNull(second.getEntry("dir/stored.bin"));
+			assertEquals(2, pool.getOpenCount());
+			assertArrayEquals(content, BundleImpl.readFully(in, -1));
+			assertNotNull(second.getEntry("dir/stored.bin"));
+			assertEquals(1, pool.getOpenCount());
+
+			first.close();
+			second.close();
+			assertEquals(0, pool.getOpenCount());
+			assertNull(first.getEntry("dir/deflated.bin"));
+		} finally {
+			copy.delete();
+		}
+	}
+
+	private static List<String> names(final BundleArchive archive) {
+		final List<String> names = new ArrayList<String>();
+		for (final Enumeration<? extends ZipEntry> e = archive.entries(); e
+				.hasMoreElements();) {
+			names.add(e.nextElement().getName());
+		}
+		return names;
+	}
+
+	private static byte[] read(final BundleArchive archive,
+			final ZipEntry entry) throws IOException {
+		final byte[] bytes = BundleImpl.readFully(archive.getInputStream(entry),
+				-1);
+		assertTrue(Arrays.equals(bytes, BundleImpl
+				.readFully(archive.getInputStream(entry), entry.getSize())));
+		return bytes;
+	}
+
+}
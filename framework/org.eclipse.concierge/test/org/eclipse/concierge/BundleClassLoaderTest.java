@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.concierge.service.statistics.FrameworkStatistics;
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Tests concurrent class loading through bundle class loaders.
+ */
+public class BundleClassLoaderTest extends AbstractConciergeTestCase {
+
+	private static final String PAYLOAD = Payload.class.getName();
+
+	private Bundle library;
+
+	private Bundle consumer;
+
+	@Before
+	public void setUp() throws Exception {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put("org.eclipse.concierge.statistics", "true");
+		startFrameworkClean(launchArgs);
+
+		final String path = PAYLOAD.replace('.', '/') + ".class";
+		final File payload = new File(BundleClassLoaderTest.class
+				.getResource("/" + path).toURI());
+
+		library = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("library").bundleVersion("1.0.0")
+				.addManifestHeader("Export-Package", "org.eclipse.concierge")
+				.addFile(path, payload));
+		consumer = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("consumer").bundleVersion("1.0.0")
+				.addManifestHeader("Import-Package", "org.eclipse.concierge"));
+		library.start();
+		consumer.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testParallelCapable() throws Exception {
+		final Method isParallelCapable;
+		try {
+			isParallelCapable = ClassLoader.class
+					.getMethod("isRegisteredAsParallelCapable");
+		} catch (final NoSuchMethodException nsme) {
+			// cannot be checked before Java 9
+			return;
+		}
+		Assert.assertEquals(Boolean.TRUE,
+				isParallelCapable.invoke(getClassLoader(library)));
+	}
+
+	@Test
+	public void testConcurrentLoading() throws Exception {
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			@SuppressWarnings("unchecked")
+			final Future<Class<?>>[] results = new Future[threads];
+			for (int i = 0; i < threads; i++) {
+				results[i] = executor.submit(new Callable<Class<?>>() {
+					public Class<?> call() throws Exception {
+						start.await();
+						return consumer.loadClass(PAYLOAD);
+					}
+				});
+			}
+			start.countDown();
+
+			final Class<?> clazz = results[0].get(10, TimeUnit.SECONDS);
+			Assert.assertSame(getClassLoader(library), clazz.getClassLoader());
+			for (int i = 1; i < threads; i++) {
+				Assert.assertSame(clazz, results[i].get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDelegationHoldsNoLoaderMonitor() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			synchronized (getClassLoader(library)) {
+				final Future<Class<?>> result = executor
+						.submit(new Callable<Class<?>>() {
+							public Class<?> call() throws Exception {
+								return consumer.loadClass(PAYLOAD);
+							}
+						});
+				Assert.assertSame(getClassLoader(library),
+						result.get(10, TimeUnit.SECONDS).getClassLoader());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testNegativeCache() throws Exception {
+		final BundleImpl.Revision revision = ((BundleImpl) library).currentRevision;
+		final String missing = "org.eclipse.concierge.Missing";
+
+		// the lookup is delegated to the exporting library
+		for (int i = 0; i < 3; i++) {
+			try {
+				consumer.loadClass(missing);
+				Assert.fail("class " + missing + " must not be found");
+			} catch (final ClassNotFoundException cnfe) {
+				// expected
+			}
+		}
+		Assert.assertEquals(Boolean.TRUE, revision.missingNames.get(missing));
+		Assert.assertEquals(2, revision.missingNameHits.get());
+
+		// found classes and resources are not cached
+		Assert.assertNotNull(consumer.loadClass(PAYLOAD));
+		Assert.assertNull(revision.missingNames.get(PAYLOAD));
+
+		Assert.assertNull(library.getResource("extra.txt"));
+		Assert.assertNull(library.getResource("extra.txt"));
+		Assert.assertEquals(Boolean.FALSE,
+				revision.missingNames.get("extra.txt"));
+		Assert.assertEquals(3, revision.missingNameHits.get());
+
+		final Map<String, Long> counters = framework
+				.adapt(FrameworkStatistics.class).getCounters();
+		Assert.assertTrue(counters.get(
+				FrameworkStatistics.MISSING_NAME_HITS).longValue() >= 3);
+		Assert.assertTrue(counters.get(FrameworkStatistics.CLASS_LOOKUPS)
+				.longValue() >= 6);
+	}
+
+	@Test
+	public void testNegativeCacheDynamicImport() throws Exception {
+		final Bundle dynamic = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("dynamic")
+				.bundleVersion("1.0.0")
+				.addManifestHeader("DynamicImport-Package", "org.example.*"));
+		dynamic.start();
+
+		// a class in a dynamically imported package can show up later
+		for (int i = 0; i < 2; i++) {
+			try {
+				dynamic.loadClass("org.example.api.Missing");
+				Assert.fail("class must not be found");
+			} catch (final ClassNotFoundException cnfe) {
+				// expected
+			}
+		}
+		final BundleImpl.Revision revision = ((BundleImpl) dynamic).currentRevision;
+		Assert.assertEquals(0, revision.missingNames.size());
+		Assert.assertEquals(0, revision.missingNameHits.get());
+
+		try {
+			dynamic.loadClass("org.example.Missing");
+			Assert.fail("class must not be found");
+		} catch (final ClassNotFoundException cnfe) {
+			// expected
+		}
+		Assert.assertEquals(Boolean.TRUE,
+				revision.missingNames.get("org.example.Missing"));
+	}
+
+	@Test
+	public void testNegativeCacheRefresh() throws Exception {
+		Assert.assertNull(consumer.getResource("missing.txt"));
+		Assert.assertTrue(((BundleImpl) consumer).currentRevision.missingNames
+				.size() > 0);
+
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		framework.adapt(FrameworkWiring.class).refreshBundles(
+				Arrays.asList(consumer), new FrameworkListener() {
+					public void frameworkEvent(final FrameworkEvent event) {
+						refreshed.countDown();
+					}
+				});
+		Assert.assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(0,
+				((BundleImpl) consumer).currentRevision.missingNames.size());
+	}
+
+	@Test
+	public void testPackageIndex() throws Exception {
+		final File payload = new File(BundleClassLoaderTest.class
+				.getResource("/" + PAYLOAD.replace('.', '/') + ".class")
+				.toURI());
+		final Bundle bundle = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("classpath")
+				.bundleVersion("1.0.0")
+				.addManifestHeader("Bundle-ClassPath", ".,lib")
+				.addFile("lib/" + PAYLOAD.replace('.', '/') + ".class",
+						payload)
+				.addFile("res/a.txt", "root").addFile("lib/res/a.txt", "lib")
+				.addFile("lib/res/b.txt", "lib"));
+		bundle.start();
+
+		Assert.assertSame(getClassLoader(bundle),
+				bundle.loadClass(PAYLOAD).getClassLoader());
+		Assert.assertEquals(2,
+				Collections.list(bundle.getResources("res/a.txt")).size());
+		Assert.assertNotNull(bundle.getResource("/res/b.txt"));
+		Assert.assertNull(bundle.getResource("res/c.txt"));
+		Assert.assertNull(bundle.getResource("other/a.txt"));
+
+		final BundleImpl.Revision revision = ((BundleImpl) bundle).currentRevision;
+		final BitSet sources = revision
+				.getPackageSources(PAYLOAD.replace('.', '/') + ".class");
+		Assert.assertFalse(sources.get(0));
+		Assert.assertTrue(sources.get(1));
+		Assert.assertTrue(revision.getPackageSources("other/a.txt").isEmpty());
+		// directories are entries of their parent directory
+		Assert.assertEquals(2, revision.getPackageSources("res/").cardinality());
+	}
+
+	private static ClassLoader getClassLoader(final Bundle bundle) {
+		return bundle.adapt(BundleWiring.class).getClassLoader();
+	}
+
+	public static class Payload {
+
+	}
+
+}
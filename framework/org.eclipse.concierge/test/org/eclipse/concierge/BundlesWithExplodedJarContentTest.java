@@ -236,7 +236,77 @@ public class BundlesWithExplodedJarContentTest extends
 		Assert.assertEquals("some content", content);
 	}
 
+	/**
+	 * A bundle with a single embedded jar on the bundle classpath is not
+	 * exploded. The embedded jar is extracted on first use and looked up
+	 * through its index.
+	 */
+	@Test
+	public void testBundleWithEmbeddedJarNotExploded() throws Exception {
+		SyntheticBundleBuilder innerJar = SyntheticBundleBuilder.newBuilder();
+		File someFile = TestUtils.createFileFromString("some content");
+		File otherFile = TestUtils.createFileFromString("other content");
+		innerJar.addFile("res/somefile.txt", someFile);
+		innerJar.addFile("res/otherfile.txt", otherFile);
+		File someJar = innerJar.asFile();
 
+		SyntheticBundleBuilder builder = SyntheticBundleBuilder.newBuilder();
+		builder.bundleSymbolicName("testBundleWithEmbeddedJarNotExploded")
+				.bundleVersion("1.0.0");
+		builder.addManifestHeader("Bundle-Classpath", "lib/some.jar");
+		builder.addFile("lib/some.jar", someJar);
+		bundleUnderTest = installBundle(builder);
+		bundleUnderTest.start();
+		assertBundleActive(bundleUnderTest);
+
+		Assert.assertFalse(
+				new File("./storage/default/1/content0").isDirectory());
+		Assert.assertFalse(
+				new File("./storage/default/1/embedded0/lib/some.jar").exists());
+
+		ClassLoader classLoader = bundleUnderTest.adapt(BundleWiring.class)
+				.getClassLoader();
+		// the package index is built without extracting the embedded jar
+		Assert.assertNull(classLoader.getResource("other/unknown.txt"));
+		Assert.assertFalse(
+				new File("./storage/default/1/embedded0/lib/some.jar").exists());
+		URL someUrl = classLoader.getResource("res/somefile.txt");
+		assertNotNull(someUrl);
+		Assert.assertTrue(
+				new File("./storage/default/1/embedded0/lib/some.jar").exists());
+		assertEquals("/lib/some.jar", someUrl.toURI().getPath());
+		assertEquals("res/somefile.txt", someUrl.toURI().getFragment());
+		assertEquals("some content", TestUtils.getContentFromUrl(someUrl));
+		assertEquals("other content", TestUtils.getContentFromUrl(
+				classLoader.getResource("res/otherfile.txt")));
+		Assert.assertNull(classLoader.getResource("res/unknown.txt"));
+	}
+
+	/**
+	 * An embedded jar on the bundle classpath can be given with a leading
+	 * slash.
+	 */
+	@Test
+	public void testBundleWithEmbeddedJarLeadingSlash() throws Exception {
+		SyntheticBundleBuilder innerJar = SyntheticBundleBuilder.newBuilder();
+		innerJar.addFile("res/somefile.txt",
+				TestUtils.createFileFromString("some content"));
+
+		SyntheticBundleBuilder builder = SyntheticBundleBuilder.newBuilder();
+		builder.bundleSymbolicName("testBundleWithEmbeddedJarLeadingSlash")
+				.bundleVersion("1.0.0");
+		builder.addManifestHeader("Bundle-Classpath", "/lib/some.jar");
+		builder.addFile("lib/some.jar", innerJar.asFile());
+		bundleUnderTest = installBundle(builder);
+		bundleUnderTest.start();
+		assertBundleActive(bundleUnderTest);
+
+		ClassLoader classLoader = bundleUnderTest.adapt(BundleWiring.class)
+				.getClassLoader();
+		URL someUrl = classLoader.getResource("res/somefile.txt");
+		assertNotNull(someUrl);
+		assertEquals("some content", TestUtils.getContentFromUrl(someUrl));
+	}
 
 	private void checkEntryPaths(Enumeration<String> urls) {
 		Assert.assertNotNull(urls);
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassCacheTest {
+
+	private File source;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		source = File.createTempFile("concierge", ".jar");
+		final FileOutputStream out = new FileOutputStream(source);
+		out.write(new byte[] { 1, 2, 3 });
+		out.close();
+
+		file = File.createTempFile("concierge", ".classes");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		source.delete();
+		file.delete();
+	}
+
+	@Test
+	public void testStoreAndReopen() throws Exception {
+		ClassCache cache = new ClassCache(file, source);
+		assertEquals(0, cache.size());
+		assertNull(cache.get("a.B", ""));
+		cache.put("a.B", "hook@1;", new byte[] { 9, 8, 7 });
+		cache.put("a.C", "hook@1;", new byte[] { 5 });
+		cache.close();
+
+		cache = new ClassCache(file, source);
+		assertEquals(2, cache.size());
+		final ByteBuffer bytes = cache.get("a.B", "hook@1;");
+		assertEquals(3, bytes.remaining());
+		assertEquals(9, bytes.get(0));
+		assertEquals(7, bytes.get(2));
+
+		// only served for the same weaving hooks
+		assertNull(cache.get("a.C", ""));
+		assertEquals(1, cache.get("a.C", "hook@1;").remaining());
+		cache.close();
+	}
+
+	@Test
+	public void testHooksChanged() throws Exception {
+		ClassCache cache = new ClassCache(file, source);
+		cache.put("a.B", "hook@1;", new byte[] { 9, 8, 7 });
+		cache.put("a.C", "hook@1;", new byte[] { 5 });
+		cache.close();
+		final long length = file.length();
+
+		// the classes of the old hooks are dropped from the file
+		for (int i = 2; i < 5; i++) {
+			cache = new ClassCache(file, source);
+			cache.put("a.B", "hook@" + i + ";", new byte[] { 9, 8, 7 });
+			cache.put("a.C", "hook@" + i + ";", new byte[] { 5 });
+			cache.close();
+			assertEquals(length, file.length());
+		}
+
+		cache = new ClassCache(file, source);
+		assertEquals(2, cache.size());
+		assertNull(cache.get("a.B", "hook@1;"));
+		assertEquals(3, cache.get("a.B", "hook@4;").remaining());
+
+		// the classes of the new hooks are kept
+		cache.put("a.D", "hook@4;", new byte[] { 1 });
+		cache.put("a.E", "hook@5;", new byte[] { 2 });
+		cache.close();
+		cache = new ClassCache(file, source);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.get("a.E", "hook@5;").remaining());
+		cache.put("a.B", "hook@5;", new byte[] { 3 });
+		cache.close();
+		cache = new ClassCache(file, source);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.get("a.E", "hook@5;").remaining());
+		assertEquals(1, cache.get("a.B", "hook@5;").remaining());
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		final ClassCache cache = new ClassCache(file, source);
+		cache.put("a.B", "", new byte[] { 9, 8, 7 });
+		cache.flush();
+
+		// written without closing the cache
+		assertEquals(1, new ClassCache(file, source).size());
+		cache.close();
+	}
+
+	@Test
+	public void testInterruptedStore() throws Exception {
+		ClassCache cache = new ClassCache(file, source);
+		cache.put("a.B", "", new byte[] { 9, 8, 7 });
+		cache.put("a.C", "", new byte[] { 5, 4 });
+		cache.close();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 1);
+		raf.close();
+
+		cache = new ClassCache(file, source);
+		assertEquals(1, cache.size());
+		assertNull(cache.get("a.C", ""));
+		cache.put("a.D", "", new byte[] { 1 });
+		cache.close();
+
+		cache = new ClassCache(file, source);
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.get("a.B", "").remaining());
+		assertEquals(1, cache.get("a.D", "").remaining());
+	}
+
+	@Test
+	public void testChangedSource() throws Exception {
+		final ClassCache cache = new ClassCache(file, source);
+		cache.put("a.B", "", new byte[] { 9, 8, 7 });
+		cache.close();
+
+		source.setLastModified(source.lastModified() - 10000);
+		assertEquals(0, new ClassCache(file, source).size());
+	}
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.concierge.service.statistics.FrameworkStatistics;
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Tests the statistics obtained by adapting the system bundle.
+ */
+public class FrameworkStatisticsTest extends AbstractConciergeTestCase {
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		startFramework();
+		Assert.assertNull(framework.adapt(FrameworkStatistics.class));
+	}
+
+	@Test
+	public void testArchivePool() throws Exception {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put("org.eclipse.concierge.statistics", "true");
+		launchArgs.put("org.eclipse.concierge.archive.maxOpen", "1");
+		startFrameworkClean(launchArgs);
+
+		final Bundle first = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("first").addFile("a.txt", "a"));
+		final Bundle second = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("second")
+				.addFile("b.txt", "b"));
+		Assert.assertNotNull(first.getEntry("a.txt"));
+		Assert.assertNotNull(second.getEntry("b.txt"));
+		Assert.assertNotNull(first.getEntry("a.txt"));
+
+		final Map<String, Long> counters = framework
+				.adapt(FrameworkStatistics.class).getCounters();
+		Assert.assertEquals(Long.valueOf(1),
+				counters.get(FrameworkStatistics.OPEN_ARCHIVES));
+		Assert.assertTrue(counters.get(FrameworkStatistics.ARCHIVE_OPENS)
+				.longValue() >= 3);
+		Assert.assertTrue(counters.get(FrameworkStatistics.ARCHIVE_EVICTIONS)
+				.longValue() >= 2);
+	}
+
+}
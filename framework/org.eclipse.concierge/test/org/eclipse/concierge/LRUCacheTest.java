@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.concierge.ConciergeCollections.LRUCache;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+
+public class LRUCacheTest {
+
+	@Test
+	public void testEviction() {
+		final LRUCache<String, String> cache = new LRUCache<String, String>(2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertEquals("1", cache.get("a"));
+		cache.put("c", "3");
+
+		assertEquals(2, cache.size());
+		assertEquals("1", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("3", cache.get("c"));
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testSegments() {
+		final LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(
+				64, 4);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(Integer.valueOf(i), Integer.valueOf(i));
+			assertEquals(Integer.valueOf(i), cache.get(Integer.valueOf(i)));
+		}
+
+		assertTrue(cache.size() <= 64);
+		assertNull(cache.get(Integer.valueOf(0)));
+		assertEquals(1000, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testFilterCache() throws Exception {
+		final long misses = RFC1960Filter.filterCache.getMisses();
+		final Filter filter = RFC1960Filter
+				.fromString("(&(objectClass=foo)(lrucachetest=1))");
+		assertEquals(misses + 1, RFC1960Filter.filterCache.getMisses());
+
+		final long hits = RFC1960Filter.filterCache.getHits();
+		assertSame(filter, RFC1960Filter
+				.fromString(" (&(objectClass=foo)(lrucachetest=1)) "));
+		assertEquals(hits + 1, RFC1960Filter.filterCache.getHits());
+	}
+
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Tests that the wirings are restored on restart when
+ * org.eclipse.concierge.resolver.persistWirings is set.
+ */
+public class PersistedWiringsTest extends AbstractConciergeTestCase {
+
+	private static final String PERSIST_WIRINGS = "org.eclipse.concierge.resolver.persistWirings";
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testWiringsRestored() throws Exception {
+		installAndResolve();
+
+		startFramework(persistWirings());
+		final Bundle[] bundles = bundleContext.getBundles();
+		final Bundle provider = getBundleForBSN(bundles, "provider");
+		final Bundle consumer = getBundleForBSN(bundles, "consumer");
+		assertBundleResolved(provider);
+		assertBundleResolved(consumer);
+
+		final List<BundleWire> wires = consumer.adapt(BundleWiring.class)
+				.getRequiredWires(null);
+		Assert.assertEquals(1, wires.size());
+		Assert.assertEquals(provider, wires.get(0).getProvider().getBundle());
+	}
+
+	@Test
+	public void testNotRestoredWithoutOption() throws Exception {
+		installAndResolve();
+
+		startFrameworkNonClean();
+		final Bundle[] bundles = bundleContext.getBundles();
+		assertBundleInstalled(getBundleForBSN(bundles, "consumer"));
+	}
+
+	@Test
+	public void testNotRestoredAfterConfigurationChange() throws Exception {
+		installAndResolve();
+
+		final Map<String, String> launchArgs = persistWirings();
+		launchArgs.put(Constants.FRAMEWORK_BSNVERSION,
+				Constants.FRAMEWORK_BSNVERSION_SINGLE);
+		startFramework(launchArgs);
+		final Bundle[] bundles = bundleContext.getBundles();
+		assertBundleInstalled(getBundleForBSN(bundles, "consumer"));
+	}
+
+	@Test
+	public void testDynamicWiresNotStored() throws Exception {
+		startFrameworkClean(persistWirings());
+
+		final SyntheticBundleBuilder provider = SyntheticBundleBuilder
+				.newBuilder();
+		provider.bundleSymbolicName("provider")
+				.addManifestHeader(Constants.EXPORT_PACKAGE,
+						"org.foo;version=1.0.0,org.bar");
+		final SyntheticBundleBuilder consumer = SyntheticBundleBuilder
+				.newBuilder();
+		consumer.bundleSymbolicName("consumer")
+				.addManifestHeader(Constants.DYNAMICIMPORT_PACKAGE, "org.bar")
+				.addManifestHeader(Constants.IMPORT_PACKAGE,
+						"org.foo;version=\"[1.0,2.0)\"");
+		installBundle(provider);
+		Bundle bundle = installBundle(consumer);
+		enforceResolveBundle(bundle);
+		try {
+			// wires the dynamic import
+			bundle.loadClass("org.bar.Bar");
+		} catch (final ClassNotFoundException cnfe) {
+			// expected
+		}
+		Assert.assertEquals(2, bundle.adapt(BundleWiring.class)
+				.getRequiredWires(null).size());
+		stopFramework();
+
+		startFramework(persistWirings());
+		bundle = getBundleForBSN(bundleContext.getBundles(), "consumer");
+		assertBundleResolved(bundle);
+		final List<BundleWire> wires = bundle.adapt(BundleWiring.class)
+				.getRequiredWires(null);
+		Assert.assertEquals(1, wires.size());
+		Assert.assertEquals("org.foo", wires.get(0).getCapability()
+				.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE));
+	}
+
+	@Test
+	public void testFragmentDoesNotPreventStoring() throws Exception {
+		startFrameworkClean(persistWirings());
+
+		final SyntheticBundleBuilder provider = SyntheticBundleBuilder
+				.newBuilder();
+		provider.bundleSymbolicName("provider").addManifestHeader(
+				Constants.EXPORT_PACKAGE, "org.foo;version=1.0.0");
+		final SyntheticBundleBuilder consumer = SyntheticBundleBuilder
+				.newBuilder();
+		consumer.bundleSymbolicName("consumer").addManifestHeader(
+				Constants.IMPORT_PACKAGE, "org.foo;version=\"[1.0,2.0)\"");
+		final SyntheticBundleBuilder host = SyntheticBundleBuilder
+				.newBuilder();
+		host.bundleSymbolicName("host").addManifestHeader(
+				Constants.IMPORT_PACKAGE, "org.foo;version=\"[1.0,2.0)\"");
+		final SyntheticBundleBuilder fragment = SyntheticBundleBuilder
+				.newBuilder();
+		fragment.bundleSymbolicName("fragment")
+				.addManifestHeader(Constants.FRAGMENT_HOST, "host");
+
+		installBundle(provider);
+		final Bundle consumerBundle = installBundle(consumer);
+		final Bundle hostBundle = installBundle(host);
+		final Bundle fragmentBundle = installBundle(fragment);
+		enforceResolveBundle(consumerBundle);
+		enforceResolveBundle(hostBundle);
+		assertBundleResolved(fragmentBundle);
+		stopFramework();
+
+		startFramework(persistWirings());
+		final Bundle[] bundles = bundleContext.getBundles();
+		assertBundleResolved(getBundleForBSN(bundles, "provider"));
+		assertBundleResolved(getBundleForBSN(bundles, "consumer"));
+		// the host and its fragment are resolved again when needed
+		assertBundleInstalled(getBundleForBSN(bundles, "host"));
+		assertBundleInstalled(getBundleForBSN(bundles, "fragment"));
+	}
+
+	@Test
+	public void testCorruptFileIgnored() throws Exception {
+		installAndResolve();
+
+		final DataOutputStream out = new DataOutputStream(
+				new FileOutputStream(new File("./storage/default/wirings")));
+		try {
+			out.writeInt(Integer.MAX_VALUE);
+		} finally {
+			out.close();
+		}
+
+		startFramework(persistWirings());
+		final Bundle[] bundles = bundleContext.getBundles();
+		assertBundleInstalled(getBundleForBSN(bundles, "consumer"));
+	}
+
+	private void installAndResolve() throws Exception {
+		final Map<String, String> launchArgs = persistWirings();
+		startFrameworkClean(launchArgs);
+
+		final SyntheticBundleBuilder provider = SyntheticBundleBuilder
+				.newBuilder();
+		provider.bundleSymbolicName("provider").addManifestHeader(
+				Constants.EXPORT_PACKAGE, "org.foo;version=1.0.0");
+		final SyntheticBundleBuilder consumer = SyntheticBundleBuilder
+				.newBuilder();
+		consumer.bundleSymbolicName("consumer").addManifestHeader(
+				Constants.IMPORT_PACKAGE, "org.foo;version=\"[1.0,2.0)\"");
+
+		installBundle(provider);
+		final Bundle bundle = installBundle(consumer);
+		enforceResolveBundle(bundle);
+		assertBundleResolved(bundle);
+
+		stopFramework();
+	}
+
+	private static Map<String, String> persistWirings() {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put(PERSIST_WIRINGS, "true");
+		return launchArgs;
+	}
+
+}
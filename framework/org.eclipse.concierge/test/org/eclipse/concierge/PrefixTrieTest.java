@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.concierge.ConciergeCollections.PrefixTrie;
+import org.junit.Test;
+
+public class PrefixTrieTest {
+
+	@Test
+	public void testPrefixes() {
+		final PrefixTrie trie = new PrefixTrie();
+		trie.add("sun.");
+		trie.add("com.apm.agent.");
+		trie.add("com.apm.agent.");
+		trie.add("org.foo");
+		assertEquals(3, trie.size());
+
+		assertTrue(trie.matchesPrefixOf("sun.misc"));
+		assertTrue(trie.matchesPrefixOf("com.apm.agent.shaded"));
+		assertTrue(trie.matchesPrefixOf("org.foo"));
+		assertTrue(trie.matchesPrefixOf("org.foobar"));
+		assertFalse(trie.matchesPrefixOf("sun"));
+		assertFalse(trie.matchesPrefixOf("com.apm"));
+		assertFalse(trie.matchesPrefixOf("org.fo"));
+		assertFalse(trie.matchesPrefixOf(""));
+	}
+
+	@Test
+	public void testEmptyPrefix() {
+		final PrefixTrie trie = new PrefixTrie();
+		assertFalse(trie.matchesPrefixOf("javax.net"));
+		trie.add("");
+		assertTrue(trie.matchesPrefixOf("javax.net"));
+		assertTrue(trie.matchesPrefixOf(""));
+	}
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.Version;
+
+public class RFC1960FilterTest {
+
+	@Test
+	public void testNumbers() throws Exception {
+		assertMatches("(a=5)", Integer.valueOf(5), true);
+		assertMatches("(a= 5 )", Long.valueOf(5), true);
+		assertMatches("(a>=5)", Byte.valueOf((byte) 4), false);
+		assertMatches("(a<=5)", Short.valueOf((short) 4), true);
+		assertMatches("(a>=1.5)", Double.valueOf(1.5), true);
+		assertMatches("(a<=1.5)", Float.valueOf(2.5f), false);
+		assertMatches("(a=1.50)", new BigDecimal("1.5"), true);
+		assertMatches("(a=300)", Byte.valueOf((byte) 44), false);
+		assertMatches("(a=foo)", Integer.valueOf(5), false);
+		assertMatches("(a=5*)", Integer.valueOf(5), false);
+	}
+
+	@Test
+	public void testAlternatingTypes() throws Exception {
+		final Filter filter = RFC1960Filter.fromString("(a>=7)");
+		for (int i = 0; i < 3; i++) {
+			assertTrue(filter.matches(map(Integer.valueOf(7))));
+			assertFalse(filter.matches(map(Long.valueOf(6))));
+			assertTrue(filter.matches(map("8")));
+			assertTrue(filter.matches(map(new Version(7, 1, 0))));
+			assertFalse(filter.matches(map(Double.valueOf(6.5))));
+		}
+	}
+
+	@Test
+	public void testVersions() throws Exception {
+		assertMatches("(version>=1.2)", new Version(1, 2, 0), true);
+		assertMatches("(version<=1.2)", new Version(1, 3, 0), false);
+		assertMatches("(version=1.2.0.qualifier)",
+				new Version(1, 2, 0, "qualifier"), true);
+		assertMatches("(version=not.a.version)", new Version(1, 2, 0), false);
+	}
+
+	@Test
+	public void testOtherTypes() throws Exception {
+		assertMatches("(a=x)", Character.valueOf('x'), true);
+		assertMatches("(a= x )", Character.valueOf('y'), false);
+		assertMatches("(a=xy)", Character.valueOf('x'), false);
+		assertMatches("(a=true)", Boolean.TRUE, true);
+		assertMatches("(a=3)", new int[] { 1, 2, 3 }, true);
+		assertMatches("(a=4)", new long[] { 1, 2, 3 }, false);
+		assertMatches("(a=3)", Arrays.asList(Integer.valueOf(3), "b"), true);
+		assertMatches("(a=b)", Arrays.asList(Integer.valueOf(3), "b"), true);
+		assertMatches("(a=2)", new Object[] { "1", Long.valueOf(2) }, true);
+	}
+
+	private static void assertMatches(final String filter, final Object attr,
+			final boolean expected) throws Exception {
+		final Filter f = RFC1960Filter.fromString(filter);
+		// match twice to cover the converted value
+		assertEquals(filter + " " + attr, expected, f.matches(map(attr)));
+		assertEquals(filter + " " + attr, expected, f.matches(map(attr)));
+	}
+
+	private static Map<String, Object> map(final Object value) {
+		final Map<String, Object> map = new HashMap<String, Object>();
+		map.put("a", value);
+		map.put("version", value);
+		return map;
+	}
+
+}
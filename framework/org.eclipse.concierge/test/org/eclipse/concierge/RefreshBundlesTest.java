@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Tests that a refresh resolves the dependency closure at once and restarts
+ * the bundles in start level order.
+ */
+public class RefreshBundlesTest extends AbstractConciergeTestCase {
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testRefreshResolvesOnce() throws Exception {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put(Constants.FRAMEWORK_BEGINNING_STARTLEVEL, "3");
+		startFrameworkClean(launchArgs);
+
+		final Bundle lib = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("lib")
+				.addManifestHeader(Constants.EXPORT_PACKAGE, "org.lib"));
+		final Bundle consumer1 = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("consumer1")
+				.addManifestHeader(Constants.IMPORT_PACKAGE, "org.lib"));
+		final Bundle consumer2 = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("consumer2")
+				.addManifestHeader(Constants.IMPORT_PACKAGE, "org.lib"));
+		consumer1.adapt(BundleStartLevel.class).setStartLevel(3);
+		consumer2.adapt(BundleStartLevel.class).setStartLevel(2);
+		startBundles(new Bundle[] { lib, consumer1, consumer2 });
+		assertBundlesActive(new Bundle[] { lib, consumer1, consumer2 });
+
+		final AtomicInteger resolutions = new AtomicInteger();
+		bundleContext.registerService(ResolverHookFactory.class,
+				new ResolverHookFactory() {
+					public ResolverHook begin(
+							final Collection<BundleRevision> triggers) {
+						resolutions.incrementAndGet();
+						return new NullResolverHook();
+					}
+				}, null);
+
+		final List<Bundle> started = Collections
+				.synchronizedList(new ArrayList<Bundle>());
+		bundleContext.addBundleListener(new SynchronousBundleListener() {
+			public void bundleChanged(final BundleEvent event) {
+				if (event.getType() == BundleEvent.STARTED) {
+					started.add(event.getBundle());
+				}
+			}
+		});
+
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		framework.adapt(FrameworkWiring.class).refreshBundles(
+				Arrays.asList(lib), new FrameworkListener() {
+					public void frameworkEvent(final FrameworkEvent event) {
+						refreshed.countDown();
+					}
+				});
+		Assert.assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(1, resolutions.get());
+		assertBundlesActive(new Bundle[] { lib, consumer1, consumer2 });
+		Assert.assertEquals(Arrays.asList(lib, consumer2, consumer1),
+				started);
+	}
+
+	@Test
+	public void testRefreshReportsErrorsAgainstFailingBundle()
+			throws Exception {
+		startFramework();
+
+		final Bundle lib = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("lib")
+				.addManifestHeader(Constants.EXPORT_PACKAGE, "org.lib"));
+		final Bundle consumer = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("consumer")
+				.addManifestHeader(Constants.IMPORT_PACKAGE, "org.lib"));
+		startBundles(new Bundle[] { lib, consumer });
+		assertBundlesActive(new Bundle[] { lib, consumer });
+
+		// the hook rejects every resolution that includes the consumer
+		bundleContext.registerService(ResolverHookFactory.class,
+				new ResolverHookFactory() {
+					public ResolverHook begin(
+							final Collection<BundleRevision> triggers) {
+						for (final BundleRevision revision : triggers) {
+							if (revision.getBundle() == consumer) {
+								throw new IllegalStateException("rejected");
+							}
+						}
+						return new NullResolverHook();
+					}
+				}, null);
+
+		final List<Bundle> errors = Collections
+				.synchronizedList(new ArrayList<Bundle>());
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		framework.adapt(FrameworkWiring.class).refreshBundles(
+				Arrays.asList(lib), new FrameworkListener() {
+					public void frameworkEvent(final FrameworkEvent event) {
+						if (event.getType() == FrameworkEvent.ERROR) {
+							errors.add(event.getBundle());
+						} else if (event
+								.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+							refreshed.countDown();
+						}
+					}
+				});
+		Assert.assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(Arrays.asList(consumer), errors);
+		assertBundlesActive(new Bundle[] { lib });
+		Assert.assertEquals(Bundle.INSTALLED, consumer.getState());
+	}
+
+	private static final class NullResolverHook implements ResolverHook {
+
+		public void filterResolvable(
+				final Collection<BundleRevision> candidates) {
+		}
+
+		public void filterSingletonCollisions(
+				final BundleCapability singleton,
+				final Collection<BundleCapability> collisionCandidates) {
+		}
+
+		public void filterMatches(final BundleRequirement requirement,
+				final Collection<BundleCapability> candidates) {
+		}
+
+		public void end() {
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Tests that resolving bundles again, with or without
+ * org.eclipse.concierge.resolver.incremental, does not add their wires a
+ * second time.
+ */
+public class ResolveTwiceTest extends AbstractConciergeTestCase {
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testFullResolution() throws Exception {
+		resolveTwice(false);
+	}
+
+	@Test
+	public void testIncrementalResolution() throws Exception {
+		resolveTwice(true);
+	}
+
+	private void resolveTwice(final boolean incremental) throws Exception {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put("org.eclipse.concierge.resolver.incremental",
+				String.valueOf(incremental));
+		startFrameworkClean(launchArgs);
+
+		final Bundle provider = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("provider")
+				.addManifestHeader(Constants.EXPORT_PACKAGE, "org.foo"));
+		final Bundle consumer = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("consumer")
+				.addManifestHeader(Constants.IMPORT_PACKAGE, "org.foo"));
+		final FrameworkWiring fw = framework.adapt(FrameworkWiring.class);
+		Assert.assertTrue(fw.resolveBundles(null));
+
+		final Bundle consumer2 = installBundle(SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("consumer2")
+				.addManifestHeader(Constants.IMPORT_PACKAGE, "org.foo"));
+		Assert.assertTrue(fw.resolveBundles(null));
+
+		Assert.assertEquals(1, consumer.adapt(BundleWiring.class)
+				.getRequiredWires(null).size());
+		Assert.assertEquals(1, consumer2.adapt(BundleWiring.class)
+				.getRequiredWires(null).size());
+		Assert.assertEquals(2, provider.adapt(BundleWiring.class)
+				.getProvidedWires(null).size());
+	}
+
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Tests the memorized class space compatibility checks of services.
+ */
+public class ServiceAssignabilityTest extends AbstractConciergeTestCase {
+
+	private static final String MISSING = "org.example.missing.Service";
+
+	private Bundle provider;
+
+	private Bundle consumer;
+
+	@Before
+	public void setUp() throws Exception {
+		startFramework();
+
+		provider = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("provider").bundleVersion("1.0.0"));
+		consumer = installBundle(SyntheticBundleBuilder.newBuilder()
+				.bundleSymbolicName("consumer").bundleVersion("1.0.0"));
+		provider.start();
+		consumer.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testAssignability() throws Exception {
+		final ServiceReference<?> ref = provider.getBundleContext()
+				.registerService(Runnable.class.getName(), new Runnable() {
+					public void run() {
+					}
+				}, null).getReference();
+
+		Assert.assertTrue(ref.isAssignableTo(consumer,
+				Runnable.class.getName()));
+		Assert.assertTrue(ref.isAssignableTo(consumer, MISSING));
+
+		final BundleImpl.Revision revision = ((BundleImpl) consumer).currentRevision;
+		Assert.assertSame(Runnable.class, revision.visibleClasses
+				.get(Runnable.class.getName()));
+		Assert.assertNotNull(revision.visibleClasses.get(MISSING));
+		Assert.assertNull(((BundleImpl) consumer)
+				.getVisibleClass(MISSING));
+
+		// repeated checks are answered from the memo
+		Assert.assertTrue(ref.isAssignableTo(consumer,
+				Runnable.class.getName()));
+		Assert.assertEquals(2, revision.visibleClasses.size());
+	}
+
+	@Test
+	public void testRefreshInvalidates() throws Exception {
+		Assert.assertSame(Runnable.class, ((BundleImpl) consumer)
+				.getVisibleClass(Runnable.class.getName()));
+		Assert.assertFalse(((BundleImpl) consumer).currentRevision.visibleClasses
+				.isEmpty());
+
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		framework.adapt(FrameworkWiring.class).refreshBundles(
+				Arrays.asList(consumer), new FrameworkListener() {
+					public void frameworkEvent(final FrameworkEvent event) {
+						refreshed.countDown();
+					}
+				});
+		Assert.assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+
+		Assert.assertTrue(((BundleImpl) consumer).currentRevision.visibleClasses
+				.isEmpty());
+	}
+
+}
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.concierge.service.registry.BatchServiceRegistrar;
+import org.eclipse.concierge.service.statistics.FrameworkStatistics;
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Tests service lookups through the service registry.
+ */
+public class ServiceRegistryTest extends AbstractConciergeTestCase {
+
+	private static final String RUNNABLE = Runnable.class.getName();
+
+	private static final String OBJECT = Object.class.getName();
+
+	private static final int NUM = 100;
+
+	private ServiceRegistration<?>[] regs;
+
+	@Before
+	public void setUp() throws Exception {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put("org.eclipse.concierge.statistics", "true");
+		startFrameworkClean(launchArgs);
+
+		regs = new ServiceRegistration[NUM];
+		for (int i = 0; i < NUM; i++) {
+			final Dictionary<String, Object> props = new Hashtable<String, Object>();
+			props.put("key", Byte.valueOf((byte) (i % 10)));
+			props.put("name", "service" + i);
+			props.put("tags", new String[] { "tag" + i % 3, "all" });
+			props.put("mixed",
+					i % 2 == 0 ? (Object) "even" : (Object) Double.valueOf(i));
+			regs[i] = bundleContext.registerService(
+					i % 2 == 0 ? RUNNABLE : OBJECT, new TestService(), props);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testEqualityFilters() throws Exception {
+		Assert.assertEquals(10, count(null, "(key=3)"));
+		Assert.assertEquals(10, count(null, "(key= 3 )"));
+		Assert.assertEquals(10, count(null, "(KEY=3)"));
+		Assert.assertEquals(1, count(null, "(name=service42)"));
+		Assert.assertEquals(NUM, count(null, "(tags=all)"));
+		Assert.assertEquals(4, count(null, "(&(tags=tag1)(key=1))"));
+		Assert.assertEquals(NUM / 2, count(null, "(mixed=even)"));
+		Assert.assertEquals(NUM / 2, count(null, "(objectClass=" + RUNNABLE
+				+ ")"));
+		Assert.assertEquals(11, count(null, "(name=service4*)"));
+	}
+
+	@Test
+	public void testEqualityFiltersWithClass() throws Exception {
+		Assert.assertEquals(1, count(RUNNABLE, "(name=service42)"));
+		Assert.assertEquals(0, count(RUNNABLE, "(name=service43)"));
+		Assert.assertEquals(1, count(OBJECT, "(name=service43)"));
+		Assert.assertEquals(NUM / 2, count(RUNNABLE, "(tags=all)"));
+	}
+
+	@Test
+	public void testSetProperties() throws Exception {
+		final Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put("name", "renamed");
+		props.put("key", Integer.valueOf(99));
+		regs[42].setProperties(props);
+
+		Assert.assertEquals(0, count(null, "(name=service42)"));
+		Assert.assertEquals(1, count(null, "(name=renamed)"));
+		Assert.assertEquals(1, count(null, "(key=99)"));
+		Assert.assertEquals(9, count(null, "(key=2)"));
+	}
+
+	@Test
+	public void testUnregister() throws Exception {
+		for (int i = 0; i < NUM; i += 2) {
+			regs[i].unregister();
+		}
+
+		Assert.assertEquals(0, count(null, "(name=service42)"));
+		Assert.assertEquals(1, count(null, "(name=service43)"));
+		Assert.assertEquals(NUM / 2, count(null, "(tags=all)"));
+		Assert.assertEquals(0, count(null, "(mixed=even)"));
+	}
+
+	@Test
+	public void testGetServiceReferenceRanking() throws Exception {
+		// without ranking, the lowest service id wins
+		Assert.assertEquals("service0", bundleContext
+				.getServiceReference(RUNNABLE).getProperty("name"));
+
+		final Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+		regs[42].setProperties(props);
+		Assert.assertEquals("service42", bundleContext
+				.getServiceReference(RUNNABLE).getProperty("name"));
+
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(20));
+		regs[10].setProperties(props);
+		Assert.assertEquals("service10", bundleContext
+				.getServiceReference(RUNNABLE).getProperty("name"));
+
+		regs[10].unregister();
+		Assert.assertEquals("service42", bundleContext
+				.getServiceReference(RUNNABLE).getProperty("name"));
+
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(-1));
+		regs[42].setProperties(props);
+		Assert.assertEquals("service0", bundleContext
+				.getServiceReference(RUNNABLE).getProperty("name"));
+
+		final ServiceReference<?>[] refs = bundleContext
+				.getServiceReferences(RUNNABLE, null);
+		Assert.assertEquals("service42",
+				refs[refs.length - 1].getProperty("name"));
+	}
+
+	@Test
+	public void testGetServiceReferenceNegativeRanking() throws Exception {
+		final Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(-5));
+		bundleContext.registerService(CharSequence.class.getName(), "low",
+				props);
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(-2));
+		bundleContext.registerService(CharSequence.class.getName(), "high",
+				props);
+
+		Assert.assertEquals("high", bundleContext.getService(bundleContext
+				.getServiceReference(CharSequence.class.getName())));
+	}
+
+	@Test
+	public void testServiceListenerBuckets() throws Exception {
+		final List<String> events = new ArrayList<String>();
+		bundleContext.addServiceListener(new RecordingListener(events, "a"),
+				"(objectClass=" + CharSequence.class.getName() + ")");
+		bundleContext.addServiceListener(new RecordingListener(events, "b"),
+				"(&(objectClass=" + Comparable.class.getName()
+						+ ")(name=foo))");
+		bundleContext.addServiceListener(new RecordingListener(events, "c"),
+				"(|(objectClass=" + CharSequence.class.getName()
+						+ ")(objectClass=" + Comparable.class.getName() + "))");
+		bundleContext.addServiceListener(new RecordingListener(events, "d"),
+				"(name=foo)");
+		bundleContext.addServiceListener(new RecordingListener(events, "e"));
+
+		final FrameworkStatistics statistics = framework
+				.adapt(FrameworkStatistics.class);
+		final long evaluations = statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_EVALUATIONS);
+		final long skipped = statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_SKIPPED);
+
+		final Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put("name", "foo");
+		bundleContext.registerService(new String[] {
+				CharSequence.class.getName(), Comparable.class.getName() },
+				"foo", props);
+		Assert.assertEquals("[a, b, c, d, e]", events.toString());
+		Assert.assertEquals(Long.valueOf(evaluations + 5),
+				statistics.getCounters().get(
+						FrameworkStatistics.SERVICE_LISTENER_EVALUATIONS));
+		Assert.assertEquals(Long.valueOf(skipped), statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_SKIPPED));
+
+		events.clear();
+		regs[0].unregister();
+		Assert.assertEquals("[e]", events.toString());
+		Assert.assertEquals(Long.valueOf(evaluations + 7),
+				statistics.getCounters().get(
+						FrameworkStatistics.SERVICE_LISTENER_EVALUATIONS));
+		Assert.assertEquals(Long.valueOf(skipped + 3), statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_SKIPPED));
+	}
+
+	@Test
+	public void testBatchRegistration() throws Exception {
+		final List<String> events = new ArrayList<String>();
+		bundleContext.addServiceListener(
+				new RecordingListener(events, "runnable"),
+				"(objectClass=" + RUNNABLE + ")");
+		bundleContext.addServiceListener(new RecordingListener(events, "foo"),
+				"(name=foo*)");
+		bundleContext.addServiceListener(new RecordingListener(events, "map"),
+				"(objectClass=" + Map.class.getName() + ")");
+		final FrameworkStatistics statistics = framework
+				.adapt(FrameworkStatistics.class);
+		final long evaluations = statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_EVALUATIONS)
+				.longValue();
+		final long skipped = statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_SKIPPED).longValue();
+
+		final BatchServiceRegistrar registrar = framework
+				.adapt(BatchServiceRegistrar.class);
+		final Dictionary<String, Object> props1 = new Hashtable<String, Object>();
+		props1.put("name", "foo1");
+		props1.put(Constants.SERVICE_RANKING, Integer.valueOf(5));
+		final Dictionary<String, Object> props2 = new Hashtable<String, Object>();
+		props2.put("name", "foo2");
+		@SuppressWarnings("unchecked")
+		final Dictionary<String, ?>[] props = new Dictionary[] { props1,
+				props2, null };
+		final ServiceRegistration<?>[] batch = registrar.registerServices(
+				bundleContext,
+				new String[][] { { RUNNABLE }, { RUNNABLE, OBJECT },
+						{ CharSequence.class.getName() } },
+				new Object[] { new TestService(), new TestService(), "bar" },
+				props);
+
+		Assert.assertEquals(3, batch.length);
+		// listeners are visited once for the whole batch
+		Assert.assertEquals("[runnable, runnable, foo, foo]",
+				events.toString());
+		// the map listener is not a candidate for any service of the batch
+		Assert.assertEquals(Long.valueOf(evaluations + 5),
+				statistics.getCounters().get(
+						FrameworkStatistics.SERVICE_LISTENER_EVALUATIONS));
+		Assert.assertEquals(Long.valueOf(skipped + 4), statistics.getCounters()
+				.get(FrameworkStatistics.SERVICE_LISTENER_SKIPPED));
+		Assert.assertEquals("foo1", bundleContext
+				.getServiceReference(RUNNABLE).getProperty("name"));
+		Assert.assertEquals(NUM / 2 + 2, count(RUNNABLE, null));
+		Assert.assertEquals(1, count(null, "(name=foo2)"));
+		Assert.assertEquals(1, count(CharSequence.class.getName(), null));
+
+		batch[0].unregister();
+		Assert.assertEquals(0, count(null, "(name=foo1)"));
+		Assert.assertEquals(1, count(null, "(name=foo*)"));
+	}
+
+	@Test
+	public void testBatchRegistrationInvalid() throws Exception {
+		final BatchServiceRegistrar registrar = framework
+				.adapt(BatchServiceRegistrar.class);
+		try {
+			registrar.registerServices(bundleContext,
+					new String[][] { { RUNNABLE }, { RUNNABLE } },
+					new Object[] { new TestService(), new Object() }, null);
+			Assert.fail("invalid service must be rejected");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals(NUM / 2, count(RUNNABLE, null));
+	}
+
+	private int count(final String clazz, final String filter)
+			throws Exception {
+		final ServiceReference<?>[] refs = bundleContext
+				.getServiceReferences(clazz, filter);
+		return refs == null ? 0 : refs.length;
+	}
+
+	private static final class RecordingListener implements ServiceListener {
+
+		private final List<String> events;
+
+		private final String name;
+
+		RecordingListener(final List<String> events, final String name) {
+			this.events = events;
+			this.name = name;
+		}
+
+		public void serviceChanged(final ServiceEvent event) {
+			events.add(name);
+		}
+
+	}
+
+	private static final class TestService implements Runnable {
+
+		public void run() {
+		}
+
+	}
+
+}
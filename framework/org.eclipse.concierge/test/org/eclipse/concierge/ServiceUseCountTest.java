@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Tests the use counting of services.
+ */
+public class ServiceUseCountTest extends AbstractConciergeTestCase {
+
+	private static final String RUNNABLE = Runnable.class.getName();
+
+	@Before
+	public void setUp() throws Exception {
+		startFramework();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testUseCount() throws Exception {
+		final ServiceReference<?> ref = bundleContext.registerService(
+				RUNNABLE, new TestService(), null).getReference();
+		Assert.assertNull(ref.getUsingBundles());
+
+		Assert.assertNotNull(bundleContext.getService(ref));
+		Assert.assertNotNull(bundleContext.getService(ref));
+		Assert.assertEquals(1, ref.getUsingBundles().length);
+
+		Assert.assertTrue(bundleContext.ungetService(ref));
+		Assert.assertNotNull(ref.getUsingBundles());
+		Assert.assertTrue(bundleContext.ungetService(ref));
+		Assert.assertNull(ref.getUsingBundles());
+		Assert.assertFalse(bundleContext.ungetService(ref));
+	}
+
+	@Test
+	public void testServiceFactory() throws Exception {
+		final CountingFactory factory = new CountingFactory();
+		final ServiceReference<?> ref = bundleContext.registerService(
+				RUNNABLE, factory, null).getReference();
+
+		final Object service = bundleContext.getService(ref);
+		Assert.assertNotNull(service);
+		Assert.assertSame(service, bundleContext.getService(ref));
+		Assert.assertEquals(1, factory.gets.get());
+
+		bundleContext.ungetService(ref);
+		Assert.assertEquals(0, factory.ungets.get());
+		bundleContext.ungetService(ref);
+		Assert.assertEquals(1, factory.ungets.get());
+
+		Assert.assertNotSame(service, bundleContext.getService(ref));
+		Assert.assertEquals(2, factory.gets.get());
+	}
+
+	@Test
+	public void testServiceFactoryConcurrency() throws Exception {
+		final CountingFactory factory = new CountingFactory();
+		final ServiceReference<?> ref = bundleContext.registerService(
+				RUNNABLE, factory, null).getReference();
+
+		final Thread[] threads = new Thread[4];
+		final Object[] services = new Object[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int pos = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						services[pos] = bundleContext.getService(ref);
+						bundleContext.ungetService(ref);
+					}
+					services[pos] = bundleContext.getService(ref);
+				}
+			};
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+
+		for (int i = 1; i < threads.length; i++) {
+			Assert.assertSame(services[0], services[i]);
+		}
+		Assert.assertEquals(factory.gets.get() - 1, factory.ungets.get());
+		Assert.assertEquals(1, ref.getUsingBundles().length);
+	}
+
+	@Test
+	public void testServiceFactoryRecursion() throws Exception {
+		final AtomicInteger errors = new AtomicInteger();
+		bundleContext.addFrameworkListener(new FrameworkListener() {
+			public void frameworkEvent(final FrameworkEvent event) {
+				if (event.getThrowable() instanceof ServiceException
+						&& ((ServiceException) event.getThrowable())
+								.getType() == ServiceException.FACTORY_RECURSION) {
+					errors.incrementAndGet();
+				}
+			}
+		});
+
+		final Object[] inner = new Object[] { "not called" };
+		final ServiceReference<?> ref = bundleContext.registerService(
+				RUNNABLE, new ServiceFactory<Runnable>() {
+					public Runnable getService(final Bundle bundle,
+							final ServiceRegistration<Runnable> registration) {
+						inner[0] = bundle.getBundleContext().getService(
+								registration.getReference());
+						return new TestService();
+					}
+
+					public void ungetService(final Bundle bundle,
+							final ServiceRegistration<Runnable> registration,
+							final Runnable service) {
+					}
+				}, null).getReference();
+
+		Assert.assertNotNull(bundleContext.getService(ref));
+		Assert.assertNull(inner[0]);
+		Assert.assertEquals(1, errors.get());
+
+		// the failed recursive call must not be counted
+		Assert.assertTrue(bundleContext.ungetService(ref));
+		Assert.assertNull(ref.getUsingBundles());
+	}
+
+	private static final class CountingFactory
+			implements ServiceFactory<Runnable> {
+
+		final AtomicInteger gets = new AtomicInteger();
+
+		final AtomicInteger ungets = new AtomicInteger();
+
+		public Runnable getService(final Bundle bundle,
+				final ServiceRegistration<Runnable> registration) {
+			gets.incrementAndGet();
+			return new TestService();
+		}
+
+		public void ungetService(final Bundle bundle,
+				final ServiceRegistration<Runnable> registration,
+				final Runnable service) {
+			ungets.incrementAndGet();
+		}
+
+	}
+
+	private static final class TestService implements Runnable {
+
+		public void run() {
+		}
+
+	}
+
+}
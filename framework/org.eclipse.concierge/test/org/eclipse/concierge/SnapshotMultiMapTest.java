@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.concierge.ConciergeCollections.SnapshotMultiMap;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotMultiMapTest {
+
+	private SnapshotMultiMap<String, String> map;
+
+	@Before
+	public void setUp() throws Exception {
+		map = new SnapshotMultiMap<String, String>(
+				Collections.<String> reverseOrder());
+	}
+
+	@Test
+	public void testOrder() {
+		map.insert("1", "b");
+		map.insert("1", "c");
+		map.insert("1", "a");
+		map.insert(new String[] { "1", "2" }, "d");
+
+		final List<String> val1 = map.lookup("1");
+		assertEquals(4, val1.size());
+		assertEquals("d", val1.get(0));
+		assertEquals("c", val1.get(1));
+		assertEquals("b", val1.get(2));
+		assertEquals("a", val1.get(3));
+
+		assertEquals(1, map.lookup("2").size());
+		assertEquals(4, map.getAllValues().size());
+	}
+
+	@Test
+	public void testSnapshots() {
+		map.insert("1", "a");
+		map.insert("1", "b");
+
+		final List<String> before = map.get("1");
+		final List<String> allBefore = map.getAllValues();
+
+		map.insert("1", "c");
+		map.removeAll(new String[] { "1" }, "a");
+
+		assertEquals(2, before.size());
+		assertEquals(2, allBefore.size());
+		assertEquals(2, map.get("1").size());
+		assertEquals("c", map.get("1").get(0));
+		assertTrue(map.getAllValues().contains("c"));
+		assertFalse(map.getAllValues().contains("a"));
+
+		try {
+			before.add("d");
+			fail("snapshot must not be modifiable");
+		} catch (final UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRemoveLast() {
+		map.insert(new String[] { "1", "2" }, "a");
+		map.removeAll(new String[] { "1", "2" }, "a");
+
+		assertNull(map.get("1"));
+		assertNull(map.get("2"));
+		assertTrue(map.getAllValues().isEmpty());
+	}
+
+}
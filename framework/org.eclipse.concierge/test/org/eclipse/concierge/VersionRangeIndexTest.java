@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.concierge.Concierge.CapabilityRegistry;
+import org.junit.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Resource;
+
+public class VersionRangeIndexTest {
+
+	@Test
+	public void testRangeQuery() {
+		final CapabilityRegistry registry = new CapabilityRegistry();
+		registry.add(new PackageCapability("org.foo", "1.0.0"));
+		registry.add(new PackageCapability("org.foo", "2.1.0"));
+		registry.add(new PackageCapability("org.foo", "1.5.0"));
+		registry.add(new PackageCapability("org.foo", "2.0.0"));
+		registry.add(new PackageCapability("org.bar", "1.2.0"));
+
+		assertVersions(registry.getByVersionRange("org.foo",
+				new VersionRange("[1.0,2.0)")), "1.5.0", "1.0.0");
+		assertVersions(registry.getByVersionRange("org.foo",
+				new VersionRange("(1.0,2.0]")), "2.0.0", "1.5.0");
+		assertVersions(registry.getByVersionRange("org.foo",
+				new VersionRange("2.0")), "2.1.0", "2.0.0");
+		assertVersions(registry.getByVersionRange("org.foo",
+				new VersionRange("[3.0,4.0)")));
+		assertVersions(registry.getByVersionRange("org.baz",
+				new VersionRange("1.0")));
+	}
+
+	@Test
+	public void testFilterRange() throws Exception {
+		assertEquals(new VersionRange("[1.0.0,2.0.0)"),
+				RFC1960Filter.getVersionRange(RFC1960Filter.fromString(
+						"(&(osgi.wiring.package=org.foo)(version>=1.0.0)(!(version>=2.0.0)))")));
+		assertEquals(new VersionRange("(1.0.0,2.0.0]"),
+				RFC1960Filter.getVersionRange(RFC1960Filter.fromString(
+						"(&(osgi.wiring.package=org.foo)(!(version<=1.0.0))(version<=2.0.0))")));
+		assertEquals(new VersionRange("1.5.0"),
+				RFC1960Filter.getVersionRange(RFC1960Filter.fromString(
+						"(&(osgi.wiring.package=org.foo)(version>=1.0.0)(version>=1.5.0))")));
+		assertNull(RFC1960Filter.getVersionRange(RFC1960Filter
+				.fromString("(&(osgi.wiring.package=org.foo)(bar=baz))")));
+		assertNull(RFC1960Filter.getVersionRange(RFC1960Filter.fromString(
+				"(|(osgi.wiring.package=org.foo)(version>=1.0.0))")));
+	}
+
+	private static void assertVersions(final List<Capability> caps,
+			final String... versions) {
+		assertEquals(versions.length, caps.size());
+		for (int i = 0; i < versions.length; i++) {
+			assertEquals(new Version(versions[i]),
+					CapabilityRegistry.getVersion(caps.get(i)));
+		}
+	}
+
+	private static final class PackageCapability implements Capability {
+
+		private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+		PackageCapability(final String pkg, final String version) {
+			attributes.put(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+			attributes.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE,
+					new Version(version));
+		}
+
+		public String getNamespace() {
+			return PackageNamespace.PACKAGE_NAMESPACE;
+		}
+
+		public Map<String, String> getDirectives() {
+			return Collections.emptyMap();
+		}
+
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+
+		public Resource getResource() {
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.concierge.service.statistics.FrameworkStatistics;
+import org.eclipse.concierge.test.util.AbstractConciergeTestCase;
+import org.eclipse.concierge.test.util.SyntheticBundleBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.weaving.WeavingHook;
+import org.osgi.framework.hooks.weaving.WovenClass;
+
+/**
+ * Tests the snapshot of the weaving hooks.
+ */
+public class WeavingHookSnapshotTest extends AbstractConciergeTestCase {
+
+	private final List<String> calls = Collections
+			.synchronizedList(new ArrayList<String>());
+
+	private Bundle bundle;
+
+	@Before
+	public void setUp() throws Exception {
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put("org.eclipse.concierge.statistics", "true");
+		startFrameworkClean(launchArgs);
+
+		final SyntheticBundleBuilder builder = SyntheticBundleBuilder
+				.newBuilder().bundleSymbolicName("woven")
+				.bundleVersion("1.0.0");
+		for (final Class<?> clazz : new Class<?>[] { Target1.class,
+				Target2.class }) {
+			final String path = clazz.getName().replace('.', '/') + ".class";
+			builder.addFile(path, new File(WeavingHookSnapshotTest.class
+					.getResource("/" + path).toURI()));
+		}
+		bundle = installBundle(builder);
+		bundle.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		stopFramework();
+	}
+
+	@Test
+	public void testHookServicesAreHeld() throws Exception {
+		final CountingFactory factory = new CountingFactory("a");
+		final ServiceRegistration<?> reg = bundleContext.registerService(
+				WeavingHook.class.getName(), factory, null);
+
+		bundle.loadClass(Target1.class.getName());
+		bundle.loadClass(Target2.class.getName());
+		Assert.assertEquals(2, calls.size());
+		Assert.assertEquals(1, factory.gets.get());
+		Assert.assertEquals(0, factory.ungets.get());
+
+		final String calls = FrameworkStatistics.WEAVING_HOOK_PREFIX
+				+ reg.getReference().getProperty(Constants.SERVICE_ID) + '.'
+				+ FrameworkStatistics.WEAVING_HOOK_CALLS;
+		final FrameworkStatistics statistics = framework
+				.adapt(FrameworkStatistics.class);
+		Assert.assertEquals(Long.valueOf(2),
+				statistics.getCounters().get(calls));
+
+		reg.unregister();
+		Assert.assertEquals(1, factory.ungets.get());
+		Assert.assertNull(statistics.getCounters().get(calls));
+	}
+
+	@Test
+	public void testSnapshotInUseIsNotReleased() throws Exception {
+		final CountingFactory factory = new CountingFactory("a");
+		final AtomicInteger ungetsDuringWeave = new AtomicInteger(-1);
+		factory.onWeave = new Runnable() {
+			public void run() {
+				// replaces the snapshot while it is in use
+				bundleContext.registerService(WeavingHook.class.getName(),
+						new CountingFactory("b"), null);
+				ungetsDuringWeave.set(factory.ungets.get());
+			}
+		};
+		bundleContext.registerService(WeavingHook.class.getName(), factory,
+				null);
+
+		bundle.loadClass(Target1.class.getName());
+		Assert.assertEquals(0, ungetsDuringWeave.get());
+		Assert.assertEquals(1, factory.ungets.get());
+
+		factory.onWeave = null;
+		bundle.loadClass(Target2.class.getName());
+		Assert.assertEquals(2, factory.gets.get());
+		Assert.assertEquals(Arrays.asList("a:" + Target1.class.getName(),
+				"a:" + Target2.class.getName(), "b:" + Target2.class.getName()),
+				calls);
+	}
+
+	@Test
+	public void testKeyFollowsConfiguration() throws Exception {
+		final Concierge concierge = (Concierge) framework;
+		Assert.assertEquals("", concierge.getWeavingHooksKey());
+
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put("mode", "a");
+		final ServiceRegistration<?> reg = bundleContext.registerService(
+				WeavingHook.class.getName(), new CountingFactory("a"), props);
+		final String key = concierge.getWeavingHooksKey();
+		Assert.assertTrue(key.contains("mode=a"));
+		Assert.assertFalse(key.contains(Constants.SERVICE_ID));
+
+		props.put("mode", "b");
+		reg.setProperties(props);
+		Assert.assertFalse(key.equals(concierge.getWeavingHooksKey()));
+		Assert.assertTrue(concierge.getWeavingHooksKey().contains("mode=b"));
+	}
+
+	@Test
+	public void testRankingOrder() throws Exception {
+		bundleContext.registerService(WeavingHook.class.getName(),
+				new CountingFactory("low"), null);
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+		final ServiceRegistration<?> high = bundleContext.registerService(
+				WeavingHook.class.getName(), new CountingFactory("high"),
+				props);
+
+		bundle.loadClass(Target1.class.getName());
+		Assert.assertEquals(2, calls.size());
+		Assert.assertTrue(calls.get(0).startsWith("high"));
+		Assert.assertTrue(calls.get(1).startsWith("low"));
+
+		// a ranking change rebuilds the snapshot
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(-10));
+		high.setProperties(props);
+		calls.clear();
+		bundle.loadClass(Target2.class.getName());
+		Assert.assertEquals(2, calls.size());
+		Assert.assertTrue(calls.get(0).startsWith("low"));
+		Assert.assertTrue(calls.get(1).startsWith("high"));
+	}
+
+	private final class CountingFactory
+			implements ServiceFactory<WeavingHook> {
+
+		final AtomicInteger gets = new AtomicInteger();
+
+		final AtomicInteger ungets = new AtomicInteger();
+
+		volatile Runnable onWeave;
+
+		private final String name;
+
+		CountingFactory(final String name) {
+			this.name = name;
+		}
+
+		public WeavingHook getService(final Bundle bundle,
+				final ServiceRegistration<WeavingHook> registration) {
+			gets.incrementAndGet();
+			return new WeavingHook() {
+				public void weave(final WovenClass wovenClass) {
+					calls.add(name + ":" + wovenClass.getClassName());
+					final Runnable r = onWeave;
+					if (r != null) {
+						r.run();
+					}
+				}
+			};
+		}
+
+		public void ungetService(final Bundle bundle,
+				final ServiceRegistration<WeavingHook> registration,
+				final WeavingHook service) {
+			ungets.incrementAndGet();
+		}
+
+	}
+
+	public static class Target1 {
+	}
+
+	public static class Target2 {
+	}
+
+}
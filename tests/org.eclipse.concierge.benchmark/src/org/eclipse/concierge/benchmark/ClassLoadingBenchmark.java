@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures loading all classes of a large generated bundle. The bundle is
+ * installed again before each invocation, so every class is read from the
+ * bundle file and defined.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class ClassLoadingBenchmark {
+
+	private static final int PACKAGES = 10;
+
+	@Param({ "1000", "5000" })
+	public int classes;
+
+	/**
+	 * the size of each class file in bytes, roughly.
+	 */
+	@Param({ "1000", "20000" })
+	public int size;
+
+	private EmbeddedFramework framework;
+
+	private byte[] bundle;
+
+	private String[] names;
+
+	private Bundle installed;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		framework = new EmbeddedFramework();
+		names = new String[classes];
+		for (int i = 0; i < classes; i++) {
+			names[i] = "org.example.p" + i % PACKAGES + ".Class" + i;
+		}
+		bundle = generateBundle(names, size);
+	}
+
+	@Setup(Level.Invocation)
+	public void install() throws Exception {
+		installed = framework.getBundleContext().installBundle("generated",
+				new ByteArrayInputStream(bundle));
+		installed.start();
+	}
+
+	@TearDown(Level.Invocation)
+	public void uninstall() throws Exception {
+		installed.uninstall();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		framework.stop();
+	}
+
+	@Benchmark
+	public Class<?> loadAll() throws ClassNotFoundException {
+		Class<?> clazz = null;
+		for (int i = 0; i < names.length; i++) {
+			clazz = installed.loadClass(names[i]);
+		}
+		return clazz;
+	}
+
+	/**
+	 * generate a bundle that contains empty classes. Each class file has a
+	 * constant of the given size, so that the class files are not trivially
+	 * small.
+	 */
+	static byte[] generateBundle(final String[] classnames, final int size)
+			throws IOException {
+		final Manifest mf = new Manifest();
+		final Attributes attrs = mf.getMainAttributes();
+		attrs.put(Attributes.Name.MANIFEST_VERSION, "1");
+		attrs.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+		attrs.putValue(Constants.BUNDLE_SYMBOLICNAME, "generated");
+		attrs.putValue(Constants.BUNDLE_VERSION, "1.0.0");
+
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		try (JarOutputStream jout = new JarOutputStream(bout, mf)) {
+			for (final String classname : classnames) {
+				final String internalName = classname.replace('.', '/');
+				jout.putNextEntry(new ZipEntry(internalName + ".class"));
+				jout.write(generateClass(internalName, size));
+				jout.closeEntry();
+			}
+		}
+		return bout.toByteArray();
+	}
+
+	private static byte[] generateClass(final String internalName,
+			final int size) throws IOException {
+		final StringBuilder padding = new StringBuilder(size);
+		for (int i = 0; i < size; i++) {
+			padding.append((char) ('a' + i % 26));
+		}
+
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bout);
+		out.writeInt(0xCAFEBABE);
+		// Java 5 class file
+		out.writeShort(0);
+		out.writeShort(49);
+		// constant pool
+		out.writeShort(6);
+		out.writeByte(1); // #1 Utf8
+		out.writeUTF(internalName);
+		out.writeByte(7); // #2 Class #1
+		out.writeShort(1);
+		out.writeByte(1); // #3 Utf8
+		out.writeUTF("java/lang/Object");
+		out.writeByte(7); // #4 Class #3
+		out.writeShort(3);
+		out.writeByte(1); // #5 Utf8
+		out.writeUTF(padding.toString());
+		// public super class, this class, super class
+		out.writeShort(0x21);
+		out.writeShort(2);
+		out.writeShort(4);
+		// no interfaces, fields, methods, attributes
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.flush();
+		return bout.toByteArray();
+	}
+
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.eclipse.concierge.Factory;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Boots an embedded Concierge instance with a throw-away storage directory and
+ * creates the services used by the benchmarks.
+ */
+final class EmbeddedFramework {
+
+	static final String SERVICE_CLASS = Runnable.class.getName();
+
+	/**
+	 * number of distinct values of the <code>key</code> property.
+	 */
+	static final int KEYS = 100;
+
+	private final Framework framework;
+
+	private final File storage;
+
+	EmbeddedFramework() throws Exception {
+		storage = File.createTempFile("concierge", "benchmark");
+		storage.delete();
+
+		final Map<String, String> launchArgs = new HashMap<String, String>();
+		launchArgs.put(Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+		launchArgs.put(Constants.FRAMEWORK_STORAGE_CLEAN,
+				Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+		launchArgs.put("org.eclipse.concierge.log.quiet", "true");
+
+		framework = new Factory().newFramework(launchArgs);
+		framework.init();
+		framework.start();
+	}
+
+	BundleContext getBundleContext() {
+		return framework.getBundleContext();
+	}
+
+	Framework getFramework() {
+		return framework;
+	}
+
+	void stop() throws Exception {
+		framework.stop();
+		framework.waitForStop(10000);
+		delete(storage);
+	}
+
+	/**
+	 * register a number of services with a <code>key</code> property that
+	 * takes {@link #KEYS} distinct values and a unique <code>name</code>.
+	 */
+	ServiceRegistration<?>[] registerServices(final int count) {
+		final ServiceRegistration<?>[] regs = new ServiceRegistration[count];
+		for (int i = 0; i < count; i++) {
+			regs[i] = getBundleContext().registerService(SERVICE_CLASS,
+					new BenchmarkService(), properties(i));
+		}
+		return regs;
+	}
+
+	static Dictionary<String, Object> properties(final int i) {
+		final Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put("key", Integer.valueOf(i % KEYS));
+		props.put("name", "service" + i);
+		return props;
+	}
+
+	private static void delete(final File file) throws IOException {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	static final class BenchmarkService implements Runnable {
+
+		public void run() {
+		}
+
+	}
+
+}
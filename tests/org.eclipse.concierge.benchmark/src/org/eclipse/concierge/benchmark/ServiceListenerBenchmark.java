@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.benchmark;
+
+import java.util.Dictionary;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures the delivery of service events to a population of listeners, the
+ * way trackers and declarative services register them: most listeners are
+ * interested in a class and a property value, some in other classes and a few
+ * in everything.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ServiceListenerBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int services;
+
+	@Param({ "100", "1000" })
+	public int listeners;
+
+	private EmbeddedFramework framework;
+
+	private BundleContext context;
+
+	private ServiceRegistration<?> modified;
+
+	private Dictionary<String, Object> props;
+
+	/**
+	 * the number of delivered events.
+	 */
+	public int events;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		framework = new EmbeddedFramework();
+		context = framework.getBundleContext();
+		framework.registerServices(services);
+
+		for (int i = 0; i < listeners; i++) {
+			// adding the same listener object again would only replace its
+			// filter, so every listener is a new object
+			final ServiceListener l = new ServiceListener() {
+				public void serviceChanged(final ServiceEvent event) {
+					events++;
+				}
+			};
+			switch (i % 10) {
+			case 0:
+				context.addServiceListener(l);
+				break;
+			case 1:
+			case 2:
+				context.addServiceListener(l, "(objectClass="
+						+ CharSequence.class.getName() + ")");
+				break;
+			default:
+				context.addServiceListener(l, "(&(objectClass="
+						+ EmbeddedFramework.SERVICE_CLASS + ")(key="
+						+ i % EmbeddedFramework.KEYS + "))");
+			}
+		}
+
+		modified = context.registerService(EmbeddedFramework.SERVICE_CLASS,
+				new EmbeddedFramework.BenchmarkService(),
+				EmbeddedFramework.properties(3));
+		props = EmbeddedFramework.properties(3);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		framework.stop();
+	}
+
+	@Benchmark
+	public void modifiedEvent() {
+		modified.setProperties(props);
+	}
+
+	@Benchmark
+	public void registeredAndUnregisteringEvent() {
+		context.registerService(EmbeddedFramework.SERVICE_CLASS,
+				new EmbeddedFramework.BenchmarkService(),
+				EmbeddedFramework.properties(3)).unregister();
+	}
+
+}
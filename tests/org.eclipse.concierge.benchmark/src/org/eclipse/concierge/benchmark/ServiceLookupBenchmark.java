@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures service lookups and service usage against a populated registry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ServiceLookupBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int services;
+
+	private EmbeddedFramework framework;
+
+	private BundleContext context;
+
+	private ServiceReference<?> ref;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		framework = new EmbeddedFramework();
+		context = framework.getBundleContext();
+		framework.registerServices(services);
+		ref = context.getServiceReference(EmbeddedFramework.SERVICE_CLASS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		framework.stop();
+	}
+
+	@Benchmark
+	public ServiceReference<?>[] getServiceReferences()
+			throws InvalidSyntaxException {
+		return context.getServiceReferences(EmbeddedFramework.SERVICE_CLASS,
+				null);
+	}
+
+	@Benchmark
+	public ServiceReference<?>[] getServiceReferencesEqualityFilter()
+			throws InvalidSyntaxException {
+		return context.getServiceReferences(EmbeddedFramework.SERVICE_CLASS,
+				"(name=service42)");
+	}
+
+	@Benchmark
+	public ServiceReference<?>[] getServiceReferencesComplexFilter()
+			throws InvalidSyntaxException {
+		return context.getServiceReferences(EmbeddedFramework.SERVICE_CLASS,
+				"(&(key=42)(|(name=service42)(name=service142)))");
+	}
+
+	@Benchmark
+	public ServiceReference<?>[] getServiceReferencesRangeFilter()
+			throws InvalidSyntaxException {
+		return context.getServiceReferences(EmbeddedFramework.SERVICE_CLASS,
+				"(key<=0)");
+	}
+
+	@Benchmark
+	public ServiceReference<?> getServiceReference() {
+		return context.getServiceReference(EmbeddedFramework.SERVICE_CLASS);
+	}
+
+	@Benchmark
+	public boolean getUngetService() {
+		context.getService(ref);
+		return context.ungetService(ref);
+	}
+
+}
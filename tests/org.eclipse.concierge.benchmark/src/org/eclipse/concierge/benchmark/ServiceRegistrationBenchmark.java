@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Concierge contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * The Eclipse Public License is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *     Concierge contributors - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.concierge.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures filling and draining the registry with all services, and a single
+ * registration at a steady registry size.
+ */
+public class ServiceRegistrationBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Registry {
+
+		@Param({ "1000", "10000", "100000" })
+		public int services;
+
+		EmbeddedFramework framework;
+
+		ServiceRegistration<?>[] regs;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			framework = new EmbeddedFramework();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			framework.stop();
+		}
+
+	}
+
+	/**
+	 * an empty registry, drained after each invocation.
+	 */
+	@State(Scope.Benchmark)
+	public static class EmptyRegistry extends Registry {
+
+		@TearDown(Level.Invocation)
+		public void unregister() {
+			for (int i = 0; i < regs.length; i++) {
+				regs[i].unregister();
+			}
+		}
+
+	}
+
+	/**
+	 * a registry that is filled before each invocation.
+	 */
+	@State(Scope.Benchmark)
+	public static class FullRegistry extends Registry {
+
+		@Setup(Level.Invocation)
+		public void register() {
+			regs = framework.registerServices(services);
+		}
+
+	}
+
+	/**
+	 * a registry that stays filled.
+	 */
+	@State(Scope.Benchmark)
+	public static class SteadyRegistry extends Registry {
+
+		@Setup(Level.Trial)
+		public void register() {
+			regs = framework.registerServices(services);
+		}
+
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public ServiceRegistration<?>[] registerAll(final EmptyRegistry registry) {
+		registry.regs = registry.framework.registerServices(registry.services);
+		return registry.regs;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public void unregisterAll(final FullRegistry registry) {
+		final ServiceRegistration<?>[] regs = registry.regs;
+		for (int i = 0; i < regs.length; i++) {
+			regs[i].unregister();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void registerUnregister(final SteadyRegistry registry) {
+		registry.framework.getBundleContext()
+				.registerService(EmbeddedFramework.SERVICE_CLASS,
+						new EmbeddedFramework.BenchmarkService(),
+						EmbeddedFramework.properties(0))
+				.unregister();
+	}
+
+}
@@ -16,7 +16,13 @@ public class Activator implements BundleActivator {
 		System.out.println("Timestamp");
 		new ServiceRegistryStressTest().run(context);
 		System.out.println("Timestamp");
+		new ConcurrentServiceRegistryStressTest().run(context);
+		System.out.println("Timestamp");
+		new ServiceUseStressTest().run(context);
+		System.out.println("Timestamp");
 		new ResolverStressTest().run(context);
+		System.out.println("Timestamp");
+		new IncrementalResolverStressTest().run(context);
 	}
 
 	/*
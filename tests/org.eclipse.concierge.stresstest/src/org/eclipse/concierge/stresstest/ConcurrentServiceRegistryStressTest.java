@@ -0,0 +1,128 @@
+package org.eclipse.concierge.stresstest;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Random;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceRegistration;
+
+public class ConcurrentServiceRegistryStressTest {
+
+	private static final int NUM = 10000;
+
+	private static final long DURATION = 2000;
+
+	private static final String CLS_NAME = Object.class.getName();
+
+	private Random random = new Random();
+
+	private volatile boolean running;
+
+	public void run(final BundleContext context) throws Exception {
+		final ServiceRegistration<?>[] services = new ServiceRegistration[NUM];
+
+		final byte[] bytes = new byte[NUM];
+		random.nextBytes(bytes);
+
+		for (int i = 0; i < NUM; i++) {
+			final Dictionary<String, Object> props = new Hashtable<String, Object>();
+
+			props.put("key", bytes[i]);
+
+			services[i] = context
+					.registerService(CLS_NAME, new Object(), props);
+		}
+
+		final int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("measuring concurrent lookups on " + cores
+				+ " cores");
+
+		double singleThreaded = 0;
+		for (int threads = 1; threads <= cores; threads = threads * 2) {
+			final double throughput = measure(context, threads);
+			if (threads == 1) {
+				singleThreaded = throughput;
+			}
+			System.out.println("threads: " + threads + " lookups/s: "
+					+ (long) throughput + " speedup: "
+					+ (float) (throughput / singleThreaded));
+		}
+
+		for (int i = 0; i < NUM; i++) {
+			services[i].unregister();
+		}
+	}
+
+	/**
+	 * run reader threads while the registry is being modified and return the
+	 * number of lookups per second.
+	 */
+	private double measure(final BundleContext context, final int threads)
+			throws InterruptedException {
+		final Reader[] readers = new Reader[threads];
+		for (int i = 0; i < threads; i++) {
+			readers[i] = new Reader(context, random.nextInt());
+		}
+
+		// simulates bundles registering services during dynamic updates
+		final Thread writer = new Thread() {
+			public void run() {
+				final Dictionary<String, Object> props = new Hashtable<String, Object>();
+				props.put("key", (byte) 0);
+				while (running) {
+					context.registerService(CLS_NAME, new Object(), props)
+							.unregister();
+				}
+			}
+		};
+
+		running = true;
+		writer.start();
+		for (int i = 0; i < threads; i++) {
+			readers[i].start();
+		}
+
+		Thread.sleep(DURATION);
+
+		running = false;
+		writer.join();
+		long lookups = 0;
+		for (int i = 0; i < threads; i++) {
+			readers[i].join();
+			lookups += readers[i].lookups;
+		}
+
+		return lookups * 1000d / DURATION;
+	}
+
+	private final class Reader extends Thread {
+
+		private final BundleContext context;
+
+		private final Random random;
+
+		long lookups;
+
+		Reader(final BundleContext context, final int seed) {
+			this.context = context;
+			this.random = new Random(seed);
+		}
+
+		public void run() {
+			try {
+				while (running) {
+					context.getServiceReferences(CLS_NAME, "(key="
+							+ (byte) random.nextInt() + ")");
+					context.getServiceReference(CLS_NAME);
+					lookups += 2;
+				}
+			} catch (final InvalidSyntaxException e) {
+				e.printStackTrace();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.eclipse.concierge.stresstest;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * resolves the topology of the {@link ResolverStressTest}, then installs a few
+ * more bundles into the resolved system and resolves again. With
+ * org.eclipse.concierge.resolver.incremental set, the second resolution only
+ * considers the new bundles. The bundles have their own symbolic names and
+ * locations, so they are installed next to the bundles of an earlier
+ * {@link ResolverStressTest} run in the same framework.
+ */
+public class IncrementalResolverStressTest {
+
+	private static final int NUM_INCREMENTAL = 10;
+
+	public void run(final BundleContext context) throws BundleException,
+			IOException {
+		final ResolverTopology topology = new ResolverTopology("incremental");
+		final Bundle[] bundles = topology.install(context,
+				ResolverTopology.NUM);
+		checkInstalled(bundles);
+
+		final FrameworkWiring fw = context.getBundle(0).adapt(
+				FrameworkWiring.class);
+
+		System.err.println("RESOLVING");
+		final long time = System.nanoTime();
+		fw.resolveBundles(Arrays.asList(bundles));
+		System.err.println("RESOLVE TIME " + (System.nanoTime() - time)
+				/ 1000000);
+
+		checkInstalled(topology.install(context, NUM_INCREMENTAL));
+
+		System.err.println("RESOLVING INCREMENTALLY");
+		final long time2 = System.nanoTime();
+		fw.resolveBundles(null);
+		System.err.println("INCREMENTAL RESOLVE TIME "
+				+ (System.nanoTime() - time2) / 1000000);
+	}
+
+	/**
+	 * make sure that the bundles are new and nothing was resolved before the
+	 * measurement.
+	 */
+	private static void checkInstalled(final Bundle[] bundles) {
+		for (final Bundle bundle : bundles) {
+			if (bundle.getState() != Bundle.INSTALLED) {
+				throw new IllegalStateException(bundle.getLocation()
+						+ " is already resolved, state " + bundle.getState());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.eclipse.concierge.stresstest;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * compares the wall time of the sequential and the parallel resolution of the
+ * generated {@link ResolverTopology}. Every round starts a fresh framework,
+ * installs the same bundles and resolves them at once. Runs outside of a
+ * framework with Concierge on the classpath.
+ */
+public class ResolverBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(final String... args) throws Exception {
+		final int threads = args.length > 0 ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+
+		final long sequential = run(0);
+		final long parallel = run(threads);
+
+		System.err.println("SEQUENTIAL RESOLVE TIME " + sequential);
+		System.err.println("PARALLEL RESOLVE TIME (" + threads + " THREADS) "
+				+ parallel);
+	}
+
+	/**
+	 * @return the best resolve time of all rounds in milliseconds.
+	 */
+	private static long run(final int threads) throws Exception {
+		final FrameworkFactory factory = ServiceLoader
+				.load(FrameworkFactory.class).iterator().next();
+		final File storage = new File(System.getProperty("java.io.tmpdir"),
+				"concierge-resolver-benchmark");
+
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			final Map<String, String> config = new HashMap<String, String>();
+			config.put(Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+			config.put(Constants.FRAMEWORK_STORAGE_CLEAN,
+					Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+			config.put("org.eclipse.concierge.resolver.threads",
+					String.valueOf(threads));
+
+			final Framework framework = factory.newFramework(config);
+			framework.start();
+			try {
+				final Bundle[] bundles = new ResolverTopology("bundle")
+						.install(framework.getBundleContext(),
+								ResolverTopology.NUM);
+				final FrameworkWiring fw = framework
+						.adapt(FrameworkWiring.class);
+
+				final long time = System.nanoTime();
+				fw.resolveBundles(Arrays.asList(bundles));
+				best = Math.min(best, (System.nanoTime() - time) / 1000000);
+			} finally {
+				framework.stop();
+				framework.waitForStop(0);
+			}
+		}
+		return best;
+	}
+
+}
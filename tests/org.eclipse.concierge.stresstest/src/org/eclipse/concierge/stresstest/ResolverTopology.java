@@ -0,0 +1,129 @@
+package org.eclipse.concierge.stresstest;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+/**
+ * generates the bundles of the resolver stress tests. Every bundle imports and
+ * exports a few of a fixed set of packages with versions drawn from
+ * {@link NotRandom}, so a new topology always generates the same bundles.
+ */
+public class ResolverTopology {
+
+	static final int NUM = 1000;
+	private static final int NUM_PKGS = 50;
+	private static final int MIN_VERSION_MAJOR = 1;
+	private static final int MAX_VERSION_MAJOR = 20;
+	private static final int MAX_IMPORTS_EXPORTS = 5;
+
+	private static final String[] pkgNames = new String[NUM_PKGS];
+
+	static {
+		for (int i = 0; i < NUM_PKGS; i++) {
+			pkgNames[i] = "org.eclipse.test.package" + i;
+		}
+	}
+
+	private final NotRandom random = new NotRandom();
+
+	private final String prefix;
+
+	/**
+	 * the number of the next bundle.
+	 */
+	private int next;
+
+	/**
+	 * @param prefix
+	 *            the prefix of the symbolic names and locations of the
+	 *            bundles. Topologies that are installed into the same
+	 *            framework need different prefixes.
+	 */
+	public ResolverTopology(final String prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * install the next bundles of the topology.
+	 *
+	 * @return the installed bundles.
+	 */
+	public Bundle[] install(final BundleContext context, final int count)
+			throws BundleException, IOException {
+		final Bundle[] bundles = new Bundle[count];
+
+		long installationTime = 0;
+
+		for (int i = 0; i < count; i++) {
+			final BundleGenerator gen = generate();
+			final long t = System.nanoTime();
+			bundles[i] = gen.install(context);
+			installationTime += (System.nanoTime() - t);
+		}
+
+		System.err.println("INSTALLATION TIME " + (installationTime / 1000000));
+
+		return bundles;
+	}
+
+	private BundleGenerator generate() {
+		final int i = next++;
+		final BundleGenerator gen = new BundleGenerator(prefix + i,
+				new Version(1, 0, i));
+
+		final int dirs = random.nextInt(MAX_IMPORTS_EXPORTS);
+
+		final Set<String> imports = new HashSet<String>();
+		final Set<String> exports = new HashSet<String>();
+
+		for (int j = 0; j < dirs; j++) {
+			if (random.nextBoolean()) {
+				// IMPORT
+				final int v1Major = MIN_VERSION_MAJOR
+						+ random.nextInt(MAX_VERSION_MAJOR
+								- MIN_VERSION_MAJOR + 1);
+				final int v2Major = MIN_VERSION_MAJOR
+						+ random.nextInt(MAX_VERSION_MAJOR
+								- MIN_VERSION_MAJOR + 1);
+
+				final Version v1 = new Version(v1Major, random.nextInt(10),
+						random.nextInt(10));
+
+				final Version v2 = new Version(v2Major, random.nextInt(10),
+						random.nextInt(10));
+
+				final Version lowerBound = v1.compareTo(v2) < 1 ? v1 : v2;
+				final Version upperBound = v1.compareTo(v2) >= 1 ? v1 : v2;
+
+				gen.addPackageImport(drawPackage(imports),
+						new VersionRange('[', lowerBound, upperBound, ')'));
+			} else {
+				// EXPORT
+				final Version version = new Version(
+						random.nextInt(MAX_VERSION_MAJOR
+								- MIN_VERSION_MAJOR + 1),
+						random.nextInt(10), random.nextInt(10));
+
+				gen.addPackageExport(drawPackage(exports), version);
+			}
+		}
+		return gen;
+	}
+
+	private String drawPackage(final Set<String> history) {
+		String drawn;
+		do {
+			drawn = pkgNames[random.nextInt(NUM_PKGS)];
+		} while (history.contains(drawn));
+		history.add(drawn);
+		return drawn;
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.eclipse.concierge.stresstest;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+public class ServiceUseStressTest {
+
+	private static final long DURATION = 2000;
+
+	private static final String CLS_NAME = Runnable.class.getName();
+
+	private volatile boolean running;
+
+	public void run(final BundleContext context) throws Exception {
+		final ServiceRegistration<?> plain = context.registerService(CLS_NAME,
+				new Runnable() {
+					public void run() {
+					}
+				}, null);
+		final ServiceRegistration<?> factory = context.registerService(
+				CLS_NAME, new ServiceFactory<Runnable>() {
+					public Runnable getService(final Bundle bundle,
+							final ServiceRegistration<Runnable> registration) {
+						return new Runnable() {
+							public void run() {
+							}
+						};
+					}
+
+					public void ungetService(final Bundle bundle,
+							final ServiceRegistration<Runnable> registration,
+							final Runnable service) {
+					}
+				}, null);
+
+		final int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("measuring get/unget on " + cores + " cores");
+
+		report(context, "plain", plain.getReference(), cores);
+		report(context, "factory", factory.getReference(), cores);
+
+		plain.unregister();
+		factory.unregister();
+	}
+
+	private void report(final BundleContext context, final String name,
+			final ServiceReference<?> ref, final int cores)
+			throws InterruptedException {
+		// keep one use so that the factory is only called once
+		context.getService(ref);
+
+		double singleThreaded = 0;
+		for (int threads = 1; threads <= cores; threads = threads * 2) {
+			final double throughput = measure(context, ref, threads);
+			if (threads == 1) {
+				singleThreaded = throughput;
+			}
+			System.out.println(name + " threads: " + threads
+					+ " get/unget pairs/s: " + (long) throughput
+					+ " speedup: " + (float) (throughput / singleThreaded));
+		}
+
+		context.ungetService(ref);
+	}
+
+	/**
+	 * run threads that get and unget the service and return the number of
+	 * get/unget pairs per second.
+	 */
+	private double measure(final BundleContext context,
+			final ServiceReference<?> ref, final int threads)
+			throws InterruptedException {
+		final User[] users = new User[threads];
+		for (int i = 0; i < threads; i++) {
+			users[i] = new User(context, ref);
+		}
+
+		running = true;
+		for (int i = 0; i < threads; i++) {
+			users[i].start();
+		}
+
+		Thread.sleep(DURATION);
+
+		running = false;
+		long pairs = 0;
+		for (int i = 0; i < threads; i++) {
+			users[i].join();
+			pairs += users[i].pairs;
+		}
+
+		return pairs * 1000d / DURATION;
+	}
+
+	private final class User extends Thread {
+
+		private final BundleContext context;
+
+		private final ServiceReference<?> ref;
+
+		long pairs;
+
+		User(final BundleContext context, final ServiceReference<?> ref) {
+			this.context = context;
+			this.ref = ref;
+		}
+
+		public void run() {
+			while (running) {
+				context.getService(ref);
+				context.ungetService(ref);
+				pairs++;
+			}
+		}
+
+	}
+
+}